@@ -0,0 +1,189 @@
+package us.kbase.shock.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/** A batch of changes to the ACLs of many shock nodes, applied via
+ * {@link BasicShockClient#updateACLs(ACLBatch, BulkOptions)}.
+ *
+ * Rather than a request per change, the changes are coalesced into at most one request per
+ * node, ACL type, and addition or removal, each adding or removing all the users for that
+ * combination at once. If a user is added to and removed from the same ACL of the same node,
+ * only the last change is kept, which has the same effect as applying the changes in order -
+ * for example, adding and then removing a user sends only the removal, and removing and then
+ * adding a user sends only the addition. The earlier change is not simply dropped along with
+ * the later one, since the user may already have been in the ACL before the batch. Since
+ * shock only allows one owner, only the last owner added to a node is kept.
+ */
+public class ACLBatch {
+
+	/* A coalesced change to a node's ACL. */
+	static class ACLChange {
+
+		private final ShockACLType aclType;
+		private final List<String> users;
+		private final boolean add;
+
+		private ACLChange(final ShockACLType aclType, final List<String> users, final boolean add) {
+			this.aclType = aclType;
+			this.users = Collections.unmodifiableList(users);
+			this.add = add;
+		}
+
+		ShockACLType getACLType() {
+			return aclType;
+		}
+
+		List<String> getUsers() {
+			return users;
+		}
+
+		boolean isAdd() {
+			return add;
+		}
+	}
+
+	// node -> acl type -> user -> true to add, false to remove
+	private final Map<ShockNodeId, Map<ShockACLType, Map<String, Boolean>>> changes;
+
+	private ACLBatch(final Map<ShockNodeId, Map<ShockACLType, Map<String, Boolean>>> changes) {
+		this.changes = changes;
+	}
+
+	/** Get the nodes whose ACLs the batch changes.
+	 * @return the node IDs, in the order they were first added to the batch.
+	 */
+	public List<ShockNodeId> getNodes() {
+		return Collections.unmodifiableList(new ArrayList<>(changes.keySet()));
+	}
+
+	/** Get the number of requests required to apply the batch.
+	 * @return the number of requests.
+	 */
+	public int getRequestCount() {
+		int count = 0;
+		for (final ShockNodeId id: changes.keySet()) {
+			count += getChanges(id).size();
+		}
+		return count;
+	}
+
+	/* Get the coalesced changes for a node. Ownership changes are last, since they may
+	 * prevent the user from changing the other ACLs.
+	 */
+	List<ACLChange> getChanges(final ShockNodeId id) {
+		final List<ACLChange> ret = new ArrayList<>();
+		final List<ACLChange> owner = new ArrayList<>();
+		for (final Entry<ShockACLType, Map<String, Boolean>> e: changes.get(id).entrySet()) {
+			final List<String> add = new ArrayList<>();
+			final List<String> remove = new ArrayList<>();
+			for (final Entry<String, Boolean> u: e.getValue().entrySet()) {
+				(u.getValue() ? add : remove).add(u.getKey());
+			}
+			final List<ACLChange> target = e.getKey() == ShockACLType.OWNER ? owner : ret;
+			if (!add.isEmpty()) {
+				target.add(new ACLChange(e.getKey(), add, true));
+			}
+			if (!remove.isEmpty()) {
+				target.add(new ACLChange(e.getKey(), remove, false));
+			}
+		}
+		ret.addAll(owner);
+		return ret;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("ACLBatch [changes=");
+		builder.append(changes);
+		builder.append("]");
+		return builder.toString();
+	}
+
+	/** Get a builder for an {@link ACLBatch}.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder() {
+		return new Builder();
+	}
+
+	/** A builder for an {@link ACLBatch}. */
+	public static class Builder {
+
+		private final Map<ShockNodeId, Map<ShockACLType, Map<String, Boolean>>> changes =
+				new LinkedHashMap<>();
+
+		private Builder() {}
+
+		/** Add users to a node's ACL.
+		 * @param id the node to update.
+		 * @param users the users to add to the ACL.
+		 * @param aclType the ACL to which the users should be added.
+		 * @return this builder.
+		 */
+		public Builder addToNodeAcl(
+				final ShockNodeId id,
+				final List<String> users,
+				final ShockACLType aclType) {
+			return change(id, users, aclType, true);
+		}
+
+		/** Remove users from a node's ACL.
+		 * @param id the node to update.
+		 * @param users the users to remove from the ACL.
+		 * @param aclType the ACL from which the users should be removed.
+		 * @return this builder.
+		 */
+		public Builder removeFromNodeAcl(
+				final ShockNodeId id,
+				final List<String> users,
+				final ShockACLType aclType) {
+			return change(id, users, aclType, false);
+		}
+
+		private Builder change(
+				final ShockNodeId id,
+				final List<String> users,
+				final ShockACLType aclType,
+				final boolean add) {
+			BasicShockClient.checkACLArgs(id, users, aclType);
+			final Map<String, Boolean> acl = changes
+					.computeIfAbsent(id, k -> new EnumMap<>(ShockACLType.class))
+					.computeIfAbsent(aclType, k -> new LinkedHashMap<>());
+			for (final String user: users) {
+				if (add && aclType == ShockACLType.OWNER) {
+					acl.values().remove(true); // there can only be one owner
+				}
+				// reinsert so the last change determines the order
+				acl.remove(user);
+				acl.put(user, add);
+			}
+			return this;
+		}
+
+		/** Build the batch.
+		 * @return the batch.
+		 */
+		public ACLBatch build() {
+			final Map<ShockNodeId, Map<ShockACLType, Map<String, Boolean>>> copy =
+					new LinkedHashMap<>();
+			for (final Entry<ShockNodeId, Map<ShockACLType, Map<String, Boolean>>> e:
+					changes.entrySet()) {
+				final Map<ShockACLType, Map<String, Boolean>> acls =
+						new EnumMap<>(ShockACLType.class);
+				for (final Entry<ShockACLType, Map<String, Boolean>> acl:
+						e.getValue().entrySet()) {
+					acls.put(acl.getKey(), new LinkedHashMap<>(acl.getValue()));
+				}
+				copy.put(e.getKey(), acls);
+			}
+			return new ACLBatch(copy);
+		}
+	}
+}
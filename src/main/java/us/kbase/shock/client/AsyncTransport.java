@@ -0,0 +1,398 @@
+package us.kbase.shock.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+import org.apache.hc.client5.http.async.methods.AbstractBinResponseConsumer;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HeaderElements;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
+import org.apache.hc.core5.io.CloseMode;
+
+/** The non-blocking transport used by a {@link BasicShockClient}'s asynchronous methods.
+ * A small number of I/O threads multiplex all the in flight requests, rather than each
+ * request occupying a thread until it completes.
+ *
+ * Response data is written to the caller's streams, and upload data read from the caller's
+ * channels, on the I/O threads, and so those streams and channels should not block for
+ * extended periods.
+ */
+class AsyncTransport implements Closeable {
+
+	private static final String AUTH = "Authorization";
+
+	private final CloseableHttpAsyncClient client;
+
+	/** Create the transport.
+	 * @param client the async client. The client will be started if necessary and will be
+	 * closed when the transport is closed.
+	 */
+	AsyncTransport(final CloseableHttpAsyncClient client) {
+		this.client = client;
+		client.start();
+	}
+
+	/** Make a request where the response body, if any, is buffered in memory.
+	 * @param method the HTTP method.
+	 * @param uri the target URI.
+	 * @param authorization the authorization header, or null for none.
+	 * @return the response.
+	 */
+	CompletableFuture<SimpleHttpResponse> request(
+			final String method,
+			final URI uri,
+			final String authorization) {
+		return execute(request(method, uri, authorization, null),
+				SimpleResponseConsumer.create(), null);
+	}
+
+	/** Make a request with a small, in memory body where the response body, if any, is
+	 * buffered in memory.
+	 * @param method the HTTP method.
+	 * @param uri the target URI.
+	 * @param authorization the authorization header, or null for none.
+	 * @param body the request body.
+	 * @param contentType the content type of the request body.
+	 * @return the response.
+	 */
+	CompletableFuture<SimpleHttpResponse> request(
+			final String method,
+			final URI uri,
+			final String authorization,
+			final byte[] body,
+			final String contentType) {
+		final AsyncRequestBuilder req = builder(method, uri, authorization);
+		req.setEntity(body, ContentType.parse(contentType));
+		return execute(req.build(), SimpleResponseConsumer.create(), null);
+	}
+
+	/** Make a request with a streaming body where the response body, if any, is buffered in
+	 * memory. If reading the body fails, the returned future fails with the read error.
+	 * @param method the HTTP method.
+	 * @param uri the target URI.
+	 * @param authorization the authorization header, or null for none.
+	 * @param body the request body.
+	 * @param expectContinue true to send the Expect: 100-continue header, so that the server
+	 * may reject the request before the body is sent.
+	 * @return the response.
+	 */
+	CompletableFuture<SimpleHttpResponse> upload(
+			final String method,
+			final URI uri,
+			final String authorization,
+			final MultipartProducer body,
+			final boolean expectContinue) {
+		final AsyncRequestBuilder req = builder(method, uri, authorization);
+		req.setEntity(body);
+		if (expectContinue) {
+			req.setHeader(HttpHeaders.EXPECT, HeaderElements.CONTINUE);
+		}
+		return execute(req.build(), SimpleResponseConsumer.create(), body);
+	}
+
+	/** Make a request and stream the response body to an output stream. If the response code
+	 * is greater than 299, the response body is instead buffered in memory and is available
+	 * from the response.
+	 * @param uri the target URI.
+	 * @param authorization the authorization header, or null for none.
+	 * @param os the stream to which the response body will be written.
+	 * @return the response.
+	 */
+	CompletableFuture<SimpleHttpResponse> download(
+			final URI uri,
+			final String authorization,
+			final OutputStream os) {
+		return execute(request("GET", uri, authorization, null), new DownloadConsumer(os), null);
+	}
+
+	private AsyncRequestBuilder builder(
+			final String method,
+			final URI uri,
+			final String authorization) {
+		final AsyncRequestBuilder req = AsyncRequestBuilder.create(method).setUri(uri);
+		if (authorization != null) {
+			req.setHeader(AUTH, authorization);
+		}
+		return req;
+	}
+
+	private AsyncRequestProducer request(
+			final String method,
+			final URI uri,
+			final String authorization,
+			final AsyncEntityProducer body) {
+		final AsyncRequestBuilder req = builder(method, uri, authorization);
+		if (body != null) {
+			req.setEntity(body);
+		}
+		return req.build();
+	}
+
+	private <T> CompletableFuture<T> execute(
+			final AsyncRequestProducer request,
+			final AsyncResponseConsumer<T> consumer,
+			final MultipartProducer body) {
+		final CompletableFuture<T> fut = new CompletableFuture<>();
+		final Future<T> httpfut = client.execute(request, consumer, new FutureCallback<T>() {
+
+			@Override
+			public void completed(final T result) {
+				fut.complete(result);
+			}
+
+			@Override
+			public void failed(final Exception ex) {
+				// the http client may report body read errors as a closed connection
+				if (body != null && body.failure != null) {
+					fut.completeExceptionally(body.failure);
+				} else {
+					fut.completeExceptionally(ex);
+				}
+			}
+
+			@Override
+			public void cancelled() {
+				fut.cancel(false);
+			}
+		});
+		fut.whenComplete((r, e) -> {
+			if (fut.isCancelled()) {
+				httpfut.cancel(true);
+			}
+		});
+		return fut;
+	}
+
+	@Override
+	public void close() {
+		client.close(CloseMode.GRACEFUL);
+	}
+
+	private static class DownloadConsumer extends AbstractBinResponseConsumer<SimpleHttpResponse> {
+
+		private final OutputStream os;
+		private SimpleHttpResponse response = null;
+		// non-null if the response is an error
+		private ByteArrayOutputStream error = null;
+
+		private DownloadConsumer(final OutputStream os) {
+			this.os = os;
+		}
+
+		@Override
+		protected void start(final HttpResponse response, final ContentType contentType) {
+			this.response = SimpleHttpResponse.copy(response);
+			if (response.getCode() > 299) {
+				error = new ByteArrayOutputStream();
+			}
+		}
+
+		@Override
+		protected int capacityIncrement() {
+			// data is written synchronously, so no need for flow control
+			return Integer.MAX_VALUE;
+		}
+
+		@Override
+		protected void data(final ByteBuffer src, final boolean endOfStream) throws IOException {
+			final OutputStream target = error == null ? os : error;
+			if (src.hasArray()) {
+				target.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+				src.position(src.limit());
+			} else {
+				final byte[] b = new byte[src.remaining()];
+				src.get(b);
+				target.write(b);
+			}
+		}
+
+		@Override
+		protected SimpleHttpResponse buildResult() {
+			if (error != null) {
+				response.setBody(error.toByteArray(), null);
+			}
+			return response;
+		}
+
+		@Override
+		public void releaseResources() {
+			// nothing to do, the caller owns the output stream
+		}
+	}
+
+	/** Streams a multipart form whose final part's body is read from a channel. The
+	 * form data before and after the final part's body is provided pre-serialized.
+	 */
+	static class MultipartProducer implements AsyncEntityProducer {
+
+		private static final int BUFFER_SIZE = 64 * 1024;
+
+		private final ByteBuffer preamble;
+		private final ReadableByteChannel source;
+		private final ByteBuffer epilogue;
+		private final String contentType;
+		private final long contentLength;
+		private long dataRemaining;
+		private ByteBuffer dataBuffer = null;
+		private ByteBuffer current = null;
+		private long sent = 0;
+		private boolean ended = false;
+		private volatile IOException failure = null;
+
+		/** Create the producer.
+		 * @param preamble the serialized form up to the start of the last part's body.
+		 * @param source the source of the last part's body. The channel is closed when the
+		 * producer's resources are released.
+		 * @param sourceLength the length of the last part's body, or a negative number if the
+		 * length is unknown, in which case the form is sent with chunked transfer encoding.
+		 * @param epilogue the serialized form after the end of the last part's body.
+		 * @param contentType the content type of the form, including the boundary.
+		 */
+		MultipartProducer(
+				final byte[] preamble,
+				final ReadableByteChannel source,
+				final long sourceLength,
+				final byte[] epilogue,
+				final String contentType) {
+			this.preamble = ByteBuffer.wrap(preamble);
+			this.source = source;
+			// negative if the length is unknown
+			this.dataRemaining = sourceLength < 0 ? -1 : sourceLength;
+			this.epilogue = ByteBuffer.wrap(epilogue);
+			this.contentType = contentType;
+			this.contentLength = sourceLength < 0 ? -1 :
+				preamble.length + sourceLength + epilogue.length;
+		}
+
+		@Override
+		public int available() {
+			if (contentLength < 0) {
+				return ended ? 0 : BUFFER_SIZE;
+			}
+			return (int) Math.min(Integer.MAX_VALUE, contentLength - sent);
+		}
+
+		@Override
+		public void produce(final DataStreamChannel channel) throws IOException {
+			try {
+				produceData(channel);
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+		}
+
+		private void produceData(final DataStreamChannel channel) throws IOException {
+			while (true) {
+				if (current == null || !current.hasRemaining()) {
+					current = next();
+					if (current == null) {
+						ended = true;
+						channel.endStream();
+						return;
+					}
+				}
+				sent += channel.write(current);
+				if (current.hasRemaining()) {
+					return; // channel is full, wait to be called again
+				}
+			}
+		}
+
+		private ByteBuffer next() throws IOException {
+			if (preamble.hasRemaining()) {
+				return preamble;
+			}
+			if (dataRemaining != 0) {
+				if (dataBuffer == null) {
+					// direct buffer saves a copy when writing to the socket
+					dataBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+				}
+				dataBuffer.clear();
+				if (dataRemaining > 0 && dataRemaining < dataBuffer.capacity()) {
+					dataBuffer.limit((int) dataRemaining);
+				}
+				final int read = source.read(dataBuffer);
+				if (read >= 0) {
+					if (dataRemaining > 0) {
+						dataRemaining -= read;
+					}
+					dataBuffer.flip();
+					return dataBuffer;
+				}
+				if (dataRemaining > 0) {
+					throw new IOException(String.format(
+							"File data ended %s bytes before the specified file length",
+							dataRemaining));
+				}
+				dataRemaining = 0; // the end of a file of unknown length
+			}
+			if (epilogue.hasRemaining()) {
+				return epilogue;
+			}
+			return null;
+		}
+
+		@Override
+		public long getContentLength() {
+			return contentLength;
+		}
+
+		@Override
+		public String getContentType() {
+			return contentType;
+		}
+
+		@Override
+		public String getContentEncoding() {
+			return null;
+		}
+
+		@Override
+		public boolean isChunked() {
+			return contentLength < 0;
+		}
+
+		@Override
+		public Set<String> getTrailerNames() {
+			return null;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		public void failed(final Exception cause) {
+			releaseResources();
+		}
+
+		@Override
+		public void releaseResources() {
+			try {
+				source.close();
+			} catch (IOException e) {
+				// nothing to be done
+			}
+		}
+	}
+}
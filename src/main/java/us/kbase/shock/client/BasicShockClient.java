@@ -1,22 +1,74 @@
 package us.kbase.shock.client;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -25,15 +77,22 @@ import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.protocol.HTTP;
 import org.apache.http.ssl.SSLContextBuilder;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.entity.mime.FormBodyPartBuilder;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
@@ -43,38 +102,95 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import us.kbase.auth.AuthToken;
 import us.kbase.shock.client.exceptions.InvalidShockUrlException;
+import us.kbase.shock.client.exceptions.ShockAuthorizationException;
+import us.kbase.shock.client.exceptions.ShockChecksumException;
 import us.kbase.shock.client.exceptions.ShockHttpException;
 import us.kbase.shock.client.exceptions.ShockNoFileException;
+import us.kbase.shock.client.exceptions.ShockNoNodeException;
 
 /**
  * A basic client for shock. Creating nodes, deleting nodes,
  * getting a subset of node data, and altering acls is currently supported.
  * 
- * Currently limited to 1000 connections.
+ * Clients created via the constructors share a connection pool, limited to 1000 connections,
+ * with other clients created via the constructors. Clients created via a
+ * {@link #getBuilder(URL) builder} have their own connection pool, which may be configured via
+ * the builder and released via {@link #close()}.
  * 
  * @author gaprice@lbl.gov
  *
  */
-public class BasicShockClient {
+public class BasicShockClient implements Closeable {
 	
 	private String version;
 	private final URI baseurl;
 	private final URI nodeurl;
-	private static CloseableHttpClient client;
+	private final CloseableHttpClient client;
+	// only clients built with a builder own their http client
+	private final boolean ownsClient;
 	private final ObjectMapper mapper = new ObjectMapper();
 	private AuthToken token = null;
+	// null if the client should create its own executor when needed
+	private final Executor executor;
+	private final int defaultExecutorThreads;
+	private ExecutorService defaultExecutor = null;
+	// null if the asynchronous methods use the blocking transport
+	private final AsyncTransport transport;
+	private final int stallMinBytesPerSec;
+	private final int stallTimeMS;
+	private final boolean verifyChecksums;
+	private final boolean deleteCorruptUploads;
+	// negative if disabled
+	private final long expectContinueThreshold;
+	// null if disabled
+	private final ShockCompression compression;
+	private final int compressionLevel;
+	// null if disabled
+	private final NodeCache cache;
+	// null if requests are not coalesced
+	private final SingleFlight<ShockNodeId, ShockNode> nodeFlights;
+	private final SingleFlight<ShockNodeId, ShockACL> aclFlights;
+	private final SingleFlight<ShockNodeId, Path> fileFlights;
+	// null for the system temporary directory
+	private final Path coalescingTempDir;
+	// null if disabled
+	private final FileCache fileCache;
+	private ScheduledExecutorService watchdog = null;
 	
 	private static final String AUTH = "Authorization";
 	private static final String OAUTH = "OAuth ";
+	// the error from servers that require a file when creating a node, and so have no parts
+	private static final String NO_FILE_PROVIDED = "No file provided";
 	
-	private static synchronized void createHttpClient(
+	private static final int DEFAULT_MAX_CONNECTIONS = 1000;
+	// each client owns its pool, so keep it small. Larger workloads should use the
+	// non-blocking transports or provide an executor
+	private static final int MAX_DEFAULT_EXECUTOR_THREADS = 16;
+	
+	private static CloseableHttpClient sharedClient;
+	private static CloseableHttpClient sharedTrustingClient;
+	
+	private static synchronized CloseableHttpClient getSharedHttpClient(
 			final boolean allowSelfSignedCerts) {
-		if (client != null) {
-			return; //already done
-		}
 		if (allowSelfSignedCerts) {
+			if (sharedTrustingClient == null) {
+				sharedTrustingClient = createHttpClient(new Builder(null)
+						.withAllowSelfSignedCerts(true));
+			}
+			return sharedTrustingClient;
+		} else {
+			if (sharedClient == null) {
+				sharedClient = createHttpClient(new Builder(null));
+			}
+			return sharedClient;
+		}
+	}
+	
+	private static CloseableHttpClient createHttpClient(final Builder b) {
+		final PoolingHttpClientConnectionManager cm;
+		final SSLConnectionSocketFactory sslsf;
+		if (b.allowSelfSignedCerts) {
 			//http://stackoverflow.com/questions/19517538/ignoring-ssl-certificate-in-apache-httpclient-4-3
-			final SSLConnectionSocketFactory sslsf;
 			try {
 				final SSLContextBuilder builder = new SSLContextBuilder();
 				builder.loadTrustMaterial(null, new TrustSelfSignedStrategy());
@@ -93,26 +209,94 @@ public class BasicShockClient {
 					.register("https", sslsf)
 					.build();
 
-			final PoolingHttpClientConnectionManager cm =
-					new PoolingHttpClientConnectionManager(registry);
-			cm.setMaxTotal(1000); //perhaps these should be configurable
-			cm.setDefaultMaxPerRoute(1000);
-
-			//TODO set timeouts for the client for 1/2m for conn req timeout and std timeout
-			client = HttpClients.custom()
-					.setSSLSocketFactory(sslsf)
-					.setConnectionManager(cm)
-					.build();
+			cm = new PoolingHttpClientConnectionManager(registry);
 		} else {
-			final PoolingHttpClientConnectionManager cm =
-					new PoolingHttpClientConnectionManager();
-			cm.setMaxTotal(1000); //perhaps these should be configurable
-			cm.setDefaultMaxPerRoute(1000);
-			//TODO set timeouts for the client for 1/2m for conn req timeout and std timeout
-			client = HttpClients.custom()
-					.setConnectionManager(cm)
+			sslsf = null;
+			cm = new PoolingHttpClientConnectionManager();
+		}
+		cm.setMaxTotal(b.maxConnections);
+		cm.setDefaultMaxPerRoute(b.maxConnectionsPerRoute);
+		if (b.validateAfterInactivityMS != null) {
+			cm.setValidateAfterInactivity(b.validateAfterInactivityMS);
+		}
+		final SocketConfig.Builder sc = SocketConfig.custom()
+				.setSoTimeout(b.socketTimeoutMS);
+		if (b.socketSendBufferSize != null) {
+			sc.setSndBufSize(b.socketSendBufferSize);
+		}
+		if (b.socketReceiveBufferSize != null) {
+			sc.setRcvBufSize(b.socketReceiveBufferSize);
+		}
+		cm.setDefaultSocketConfig(sc.build());
+		final HttpClientBuilder hcb = HttpClients.custom()
+				.setConnectionManager(cm)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectTimeout(b.connectTimeoutMS)
+						.setSocketTimeout(b.socketTimeoutMS)
+						.setConnectionRequestTimeout(b.connectionRequestTimeoutMS)
+						.build());
+		if (sslsf != null) {
+			hcb.setSSLSocketFactory(sslsf);
+		}
+		return hcb.build();
+	}
+	
+	private static CloseableHttpAsyncClient createAsyncHttpClient(final Builder b) {
+		final ConnectionConfig.Builder cc = ConnectionConfig.custom()
+				.setConnectTimeout(Timeout.ofMilliseconds(b.connectTimeoutMS))
+				.setSocketTimeout(Timeout.ofMilliseconds(b.socketTimeoutMS));
+		if (b.validateAfterInactivityMS != null) {
+			cc.setValidateAfterInactivity(TimeValue.ofMilliseconds(b.validateAfterInactivityMS));
+		}
+		final ClientTlsStrategyBuilder tls = ClientTlsStrategyBuilder.create();
+		if (b.allowSelfSignedCerts) {
+			try {
+				tls.setSslContext(SSLContexts.custom()
+						.loadTrustMaterial(
+								org.apache.hc.client5.http.ssl.TrustSelfSignedStrategy.INSTANCE)
+						.build());
+			} catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException e) {
+				throw new RuntimeException("Unable to build http client", e);
+			}
+		}
+		final IOReactorConfig.Builder ioc = IOReactorConfig.custom();
+		if (b.ioThreads != null) {
+			ioc.setIoThreadCount(b.ioThreads);
+		}
+		if (b.socketSendBufferSize != null) {
+			ioc.setSndBufSize(b.socketSendBufferSize);
+		}
+		if (b.socketReceiveBufferSize != null) {
+			ioc.setRcvBufSize(b.socketReceiveBufferSize);
+		}
+		final org.apache.hc.client5.http.config.RequestConfig rc =
+				org.apache.hc.client5.http.config.RequestConfig.custom()
+						.setConnectionRequestTimeout(
+								Timeout.ofMilliseconds(b.connectionRequestTimeoutMS))
+						.build();
+		if (b.shockTransport == ShockTransport.HTTP2) {
+			// the HTTP/2 client multiplexes all requests to a server over one connection, so
+			// the connection pool settings don't apply
+			return HttpAsyncClients.customHttp2()
+					.setDefaultConnectionConfig(cc.build())
+					.setTlsStrategy(tls.build())
+					.setIOReactorConfig(ioc.build())
+					.setDefaultRequestConfig(rc)
 					.build();
 		}
+		return HttpAsyncClients.custom()
+				.setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+						.setMaxConnTotal(b.maxConnections)
+						.setMaxConnPerRoute(b.maxConnectionsPerRoute)
+						.setDefaultTlsConfig(TlsConfig.custom()
+								.setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_1)
+								.build())
+						.setDefaultConnectionConfig(cc.build())
+						.setTlsStrategy(tls.build())
+						.build())
+				.setIOReactorConfig(ioc.build())
+				.setDefaultRequestConfig(rc)
+				.build();
 	}
 	
 	/**
@@ -153,8 +337,60 @@ public class BasicShockClient {
 	 */
 	public BasicShockClient(final URL url, boolean allowSelfSignedCerts)
 			throws InvalidShockUrlException, IOException {
-		
-		createHttpClient(allowSelfSignedCerts);
+		this(new Builder(url).withAllowSelfSignedCerts(allowSelfSignedCerts),
+				getSharedHttpClient(allowSelfSignedCerts), null, false);
+	}
+	
+	/**
+	 * Create a new shock client authorized to act as a shock user.
+	 * @param url the location of the shock server.
+	 * @param token the authorization token to present to shock.
+	 * @param allowSelfSignedCerts <code>true</code> to permit self signed
+	 * certificates when contacting servers.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws InvalidShockUrlException if the <code>url</code> does not
+	 * reference a shock server.
+	 * @throws ShockHttpException if the connection to shock fails.
+	 */
+	public BasicShockClient(
+			final URL url,
+			final AuthToken token,
+			boolean allowSelfSignedCerts)
+			throws InvalidShockUrlException, ShockHttpException, IOException {
+		this(new Builder(url).withAllowSelfSignedCerts(allowSelfSignedCerts),
+				getSharedHttpClient(allowSelfSignedCerts), null, false);
+		updateToken(token);
+		if (token != null) {
+			checkConfig();
+		}
+	}
+	
+	private BasicShockClient(
+			final Builder b,
+			final CloseableHttpClient client,
+			final AsyncTransport transport,
+			final boolean ownsClient)
+			throws InvalidShockUrlException, IOException {
+		final URL url = b.url;
+		this.client = client;
+		this.transport = transport;
+		this.ownsClient = ownsClient;
+		this.executor = b.executor;
+		this.defaultExecutorThreads = Math.min(
+				b.maxConnectionsPerRoute, MAX_DEFAULT_EXECUTOR_THREADS);
+		this.stallMinBytesPerSec = b.stallMinBytesPerSec;
+		this.stallTimeMS = b.stallTimeMS;
+		this.verifyChecksums = b.verifyChecksums;
+		this.deleteCorruptUploads = b.deleteCorruptUploads;
+		this.expectContinueThreshold = b.expectContinueThreshold;
+		this.compression = b.compression;
+		this.compressionLevel = b.compressionLevel;
+		this.cache = b.cacheOptions == null ? null : new NodeCache(b.cacheOptions);
+		this.nodeFlights = b.coalesce ? new SingleFlight<>() : null;
+		this.aclFlights = b.coalesce ? new SingleFlight<>() : null;
+		this.fileFlights = b.coalesce ? new SingleFlight<>() : null;
+		this.coalescingTempDir = b.coalescingTempDir;
+		this.fileCache = b.fileCache;
 		
 		mapper.enable(DeserializationFeature.ACCEPT_EMPTY_STRING_AS_NULL_OBJECT);
 		
@@ -176,28 +412,640 @@ public class BasicShockClient {
 		nodeurl = baseurl.resolve("node/");
 	}
 	
-	/**
-	 * Create a new shock client authorized to act as a shock user.
+	// test shock config/auth etc.
+	private void checkConfig() throws IOException, ShockHttpException {
+		final ShockNode sn = addNode(new ByteArrayInputStream("a".getBytes()), 1, "f", null);
+		sn.delete();
+	}
+	
+	/** Get a builder for a shock client. The builder allows configuring the connection pool
+	 * and timeouts for the client. Unlike clients created via the constructors, each client
+	 * created by a builder has its own connection pool, which should be released via
+	 * {@link #close()} when the client is no longer needed.
 	 * @param url the location of the shock server.
-	 * @param token the authorization token to present to shock.
-	 * @param allowSelfSignedCerts <code>true</code> to permit self signed
-	 * certificates when contacting servers.
-	 * @throws IOException if an IO problem occurs.
-	 * @throws InvalidShockUrlException if the <code>url</code> does not
-	 * reference a shock server.
-	 * @throws ShockHttpException if the connection to shock fails.
+	 * @return a new builder.
 	 */
-	public BasicShockClient(
-			final URL url,
-			final AuthToken token,
-			boolean allowSelfSignedCerts)
-			throws InvalidShockUrlException, ShockHttpException, IOException {
-		this(url, allowSelfSignedCerts);
-		updateToken(token);
-		if (token != null) { // test shock config/auth etc.
-			final ShockNode sn = addNode(new ByteArrayInputStream("a".getBytes()), 1, "f", null);
-			sn.delete();
+	public static Builder getBuilder(final URL url) {
+		if (url == null) {
+			throw new NullPointerException("url");
+		}
+		return new Builder(url);
+	}
+	
+	/** A builder for a {@link BasicShockClient}. */
+	public static class Builder {
+		
+		private final URL url;
+		private AuthToken token = null;
+		private boolean allowSelfSignedCerts = false;
+		private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+		private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS;
+		private int connectTimeoutMS = 0;
+		private int socketTimeoutMS = 0;
+		private int connectionRequestTimeoutMS = 0;
+		private Integer validateAfterInactivityMS = null;
+		private Integer socketSendBufferSize = null;
+		private Integer socketReceiveBufferSize = null;
+		private Executor executor = null;
+		private ShockTransport shockTransport = ShockTransport.BLOCKING;
+		private Integer ioThreads = null;
+		private int stallMinBytesPerSec = 0;
+		private int stallTimeMS = 0;
+		private boolean verifyChecksums = false;
+		private boolean deleteCorruptUploads = false;
+		private long expectContinueThreshold = -1;
+		private ShockCompression compression = null;
+		private int compressionLevel = 0;
+		private CacheOptions cacheOptions = null;
+		private boolean coalesce = false;
+		private Path coalescingTempDir = null;
+		private FileCache fileCache = null;
+		
+		private Builder(final URL url) {
+			this.url = url;
+		}
+		
+		/** Set the token the client will present to the shock server.
+		 * @param token the token, or null to remove any previously set token.
+		 * @return this builder.
+		 */
+		public Builder withToken(final AuthToken token) {
+			this.token = token;
+			return this;
+		}
+		
+		/** Set whether the client will trust self signed certificates. The default is false.
+		 * @param allowSelfSignedCerts <code>true</code> to permit self signed
+		 * certificates when contacting servers.
+		 * @return this builder.
+		 */
+		public Builder withAllowSelfSignedCerts(final boolean allowSelfSignedCerts) {
+			this.allowSelfSignedCerts = allowSelfSignedCerts;
+			return this;
+		}
+		
+		/** Set the maximum number of connections in the client's connection pool.
+		 * The default is 1000.
+		 * @param maxConnections the maximum number of connections.
+		 * @return this builder.
+		 */
+		public Builder withMaxConnections(final int maxConnections) {
+			this.maxConnections = checkPositive(maxConnections, "maxConnections");
+			return this;
+		}
+		
+		/** Set the maximum number of connections in the client's connection pool per route.
+		 * The default is 1000.
+		 * @param maxConnectionsPerRoute the maximum number of connections per route.
+		 * @return this builder.
+		 */
+		public Builder withMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+			this.maxConnectionsPerRoute = checkPositive(
+					maxConnectionsPerRoute, "maxConnectionsPerRoute");
+			return this;
+		}
+		
+		/** Set the timeout for establishing a connection to the server. The default is 0,
+		 * which means no timeout.
+		 * @param connectTimeoutMS the timeout in milliseconds.
+		 * @return this builder.
+		 */
+		public Builder withConnectTimeoutMS(final int connectTimeoutMS) {
+			this.connectTimeoutMS = checkNonNegative(connectTimeoutMS, "connectTimeoutMS");
+			return this;
+		}
+		
+		/** Set the maximum period of inactivity between two consecutive data packets from the
+		 * server. The default is 0, which means no timeout.
+		 * @param socketTimeoutMS the timeout in milliseconds.
+		 * @return this builder.
+		 */
+		public Builder withSocketTimeoutMS(final int socketTimeoutMS) {
+			this.socketTimeoutMS = checkNonNegative(socketTimeoutMS, "socketTimeoutMS");
+			return this;
+		}
+		
+		/** Set the timeout for acquiring a connection from the connection pool. The default
+		 * is 0, which means no timeout.
+		 * @param connectionRequestTimeoutMS the timeout in milliseconds.
+		 * @return this builder.
+		 */
+		public Builder withConnectionRequestTimeoutMS(final int connectionRequestTimeoutMS) {
+			this.connectionRequestTimeoutMS = checkNonNegative(
+					connectionRequestTimeoutMS, "connectionRequestTimeoutMS");
+			return this;
+		}
+		
+		/** Set the period of inactivity after which pooled connections are validated before
+		 * being reused. The default is the Apache HTTP client default, currently 2 seconds.
+		 * @param validateAfterInactivityMS the period in milliseconds. A non-positive value
+		 * disables validation.
+		 * @return this builder.
+		 */
+		public Builder withValidateAfterInactivityMS(final int validateAfterInactivityMS) {
+			this.validateAfterInactivityMS = validateAfterInactivityMS;
+			return this;
+		}
+		
+		/** Set the socket send buffer size (SO_SNDBUF). The default is the system default.
+		 * @param socketSendBufferSize the buffer size in bytes.
+		 * @return this builder.
+		 */
+		public Builder withSocketSendBufferSize(final int socketSendBufferSize) {
+			this.socketSendBufferSize = checkPositive(
+					socketSendBufferSize, "socketSendBufferSize");
+			return this;
+		}
+		
+		/** Set the socket receive buffer size (SO_RCVBUF). The default is the system default.
+		 * @param socketReceiveBufferSize the buffer size in bytes.
+		 * @return this builder.
+		 */
+		public Builder withSocketReceiveBufferSize(final int socketReceiveBufferSize) {
+			this.socketReceiveBufferSize = checkPositive(
+					socketReceiveBufferSize, "socketReceiveBufferSize");
+			return this;
+		}
+		
+		/** Set the executor on which the client's asynchronous methods, for example
+		 * {@link BasicShockClient#getNodeAsync(ShockNodeId)}, run. If no executor is provided
+		 * the client creates a thread pool the first time an asynchronous method is called,
+		 * with the same size as the maximum connections per route up to at most 16 threads.
+		 * Idle threads in the pool exit after a minute, and the pool is shut down when the
+		 * client is {@link BasicShockClient#close() closed}. Applications that run many
+		 * concurrent requests on the {@link ShockTransport#BLOCKING} transport should provide
+		 * a larger executor here, which may be shared between clients. The client never shuts
+		 * down an executor provided here.
+		 * @param executor the executor, or null to use the default executor.
+		 * @return this builder.
+		 */
+		public Builder withExecutor(final Executor executor) {
+			this.executor = executor;
+			return this;
+		}
+		
+		/** Set the transport used by the client's asynchronous methods. The default is
+		 * {@link ShockTransport#BLOCKING}. The synchronous methods always use the blocking
+		 * transport.
+		 * 
+		 * When using a non-blocking transport, the streams passed to the asynchronous methods
+		 * are read from or written to on the transport's I/O threads and so should not block
+		 * for extended periods - for example, in memory or local file streams are fine, but
+		 * network streams are not.
+		 * @param transport the transport.
+		 * @return this builder.
+		 */
+		public Builder withTransport(final ShockTransport transport) {
+			if (transport == null) {
+				throw new NullPointerException("transport");
+			}
+			this.shockTransport = transport;
+			return this;
+		}
+		
+		/** Set the number of I/O threads used by the {@link ShockTransport#NIO} and
+		 * {@link ShockTransport#HTTP2} transports. The default is the number of available
+		 * processors. Ignored for the blocking transport.
+		 * @param ioThreads the number of I/O threads.
+		 * @return this builder.
+		 */
+		public Builder withIOThreads(final int ioThreads) {
+			this.ioThreads = checkPositive(ioThreads, "ioThreads");
+			return this;
+		}
+		
+		/** Enable stall detection for file downloads via the synchronous
+		 * {@link BasicShockClient#getFile(ShockNode, OutputStream)} and
+		 * {@link BasicShockClient#getFile(ShockNode)} methods and the equivalent methods that
+		 * take a node ID, and their asynchronous versions when using the
+		 * {@link ShockTransport#BLOCKING} transport.
+		 * 
+		 * If the transfer rate of a download stays below the floor for the stall period, the
+		 * request is aborted and the download is resumed from the last byte received. The
+		 * caller's stream sees no interruption. The rate only accounts for time spent waiting
+		 * for data from shock, so a slow reader of the stream returned by
+		 * {@link BasicShockClient#getFile(ShockNode)} does not trigger a resume. If a download
+		 * repeatedly stalls without receiving any data it fails with an {@link IOException}.
+		 * 
+		 * Stall detection is disabled by default. Unlike the socket timeout, it detects
+		 * transfers that trickle data as well as transfers that stop entirely.
+		 * @param minBytesPerSec the transfer rate, in bytes per second, below which a
+		 * transfer is considered stalled. If 0, a transfer is only considered stalled if
+		 * no data is received for the stall period.
+		 * @param stallTimeMS the period, in milliseconds, for which the transfer rate must
+		 * stay below the floor before the transfer is resumed.
+		 * @return this builder.
+		 */
+		public Builder withStallDetection(final int minBytesPerSec, final int stallTimeMS) {
+			this.stallMinBytesPerSec = checkNonNegative(minBytesPerSec, "minBytesPerSec");
+			this.stallTimeMS = checkPositive(stallTimeMS, "stallTimeMS");
+			return this;
+		}
+		
+		/** Verify the checksums of files downloaded via the
+		 * {@link BasicShockClient#getFile(ShockNode, OutputStream)} and
+		 * {@link BasicShockClient#getFile(ShockNode)} methods, the equivalent methods that
+		 * take a node ID, and their asynchronous versions. The md5 and, if shock reports it,
+		 * sha1 checksums are computed as the file streams from shock and compared to the
+		 * checksums recorded by shock when the end of the file is reached, throwing a
+		 * {@link ShockChecksumException} if they differ. The default is false.
+		 * 
+		 * When reading from the stream returned by
+		 * {@link BasicShockClient#getFile(ShockNode)}, the checksums are only verified if the
+		 * stream is read to the end.
+		 * 
+		 * Files uploaded via the addNode methods, their asynchronous versions, and
+		 * {@link BasicShockClient#createNodeWriter(String, String, long)} are also verified.
+		 * The md5 is computed as the file is sent and compared to the md5 shock records for
+		 * the new node, and is available from {@link ShockNode#getUploadMD5()}. Files uploaded
+		 * in parts by
+		 * {@link BasicShockClient#addNode(Path, String, String, ParallelUploadOptions)} are
+		 * sent out of order, and so are not verified.
+		 * @param verifyChecksums true to verify checksums.
+		 * @return this builder.
+		 */
+		public Builder withChecksumVerification(final boolean verifyChecksums) {
+			this.verifyChecksums = verifyChecksums;
+			return this;
+		}
+		
+		/** Delete a new node if the checksum of the uploaded file does not match the checksum
+		 * recorded by shock, before throwing the {@link ShockChecksumException}. Only applies
+		 * if checksum verification is enabled via {@link #withChecksumVerification(boolean)}.
+		 * The default is false, which leaves the node in place for inspection.
+		 * @param deleteCorruptUploads true to delete nodes with corrupt files.
+		 * @return this builder.
+		 */
+		public Builder withDeleteCorruptUploads(final boolean deleteCorruptUploads) {
+			this.deleteCorruptUploads = deleteCorruptUploads;
+			return this;
+		}
+		
+		/** Send the Expect: 100-continue header with uploads of files at least as large as
+		 * the threshold. The server then accepts or rejects the upload, for example because
+		 * the token is invalid or expired, before the file is sent, rather than after the
+		 * entire file has been sent. Uploads of unknown length, via
+		 * {@link BasicShockClient#createNodeWriter(String, String, long)}, always send the
+		 * header, and the parts of parallel uploads send the header if the part is at least
+		 * as large as the threshold.
+		 * 
+		 * The handshake costs a round trip per upload, and so is best reserved for large
+		 * files. If the server, or a proxy, ignores the header, the client sends the file
+		 * after waiting for up to 3 seconds. With the {@link ShockTransport#HTTP2} transport,
+		 * the asynchronous upload methods send the file even if the server rejects the
+		 * upload, but HTTP/2 flow control limits the data sent before the rejection to the
+		 * server's stream window, typically 64KB. The handshake is disabled by default.
+		 * @param fileLength the minimum file length, in bytes, for which the handshake is
+		 * used. 0 uses the handshake for all uploads.
+		 * @return this builder.
+		 */
+		public Builder withExpectContinueThreshold(final long fileLength) {
+			if (fileLength < 0) {
+				throw new IllegalArgumentException("fileLength must be >= 0");
+			}
+			this.expectContinueThreshold = fileLength;
+			return this;
+		}
+		
+		/** Compress files as they are uploaded, and decompress them as they are downloaded.
+		 * 
+		 * Files uploaded via the addNode methods, their asynchronous versions, and
+		 * {@link BasicShockClient#createNodeWriter(String, String, long)} are compressed as
+		 * they are sent, and the codec is recorded in the node's format (see
+		 * {@link ShockCompression}). Since the compressed length isn't known in advance, the
+		 * files are sent with chunked transfer encoding. Files uploaded in parts by
+		 * {@link BasicShockClient#addNode(Path, String, String, ParallelUploadOptions)} or via
+		 * {@link BasicShockClient#addOrReuseNode(Path, String, String, UploadIndex)} are not
+		 * compressed.
+		 * 
+		 * Files downloaded via the {@link BasicShockClient#getFile(ShockNode, OutputStream)}
+		 * and {@link BasicShockClient#getFile(ShockNode)} methods, the equivalent methods that
+		 * take a node ID, and their asynchronous versions, are decompressed if the node's
+		 * format records a codec. Since the format is needed, the methods that take a node ID
+		 * fetch the node first. Ranged downloads and channels read the compressed file as
+		 * stored by shock, as do clients without compression enabled.
+		 * 
+		 * The file size and checksums recorded by shock, and the md5 returned by
+		 * {@link ShockNode#getUploadMD5()}, are those of the compressed file. Compression is
+		 * disabled by default.
+		 * @param compression the codec, or null to disable compression.
+		 * @param level the compression level. Ignored if the codec is null.
+		 * @return this builder.
+		 */
+		public Builder withCompression(final ShockCompression compression, final int level) {
+			if (compression != null &&
+					(level < compression.getMinLevel() || level > compression.getMaxLevel())) {
+				throw new IllegalArgumentException(String.format(
+						"level must be between %s and %s for %s compression",
+						compression.getMinLevel(), compression.getMaxLevel(),
+						compression.getName()));
+			}
+			this.compression = compression;
+			this.compressionLevel = level;
+			return this;
+		}
+		
+		/** Cache the nodes and ACLs returned by {@link BasicShockClient#getNode(ShockNodeId)},
+		 * {@link BasicShockClient#getACLs(ShockNodeId)}, and their asynchronous versions. The
+		 * other methods that take a node ID and fetch the node, for example
+		 * {@link BasicShockClient#getFile(ShockNodeId)}, also use the cache.
+		 * 
+		 * Deleting a node, or changing its ACLs, via this client removes the node from the
+		 * cache, as does the node's ACLs changing while they were being fetched. Changes made
+		 * by other clients are not seen until the cached copy expires. Changing the client's
+		 * token clears the cache, since the token determines which nodes may be read.
+		 * Each caller receives its own copy of a cached node, so deleting a node via
+		 * {@link ShockNode#delete()} doesn't affect other holders of the node.
+		 * Statistics are available from {@link BasicShockClient#getCacheStats()}. The cache
+		 * is disabled by default.
+		 * @param options the size and time to live of the cache, or null to disable the cache.
+		 * @return this builder.
+		 */
+		public Builder withCache(final CacheOptions options) {
+			this.cacheOptions = options;
+			return this;
+		}
+		
+		/** Coalesce concurrent identical requests. When several threads request the same node
+		 * via {@link BasicShockClient#getNode(ShockNodeId)}, the same node's ACLs via
+		 * {@link BasicShockClient#getACLs(ShockNodeId)}, or the same node's file via
+		 * {@link BasicShockClient#getFile(ShockNodeId, OutputStream)} or
+		 * {@link BasicShockClient#getFile(ShockNodeId)} at the same time, only one request is
+		 * sent to shock, and every caller receives its result or error. The asynchronous
+		 * versions of getNode and getACLs are coalesced with each other and the synchronous
+		 * methods. Requests are only shared while they are in flight - to reuse results, see
+		 * {@link #withCache(CacheOptions)}.
+		 * 
+		 * A file request that no other caller has joined by the time shock responds is read
+		 * directly from the response, as without coalescing, and callers that arrive later
+		 * start a new request. If other callers have joined, the file is downloaded once to a
+		 * temporary file, which each caller then reads, and which is deleted when the last
+		 * caller has read the file or closed the stream returned by
+		 * {@link BasicShockClient#getFile(ShockNodeId)}. As such those callers receive the
+		 * file only once it has been completely downloaded, and the temporary directory must
+		 * have space for the file. Coalescing is disabled by default.
+		 * @param coalesce true to coalesce requests.
+		 * @param tempDir the directory for temporary files, or null to use the system
+		 * temporary directory.
+		 * @return this builder.
+		 */
+		public Builder withRequestCoalescing(final boolean coalesce, final Path tempDir) {
+			this.coalesce = coalesce;
+			this.coalescingTempDir = tempDir;
+			return this;
+		}
+		
+		/** Cache downloaded files on local disk. Files downloaded via
+		 * {@link BasicShockClient#getFile(ShockNode, OutputStream)},
+		 * {@link BasicShockClient#getFile(ShockNode)}, the equivalent methods that take a node
+		 * ID, and their asynchronous versions, are read from the cache if a file with the same
+		 * md5 has been downloaded before, and are otherwise downloaded into the cache and then
+		 * read from it. Since the md5 is needed, the methods that take a node ID fetch the node
+		 * first. Nodes without an md5, and files larger than the cache, are downloaded as
+		 * usual.
+		 * 
+		 * Files are verified against the checksums recorded by shock before they are added to
+		 * the cache and again as they are read from it, regardless of
+		 * {@link #withChecksumVerification(boolean)}, and a cached file that fails verification
+		 * is removed from the cache. The cache may be shared by several clients and processes
+		 * on the same host - see {@link FileCache}. The cache is disabled by default.
+		 * @param cache the cache, or null to disable the cache.
+		 * @return this builder.
+		 */
+		public Builder withFileCache(final FileCache cache) {
+			this.fileCache = cache;
+			return this;
+		}
+		
+		private static int checkPositive(final int value, final String name) {
+			if (value < 1) {
+				throw new IllegalArgumentException(name + " must be > 0");
+			}
+			return value;
+		}
+		
+		private static int checkNonNegative(final int value, final String name) {
+			if (value < 0) {
+				throw new IllegalArgumentException(name + " must be >= 0");
+			}
+			return value;
+		}
+		
+		/** Build the client. If a token was provided, the client will attempt to create and
+		 * delete a node to test the shock configuration.
+		 * @return the new client.
+		 * @throws IOException if an IO problem occurs.
+		 * @throws InvalidShockUrlException if the url does not reference a shock server.
+		 * @throws ShockHttpException if the connection to shock fails.
+		 */
+		public BasicShockClient build()
+				throws IOException, InvalidShockUrlException, ShockHttpException {
+			final CloseableHttpClient client = createHttpClient(this);
+			AsyncTransport transport = null;
+			try {
+				if (shockTransport != ShockTransport.BLOCKING) {
+					transport = new AsyncTransport(createAsyncHttpClient(this));
+				}
+				final BasicShockClient bsc = new BasicShockClient(this, client, transport, true);
+				bsc.updateToken(token);
+				if (token != null) {
+					bsc.checkConfig();
+				}
+				return bsc;
+			} catch (IOException | InvalidShockUrlException | ShockHttpException |
+					RuntimeException e) {
+				client.close();
+				if (transport != null) {
+					transport.close();
+				}
+				throw e;
+			}
+		}
+	}
+	
+	/** Release the resources, including the connection pool, associated with this client.
+	 * For clients created via the constructors, the connection pool is shared and is not
+	 * released. Clients created via a builder cannot be used after this method is called.
+	 * 
+	 * The thread pool used for asynchronous methods, if the client created one, and the
+	 * non-blocking transport, if the client uses one, are shut down for all clients.
+	 * @throws IOException if an IO error occurs.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (defaultExecutor != null) {
+				defaultExecutor.shutdown();
+			}
+			if (watchdog != null) {
+				watchdog.shutdownNow();
+			}
+		}
+		if (transport != null) {
+			transport.close();
+		}
+		if (ownsClient) {
+			client.close();
+		}
+	}
+	
+	private synchronized ScheduledExecutorService getWatchdog() {
+		if (watchdog == null) {
+			watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+				final Thread t = new Thread(r, "BasicShockClient-watchdog");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return watchdog;
+	}
+	
+	private synchronized Executor getExecutor() {
+		if (executor != null) {
+			return executor;
+		}
+		if (defaultExecutor == null) {
+			final AtomicInteger count = new AtomicInteger();
+			final ThreadPoolExecutor tpe = new ThreadPoolExecutor(
+					defaultExecutorThreads, defaultExecutorThreads,
+					60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					r -> {
+						final Thread t = new Thread(
+								r, "BasicShockClient-async-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					});
+			tpe.allowCoreThreadTimeOut(true);
+			defaultExecutor = tpe;
+		}
+		return defaultExecutor;
+	}
+	
+	/* A call to the shock server that may throw the checked exceptions thrown by the
+	 * client's synchronous methods.
+	 */
+	private interface ShockCall<T> {
+		
+		T call() throws IOException, ShockHttpException;
+	}
+	
+	private <T> CompletableFuture<T> runAsync(final ShockCall<T> call) {
+		final CompletableFuture<T> fut = new CompletableFuture<>();
+		try {
+			getExecutor().execute(() -> {
+				try {
+					fut.complete(call.call());
+				} catch (Throwable t) {
+					fut.completeExceptionally(t);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			fut.completeExceptionally(e);
+		}
+		return fut;
+	}
+	
+	/* A non-blocking call to the shock server. Argument errors may be thrown when the call
+	 * is started.
+	 */
+	private interface ShockRequest<T> {
+		
+		CompletableFuture<T> start() throws IOException, ShockHttpException;
+	}
+	
+	/* Start a call on the non-blocking transport, or, if the client uses the blocking
+	 * transport, run the equivalent synchronous call on the executor.
+	 */
+	private <T> CompletableFuture<T> runAsync(
+			final ShockCall<T> call,
+			final ShockRequest<T> request) {
+		if (transport == null) {
+			return runAsync(call);
+		}
+		try {
+			return request.start();
+		} catch (Throwable t) {
+			final CompletableFuture<T> fut = new CompletableFuture<>();
+			fut.completeExceptionally(t);
+			return fut;
+		}
+	}
+	
+	/* Make a call, or, if requests are coalesced and the same call is in flight, wait for
+	 * its result.
+	 */
+	private <K, T> T coalesce(
+			final SingleFlight<K, T> flights,
+			final K key,
+			final ShockCall<T> call)
+			throws IOException, ShockHttpException {
+		final SingleFlight.Flight<T> f = flights.join(key);
+		if (f.lead()) {
+			try {
+				flights.complete(key, f, call.call(), null);
+			} catch (Throwable t) {
+				flights.complete(key, f, null, t);
+			}
 		}
+		return waitFor(f.getResult());
+	}
+	
+	private static <T> T waitFor(final CompletableFuture<T> fut)
+			throws IOException, ShockHttpException {
+		try {
+			return fut.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for shock", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof ShockHttpException) {
+				throw (ShockHttpException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause); // should be impossible
+		}
+	}
+	
+	/* A function that may throw the checked exceptions thrown by the client's synchronous
+	 * methods.
+	 */
+	private interface ShockFunction<T, R> {
+		
+		R apply(T t) throws IOException, ShockHttpException;
+	}
+	
+	private static <T, R> Function<T, R> unchecked(final ShockFunction<T, R> func) {
+		return t -> {
+			try {
+				return func.apply(t);
+			} catch (IOException | ShockHttpException e) {
+				throw new CompletionException(e);
+			}
+		};
+	}
+	
+	private <T extends ShockResponse> CompletableFuture<ShockData> processAsync(
+			final String method,
+			final URI uri,
+			final Class<T> clazz) {
+		return transport.request(method, uri, getAuthorization())
+				.thenApply(unchecked(r -> getShockData(r, clazz)));
+	}
+	
+	private CompletableFuture<ShockNode> processNodeAsync(
+			final CompletableFuture<SimpleHttpResponse> response) {
+		return response.thenApply(unchecked(r -> {
+			final ShockNode sn = (ShockNode) getShockData(r, ShockNodeResponse.class);
+			sn.addClient(this);
+			removeMissing(sn.getId());
+			return sn;
+		}));
 	}
 	
 	/**
@@ -205,6 +1053,7 @@ public class BasicShockClient {
 	 * @param token the new token
 	 */
 	public void updateToken(final AuthToken token) {
+		clearCache();
 		if (token == null) {
 			this.token = null;
 			return;
@@ -212,6 +1061,35 @@ public class BasicShockClient {
 		this.token = token;
 	}
 	
+	/** Get the statistics for the client's cache of nodes and ACLs. See
+	 * {@link Builder#withCache(CacheOptions)}.
+	 * @return the statistics, or null if the cache is disabled.
+	 */
+	public CacheStats getCacheStats() {
+		return cache == null ? null : cache.getStats();
+	}
+	
+	/** Remove all the nodes and ACLs from the client's cache, if enabled. */
+	public void clearCache() {
+		if (cache != null) {
+			cache.clear();
+		}
+	}
+	
+	// remove a node the client has changed from the cache
+	private void invalidate(final ShockNodeId id) {
+		if (cache != null && id != null) {
+			cache.invalidate(id);
+		}
+	}
+	
+	// remove any record that a node is missing from the cache, for example for a new node
+	private void removeMissing(final ShockNodeId id) {
+		if (cache != null) {
+			cache.removeMissing(id);
+		}
+	}
+	
 	/** Get the auth token used by this client, if any.
 	 * 
 	 * @return the auth token.
@@ -283,23 +1161,47 @@ public class BasicShockClient {
 			final HttpResponse response,
 			final Class<T> clazz)
 			throws IOException, ShockHttpException {
+		return getShockData(response.getEntity().getContent(),
+				response.getStatusLine().getStatusCode(),
+				response.getStatusLine().getReasonPhrase(), clazz);
+	}
+	
+	private <T extends ShockResponse> ShockData getShockData(
+			final SimpleHttpResponse response,
+			final Class<T> clazz)
+			throws IOException, ShockHttpException {
+		final byte[] body = response.getBodyBytes();
+		return getShockData(new ByteArrayInputStream(body == null ? new byte[0] : body),
+				response.getCode(), response.getReasonPhrase(), clazz);
+	}
+	
+	private <T extends ShockResponse> ShockData getShockData(
+			final InputStream content,
+			final int code,
+			final String reason,
+			final Class<T> clazz)
+			throws IOException, ShockHttpException {
 		try {
-			return mapper.readValue(response.getEntity().getContent(), clazz).getShockData();
+			return mapper.readValue(content, clazz).getShockData();
 		} catch (JsonParseException jpe) {
 			throw new ShockHttpException(
-					response.getStatusLine().getStatusCode(),
-					"Invalid Shock response. Server said " +
-					response.getStatusLine().getStatusCode() + " " +
-					response.getStatusLine().getReasonPhrase() + 
+					code,
+					"Invalid Shock response. Server said " + code + " " + reason + 
 					". JSON parser said " + jpe.getLocalizedMessage(), jpe);
 		}
 	}
 	
 	private void authorize(final HttpRequestBase httpreq) {
-		if (token != null) {
-			httpreq.setHeader(AUTH, OAUTH + token.getToken());
+		final String auth = getAuthorization();
+		if (auth != null) {
+			httpreq.setHeader(AUTH, auth);
 		}
 	}
+	
+	private String getAuthorization() {
+		final AuthToken t = token;
+		return t == null ? null : OAUTH + t.getToken();
+	}
 
 	/** 
 	 * Gets a node from the shock server. Note the object returned 
@@ -312,33 +1214,224 @@ public class BasicShockClient {
 	 * expired.
 	 */
 	public ShockNode getNode(final ShockNodeId id) throws IOException, ShockHttpException {
-		if (id == null) {
-			throw new NullPointerException("id may not be null");
+		if (cache != null && id != null) {
+			final ShockNode cached = cache.getNode(id);
+			if (cached != null) {
+				return cached;
+			}
 		}
-		final URI targeturl = nodeurl.resolve(id.getId());
-		final HttpGet htg = new HttpGet(targeturl);
+		if (nodeFlights == null || id == null) {
+			return loadNode(id);
+		}
+		// each caller gets its own copy, since ShockNode.delete() alters the node
+		return coalesce(nodeFlights, id, () -> loadNode(id)).copy();
+	}
+	
+	// fetches a node and adds it to the cache
+	private ShockNode loadNode(final ShockNodeId id) throws IOException, ShockHttpException {
+		if (cache == null || id == null) {
+			return fetchNode(id);
+		}
+		final long stamp = cache.getStamp();
+		final ShockNode sn;
+		try {
+			sn = fetchNode(id);
+		} catch (ShockNoNodeException e) {
+			cache.putMissing(id, e, stamp);
+			throw e;
+		}
+		cache.putNode(sn, stamp);
+		return sn;
+	}
+	
+	private ShockNode fetchNode(final ShockNodeId id) throws IOException, ShockHttpException {
+		final HttpGet htg = new HttpGet(getNodeURI(id));
 		final ShockNode sn = (ShockNode) processRequest(htg, ShockNodeResponse.class);
 		sn.addClient(this);
 		return sn;
 	}
 	
-	/**
-	 * Equivalent to client.getFile(client.getNode(id), file)
-	 * @param id the ID of the shock node.
-	 * @param file the stream to which the file will be written.
-	 * @throws IOException if an IO problem occurs.
-	 * @throws ShockHttpException if the file could not be fetched from shock.
+	/** Gets many nodes from the shock server, with up to maxConcurrency requests in flight at
+	 * once. The requests are made via {@link #getNodeAsync(ShockNodeId)}, and so use the
+	 * client's transport and connection pool. Failing to get a node, for example because it
+	 * doesn't exist, does not prevent getting the other nodes.
+	 * @param ids the IDs of the shock nodes. Duplicate IDs are fetched once.
+	 * @param maxConcurrency the maximum number of requests in flight. When using the
+	 * {@link ShockTransport#BLOCKING} transport, the number of requests is also limited by
+	 * the size of the client's executor.
+	 * @return the nodes and, separately, the errors for nodes that could not be fetched.
+	 * @throws IOException if the thread is interrupted while waiting for the requests.
 	 */
-	public void getFile(final ShockNodeId id, final OutputStream file)
-			throws IOException, ShockHttpException {
-		getFile(getNode(id), file);
+	public BulkResult<ShockNode> getNodes(
+			final Collection<ShockNodeId> ids,
+			final int maxConcurrency)
+			throws IOException {
+		final Set<ShockNodeId> idset = checkIDs(ids);
+		final Map<ShockNodeId, ShockNode> nodes = new ConcurrentHashMap<>();
+		final Map<ShockNodeId, Exception> failures = new ConcurrentHashMap<>();
+		new BulkOperation(maxConcurrency).run(idset.iterator(), this::getNodeAsync,
+				(id, sn, err) -> {
+					if (err == null) {
+						nodes.put(id, sn);
+					} else {
+						failures.put(id, toException(err));
+					}
+				});
+		return toBulkResult(idset, nodes, failures);
 	}
 	
-	/**
+	// returns the unique ids in order
+	private static Set<ShockNodeId> checkIDs(final Collection<ShockNodeId> ids) {
+		if (ids == null) {
+			throw new NullPointerException("ids");
+		}
+		final Set<ShockNodeId> idset = new LinkedHashSet<>();
+		for (final ShockNodeId id: ids) {
+			if (id == null) {
+				throw new NullPointerException("ids may not contain null");
+			}
+			idset.add(id);
+		}
+		return idset;
+	}
+	
+	private static Exception toException(final Throwable t) {
+		if (t instanceof Exception) {
+			return (Exception) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new RuntimeException(t); // should be impossible
+	}
+	
+	// orders the results and failures by the ids
+	private static <T> BulkResult<T> toBulkResult(
+			final Set<ShockNodeId> ids,
+			final Map<ShockNodeId, T> results,
+			final Map<ShockNodeId, Exception> failures) {
+		final Map<ShockNodeId, T> res = new LinkedHashMap<>();
+		final Map<ShockNodeId, Exception> fail = new LinkedHashMap<>();
+		for (final ShockNodeId id: ids) {
+			if (results.containsKey(id)) {
+				res.put(id, results.get(id));
+			} else if (failures.containsKey(id)) {
+				fail.put(id, failures.get(id));
+			}
+		}
+		return new BulkResult<>(res, fail);
+	}
+	
+	private URI getNodeURI(final ShockNodeId id) {
+		if (id == null) {
+			throw new NullPointerException("id may not be null");
+		}
+		return nodeurl.resolve(id.getId());
+	}
+	
+	/**
+	 * Equivalent to client.getFile(client.getNode(id), file), but fetches the file in a single
+	 * request to shock unless stall detection, checksum verification, compression, or the
+	 * file cache is enabled, in which case the node is fetched first to determine the size,
+	 * checksums and format of the file.
+	 * @param id the ID of the shock node.
+	 * @param file the stream to which the file will be written.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockHttpException if the file could not be fetched from shock.
+	 */
+	public void getFile(final ShockNodeId id, final OutputStream file)
+			throws IOException, ShockHttpException {
+		if (fileFlights == null || id == null) {
+			downloadFile(id, file);
+			return;
+		}
+		if (file == null) {
+			throw new NullPointerException("os");
+		}
+		final SingleFlight.Flight<Path> f = fileFlights.join(id);
+		try (final InputStream is = openSharedFile(id, f)) {
+			final byte[] buf = new byte[64 * 1024];
+			int read;
+			while ((read = is.read(buf)) > 0) {
+				file.write(buf, 0, read);
+			}
+		} finally {
+			release(f);
+		}
+	}
+	
+	private void downloadFile(final ShockNodeId id, final OutputStream file)
+			throws IOException, ShockHttpException {
+		if (isNodeRequiredForFile()) {
+			getFile(getNode(id), file);
+			return;
+		}
+		getDownloadURI(id); // check the id isn't null
+		if (file == null) {
+			throw new NullPointerException("os");
+		}
+		final CloseableHttpResponse response = getFileResponse(id);
+		try {
+			response.getEntity().writeTo(file);
+		} finally {
+			response.close();
+		}
+	}
+	
+	/* Get a file directly, checking for and recording a missing node in the cache. */
+	private CloseableHttpResponse getFileResponse(final ShockNodeId id)
+			throws IOException, ShockHttpException {
+		final URI uri = getDownloadURI(id);
+		if (cache == null) {
+			return getFileResponse(uri);
+		}
+		cache.checkMissing(id);
+		final long stamp = cache.getStamp();
+		try {
+			return getFileResponse(uri);
+		} catch (ShockNoNodeException e) {
+			cache.putMissing(id, e, stamp);
+			throw e;
+		}
+	}
+	
+	/* Get a file directly from its download URI, without fetching the node first. Shock
+	 * reports a missing node or file in the response, so there's no need to check first.
+	 */
+	private CloseableHttpResponse getFileResponse(final URI uri)
+			throws IOException, ShockHttpException {
+		final HttpGet htg = new HttpGet(uri);
+		authorize(htg);
+		final CloseableHttpResponse response = executeFileRequest(htg);
+		try {
+			checkHasFile(response.getEntity().getContentLength());
+		} catch (ShockNoFileException e) {
+			response.close();
+			throw e;
+		}
+		return response;
+	}
+	
+	// whether downloading a file requires the node's file information
+	private boolean isNodeRequiredForFile() {
+		return stallTimeMS > 0 || verifyChecksums || compression != null || fileCache != null;
+	}
+	
+	private static void checkHasFile(final long contentLength) throws ShockNoFileException {
+		// shock should return an error for a node without a file, but an empty response
+		// means the same thing
+		if (contentLength == 0) {
+			throw new ShockNoFileException(400, "Node has no file");
+		}
+	}
+	
+	/**
 	 * Get the file for this shock node.
 	 * @param sn the shock node from which to retrieve the file.
 	 * @param os the stream to which the file will be written.
 	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockChecksumException if checksum verification is enabled and the checksums
+	 * of the file do not match the checksums recorded by shock.
 	 * @throws ShockHttpException if the file could not be fetched from shock.
 	 */
 	public void getFile(final ShockNode sn, final OutputStream os)
@@ -346,6 +1439,16 @@ public class BasicShockClient {
 		if (os == null) {
 			throw new NullPointerException("os");
 		}
+		if (isNodeRequiredForFile()) {
+			try (final InputStream is = getFile(sn)) {
+				final byte[] buf = new byte[64 * 1024];
+				int read;
+				while ((read = is.read(buf)) > 0) {
+					os.write(buf, 0, read);
+				}
+			}
+			return;
+		}
 		final CloseableHttpResponse response = getFileResponse(sn);
 		try {
 			final int code = response.getStatusLine().getStatusCode();
@@ -359,67 +1462,655 @@ public class BasicShockClient {
 	}
 	private CloseableHttpResponse getFileResponse(final ShockNode sn)
 			throws ShockNoFileException, IOException, ClientProtocolException {
+		return client.execute(getFileRequest(sn));
+	}
+	
+	/* Get a request for a node's file. */
+	HttpGet getFileRequest(final ShockNode sn) throws ShockNoFileException {
+		final HttpGet htg = new HttpGet(getDownloadURI(sn).toString());
+		authorize(htg);
+		return htg;
+	}
+	
+	/* Get a request for a byte range of a node's file. */
+	HttpGet getFileRequest(final ShockNode sn, final long seek, final long length)
+			throws ShockNoFileException {
+		final HttpGet htg = new HttpGet(getDownloadURI(sn).toString() +
+				"&seek=" + seek + "&length=" + length);
+		authorize(htg);
+		return htg;
+	}
+	
+	/* Execute a request for a node's file. The caller is responsible for closing the
+	 * response.
+	 */
+	CloseableHttpResponse executeFileRequest(final HttpGet request)
+			throws IOException, ShockHttpException {
+		final CloseableHttpResponse response = client.execute(request);
+		if (response.getStatusLine().getStatusCode() > 299) {
+			try {
+				getShockData(response, ShockNodeResponse.class); //trigger errors
+			} finally {
+				response.close();
+			}
+		}
+		return response;
+	}
+	
+	/** Get the file for this shock node, fetching byte ranges of the file concurrently, each
+	 * over its own connection, and writing each range directly to its position in the target
+	 * file. For large files on high latency networks this is much faster than a single stream.
+	 * 
+	 * If an exception is thrown, the contents of the target file are undefined. If the
+	 * download is resumable (see {@link ParallelOptions}), repeating the download resumes
+	 * from the ranges already written to the target file.
+	 * @param sn the shock node from which to retrieve the file.
+	 * @param file the file to which the node's file will be written. The file is created if it
+	 * doesn't exist and overwritten if it does.
+	 * @param options the options for the download, including the number of concurrent ranges
+	 * and the range size.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockChecksumException if the download is resumable and the md5 of the
+	 * downloaded file does not match the md5 recorded by shock.
+	 * @throws ShockHttpException if the file could not be fetched from shock.
+	 */
+	public void getFile(final ShockNode sn, final Path file, final ParallelOptions options)
+			throws IOException, ShockHttpException {
+		getDownloadURI(sn); // check the node has a file
+		if (file == null) {
+			throw new NullPointerException("file");
+		}
+		if (options == null) {
+			throw new NullPointerException("options");
+		}
+		new RangedDownloader(this, sn, file, options).download();
+	}
+	
+	/* Get a byte range of a node's file. The caller is responsible for closing the response.
+	 * The node must have a file.
+	 */
+	CloseableHttpResponse getFileRange(final ShockNode sn, final long seek, final long length)
+			throws IOException, ShockHttpException {
+		return executeFileRequest(getFileRequest(sn, seek, length));
+	}
+	
+	private URI getDownloadURI(final ShockNode sn) throws ShockNoFileException {
 		if (sn == null) {
 			throw new NullPointerException("sn");
 		}
 		if (sn.getFileInformation().getSize() == 0) {
 			throw new ShockNoFileException(400, "Node has no file");
 		}
-		final URI targeturl = nodeurl.resolve(sn.getId().getId() + "/?download");
-		final HttpGet htg = new HttpGet(targeturl.toString());
-		authorize(htg);
-		return client.execute(htg);
+		return nodeurl.resolve(sn.getId().getId() + "/?download");
+	}
+	
+	private URI getDownloadURI(final ShockNodeId id) {
+		getNodeURI(id); // check the id isn't null
+		return nodeurl.resolve(id.getId() + "/?download");
+	}
+	
+	/**
+	 * Equivalent to client.getFile(client.getNode(id)), but fetches the file in a single
+	 * request to shock unless stall detection, checksum verification, compression, or the
+	 * file cache is enabled, in which case the node is fetched first to determine the size,
+	 * checksums and format of the file.
+	 * @param id the ID of the shock node.
+	 * @return an input stream containing the file.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockHttpException if the file could not be fetched from shock.
+	 */
+	public InputStream getFile(final ShockNodeId id)
+			throws IOException, ShockHttpException {
+		if (fileFlights == null || id == null) {
+			return openFile(id);
+		}
+		final SingleFlight.Flight<Path> f = fileFlights.join(id);
+		final InputStream is;
+		try {
+			is = openSharedFile(id, f);
+		} catch (IOException | ShockHttpException | RuntimeException | Error e) {
+			release(f);
+			throw e;
+		}
+		return new FilterInputStream(is) {
+			
+			private boolean closed = false;
+			
+			@Override
+			public void close() throws IOException {
+				if (!closed) {
+					closed = true;
+					try {
+						super.close();
+					} finally {
+						release(f);
+					}
+				}
+			}
+		};
+	}
+	
+	/* Open a file for a caller in a flight. Once shock responds, if no other callers have
+	 * joined the flight the leader reads the response directly, and later callers start a new
+	 * flight. Otherwise the file is downloaded once to a temporary file, which every caller
+	 * reads.
+	 */
+	private InputStream openSharedFile(final ShockNodeId id, final SingleFlight.Flight<Path> f)
+			throws IOException, ShockHttpException {
+		if (f.lead()) {
+			Path tmp = null;
+			try {
+				final InputStream is = openFile(id);
+				if (fileFlights.removeIfAlone(id, f)) {
+					// no shared file
+					fileFlights.complete(id, f, null, null);
+					return is;
+				}
+				try (final InputStream in = is) {
+					tmp = coalescingTempDir == null ? Files.createTempFile("shock", ".tmp") :
+							Files.createTempFile(coalescingTempDir, "shock", ".tmp");
+					Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+				}
+				fileFlights.complete(id, f, tmp, null);
+			} catch (Throwable t) {
+				if (tmp != null) {
+					try {
+						Files.deleteIfExists(tmp);
+					} catch (IOException e) {
+						t.addSuppressed(e);
+					}
+				}
+				fileFlights.complete(id, f, null, t);
+			}
+		}
+		return Files.newInputStream(waitFor(f.getResult()));
+	}
+	
+	/* Release a caller's interest in a shared file. The last caller deletes the file. */
+	private static void release(final SingleFlight.Flight<Path> f) throws IOException {
+		if (f.release() && !f.getResult().isCompletedExceptionally()) {
+			final Path tmp = f.getResult().join();
+			if (tmp != null) {
+				Files.deleteIfExists(tmp);
+			}
+		}
+	}
+	
+	private InputStream openFile(final ShockNodeId id)
+			throws IOException, ShockHttpException {
+		if (isNodeRequiredForFile()) {
+			return getFile(getNode(id));
+		}
+		// the caller closes the response by closing the content stream
+		return getFileResponse(id).getEntity().getContent();
+	}
+	
+	/** Get the file for this shock node. The user is responsible for closing the returned stream.
+	 * If checksum verification is enabled, reading the end of the stream throws a
+	 * {@link ShockChecksumException} if the checksums of the file do not match the checksums
+	 * recorded by shock. If compression is enabled and the file is compressed, the stream
+	 * returns the decompressed file. If a file cache is enabled, the file may be read from the
+	 * cache, and is always verified.
+	 * @param sn the shock node from which to retrieve the file.
+	 * @return an input stream containing the file.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockHttpException if the file could not be fetched from shock.
+	 */
+	public InputStream getFile(final ShockNode sn)
+			throws ShockHttpException, IOException {
+		getDownloadURI(sn); // check the node has a file
+		if (isCacheable(sn)) {
+			return decompress(sn, getCachedFile(sn));
+		}
+		final InputStream is = getRawFile(sn);
+		return decompress(sn, verifyChecksums ? new ChecksumVerifier(sn).wrap(is) : is);
+	}
+	
+	private boolean isCacheable(final ShockNode sn) {
+		return fileCache != null && fileCache.isCacheable(sn);
+	}
+	
+	/* Get a file from the file cache, downloading it into the cache if necessary. The stream
+	 * is always verified against the checksums.
+	 */
+	private InputStream getCachedFile(final ShockNode sn)
+			throws ShockHttpException, IOException {
+		final InputStream cached = fileCache.get(sn);
+		if (cached != null) {
+			return cached;
+		}
+		try (final InputStream is = getRawFile(sn)) {
+			fileCache.put(sn, is);
+		}
+		final InputStream added = fileCache.get(sn);
+		if (added != null) {
+			return added;
+		}
+		// evicted by another process between adding and reading the file
+		return new ChecksumVerifier(sn).wrap(getRawFile(sn));
+	}
+	
+	// get the file as stored by shock, without verification or decompression
+	private InputStream getRawFile(final ShockNode sn)
+			throws ShockHttpException, IOException {
+		final InputStream is;
+		if (stallTimeMS > 0) {
+			is = new ResumingInputStream(
+					this, sn, stallMinBytesPerSec, stallTimeMS, getWatchdog());
+		} else {
+			final CloseableHttpResponse response = getFileResponse(sn);
+			final int code = response.getStatusLine().getStatusCode();
+			if (code > 299) {
+				getShockData(response, ShockNodeResponse.class); //trigger errors
+			}
+			// from https://hc.apache.org/httpcomponents-client-ga/tutorial/html/fundamentals.html#d5e145
+			// 1.1.5. Ensuring release of low level resources
+			// In order to ensure proper release of system resources one must close either the 
+			// content stream associated with the entity or the response itself
+			is = response.getEntity().getContent();
+		}
+		return is;
+	}
+	
+	// returns null if the client doesn't decompress the node's file
+	private ShockCompression getCompression(final ShockNode sn) {
+		return compression == null ? null : ShockCompression.fromFormat(sn.getFormat());
+	}
+	
+	private InputStream decompress(final ShockNode sn, final InputStream is)
+			throws IOException {
+		final ShockCompression c = getCompression(sn);
+		if (c == null) {
+			return is;
+		}
+		try {
+			return c.decompress(is);
+		} catch (IOException | RuntimeException e) {
+			is.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Equivalent to client.openChannel(client.getNode(id))
+	 * @param id the ID of the shock node.
+	 * @return a read only channel over the file.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockHttpException if the node could not be fetched from shock.
+	 */
+	public SeekableByteChannel openChannel(final ShockNodeId id)
+			throws IOException, ShockHttpException {
+		return openChannel(getNode(id));
+	}
+	
+	/** Open a read only, random access channel over the file for this shock node. Unlike
+	 * {@link #getFile(ShockNode)}, the file is not downloaded in full; each read fetches only
+	 * the blocks of the file it touches, which are cached, and sequential reads fetch
+	 * increasingly large blocks ahead of the read position. This allows reading, for example,
+	 * an index or a footer from a large file cheaply.
+	 * 
+	 * Errors fetching blocks from shock are reported as {@link IOException}s from the channel's
+	 * methods. The channel is safe for use by multiple threads.
+	 * @param sn the shock node from which to read the file.
+	 * @return a read only channel over the file.
+	 * @throws ShockNoFileException if the node has no file.
+	 */
+	public SeekableByteChannel openChannel(final ShockNode sn) throws ShockNoFileException {
+		getDownloadURI(sn); // check the node has a file
+		return new ShockFileChannel(this, sn);
+	}
+	
+	/**
+	 * Creates a node on the shock server containing a file.
+	 * @param file the file data.
+	 * @param fileLength the length of the file in bytes.
+	 * @param filename the name of the file.
+	 * @param format the format of the file, e.g. ASCII, UTF-8, JSON. Ignored
+	 * if null or whitespace only.
+	 * @return a shock node object.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockHttpException if the node could not be created.
+	 */
+	public ShockNode addNode(
+			final InputStream file,
+			final long fileLength,
+			final String filename,
+			final String format)
+			throws IOException, ShockHttpException {
+		checkAddNodeArgs(file, fileLength, filename);
+		if (compression != null) {
+			return uploadNode(new InputStreamBody(compression.compress(file, compressionLevel),
+					filename), -1, compression.getFormat(format));
+		}
+		return uploadNode(new InputStreamBody(file, filename), fileLength, format);
+	}
+	
+	/**
+	 * Creates a node on the shock server containing a local file. Unlike
+	 * {@link #addNode(InputStream, long, String, String)}, the file is read directly from disk
+	 * and the request body is repeatable, so the request may be retried.
+	 * @param file the file.
+	 * @param filename the name of the file.
+	 * @param format the format of the file, e.g. ASCII, UTF-8, JSON. Ignored
+	 * if null or whitespace only.
+	 * @return a shock node object.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockHttpException if the node could not be created.
+	 */
+	public ShockNode addNode(final Path file, final String filename, final String format)
+			throws IOException, ShockHttpException {
+		final long fileLength = checkAddNodeArgs(file, filename);
+		if (compression != null) {
+			try (final InputStream is = Files.newInputStream(file)) {
+				return addNode(is, fileLength, filename, format);
+			}
+		}
+		return uploadFile(file, fileLength, filename, format);
+	}
+	
+	private ShockNode uploadFile(
+			final Path file,
+			final long fileLength,
+			final String filename,
+			final String format)
+			throws IOException, ShockHttpException {
+		return uploadNode(new FileBody(file.toFile(),
+				org.apache.http.entity.ContentType.DEFAULT_BINARY, filename), fileLength, format);
+	}
+	
+	/* Create a node containing a file. If the file length is negative the length is unknown
+	 * and the request body is sent with chunked transfer encoding.
+	 */
+	ShockNode uploadNode(
+			final AbstractContentBody file,
+			final long fileLength,
+			final String format)
+			throws IOException, ShockHttpException {
+		final UploadChecksum checksum = verifyChecksums ? new UploadChecksum() : null;
+		final HttpPost htp = new HttpPost(nodeurl);
+		htp.setEntity(getAddNodeForm(checksum == null ? file : checksum.wrap(file),
+				fileLength, format).build());
+		setExpectContinue(htp, fileLength);
+		final ShockNode sn = (ShockNode) processRequest(htp, ShockNodeResponse.class);
+		sn.addClient(this);
+		removeMissing(sn.getId());
+		if (checksum != null) {
+			final ShockChecksumException e = checkUpload(sn, checksum);
+			if (e != null) {
+				if (deleteCorruptUploads) {
+					try {
+						deleteNode(sn.getId());
+					} catch (IOException | ShockHttpException e2) {
+						e.addSuppressed(e2);
+					}
+				}
+				throw e;
+			}
+		}
+		return sn;
+	}
+	
+	/* Record the md5 of an uploaded file in the new node and compare it to shock's md5.
+	 * Returns an exception if the checksums don't match, or null.
+	 */
+	private ShockChecksumException checkUpload(
+			final ShockNode sn,
+			final UploadChecksum checksum) {
+		final String md5 = checksum.getMD5();
+		sn.setUploadMD5(md5);
+		final ShockFileInformation fi = sn.getFileInformation();
+		if (fi.getChecksumTypes().contains("md5") && !fi.getChecksum("md5").equals(md5)) {
+			return new ShockChecksumException(String.format(
+					"The md5 of the file uploaded to shock node %s, %s, does not match the " +
+					"md5 recorded by shock, %s", sn.getId().getId(), md5, fi.getChecksum("md5")),
+					fi.getChecksum("md5"), md5);
+		}
+		return null;
+	}
+	
+	/**
+	 * Creates a node on the shock server containing a file written to the returned stream.
+	 * The file is streamed to shock as it is written, through a small bounded buffer, so it
+	 * need not be held in memory or spooled to a temporary file.
+	 * 
+	 * The stream must be closed, which waits for shock to create the node, or aborted via
+	 * {@link ShockNodeWriter#abort()}, which abandons the upload. The new node is then
+	 * available from {@link ShockNodeWriter#getNode()}, or may be retrieved from
+	 * {@link ShockNodeWriter#finish()} in place of close(). The upload runs on its own
+	 * thread, which exits when the stream is closed or aborted, or if no data is written for
+	 * 10 minutes.
+	 * @param filename the name of the file.
+	 * @param format the format of the file, e.g. ASCII, UTF-8, JSON. Ignored
+	 * if null or whitespace only.
+	 * @param expectedLength the length of the file in bytes, or a negative number if the
+	 * length is unknown, in which case the file is sent with chunked transfer encoding. If the
+	 * length is given, writing a different number of bytes is an error.
+	 * @return a stream to which the file is written.
+	 */
+	public ShockNodeWriter createNodeWriter(
+			final String filename,
+			final String format,
+			final long expectedLength) {
+		if (filename == null || filename.isEmpty()) {
+			throw new IllegalArgumentException(
+					"filename may not be null or empty");
+		}
+		return new ShockNodeWriter(
+				this, filename, format, expectedLength, compression, compressionLevel);
+	}
+	
+	/**
+	 * Creates a node on the shock server containing a local file, uploading the file as
+	 * parts sent concurrently, each over its own connection, which shock assembles into the
+	 * node's file. For large files this is faster than a single stream, and a network failure
+	 * only requires resending the affected part. If the file fits in a single part, it is
+	 * uploaded as by {@link #addNode(Path, String, String)}. If the server doesn't support
+	 * parts uploads, for example the KBase Blobstore, the file is also uploaded as by
+	 * {@link #addNode(Path, String, String)}.
+	 * 
+	 * If the upload fails, the partially uploaded node is deleted.
+	 * @param file the file.
+	 * @param filename the name of the file.
+	 * @param format the format of the file, e.g. ASCII, UTF-8, JSON. Ignored
+	 * if null or whitespace only.
+	 * @param options the options for the upload, including the number of concurrent parts
+	 * and the part size.
+	 * @return a shock node object.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockHttpException if the node could not be created.
+	 */
+	public ShockNode addNode(
+			final Path file,
+			final String filename,
+			final String format,
+			final ParallelUploadOptions options)
+			throws IOException, ShockHttpException {
+		final long fileLength = checkAddNodeArgs(file, filename);
+		if (options == null) {
+			throw new NullPointerException("options");
+		}
+		final PartsUploader uploader = new PartsUploader(
+				this, file, fileLength, filename, format, options);
+		if (uploader.getParts() >= 2) {
+			final ShockNode sn = uploader.upload();
+			if (sn != null) {
+				return sn;
+			}
+		}
+		return uploadFile(file, fileLength, filename, format);
+	}
+	
+	/**
+	 * Creates a node on the shock server containing a local file, unless the index records a
+	 * node containing a file with the same md5 and size. The file is read once to calculate
+	 * the md5 before anything is sent to shock.
+	 * 
+	 * If the index records a node, the node is readable by the user, and the node's file
+	 * still has the same md5, size, filename and format, the node is returned if the user owns
+	 * it. Otherwise a copy of the node owned by the user is made via
+	 * {@link #copyNode(ShockNodeId, boolean)}, recorded in the index, and returned. If the
+	 * node no longer exists or can't be read, the entry is removed from the index.
+	 * 
+	 * If the file is uploaded, the new node is recorded in the index.
+	 * @param file the file.
+	 * @param filename the name of the file.
+	 * @param format the format of the file, e.g. ASCII, UTF-8, JSON. Ignored
+	 * if null or whitespace only.
+	 * @param index the index of previously uploaded files.
+	 * @return a shock node object.
+	 * @throws IOException if an IO problem occurs.
+	 * @throws ShockHttpException if the node could not be created.
+	 */
+	public ShockNode addOrReuseNode(
+			final Path file,
+			final String filename,
+			final String format,
+			final UploadIndex index)
+			throws IOException, ShockHttpException {
+		final long fileLength = checkAddNodeArgs(file, filename);
+		if (index == null) {
+			throw new NullPointerException("index");
+		}
+		final String md5;
+		try (final InputStream is = Files.newInputStream(file)) {
+			md5 = UploadChecksum.getMD5(is);
+		}
+		final ShockNodeId existing = index.get(md5, fileLength);
+		if (existing != null) {
+			final ShockNode sn = getIndexedNode(existing, md5, fileLength, filename, format);
+			if (sn == null) {
+				index.remove(md5, fileLength);
+			} else if (token != null &&
+					sn.getACLs().getOwner().getUsername().equals(token.getUserName())) {
+				return sn;
+			} else {
+				final ShockNode copy = copyNode(existing, false);
+				index.put(md5, fileLength, copy.getId());
+				return copy;
+			}
+		}
+		// not compressed, as the index records the md5 of the uncompressed file
+		final ShockNode sn = uploadFile(file, fileLength, filename, format);
+		final ShockFileInformation fi = sn.getFileInformation();
+		// don't index the node if the file changed after the md5 was calculated
+		if (fi.getSize() == fileLength && fi.getChecksumTypes().contains("md5") &&
+				fi.getChecksum("md5").equals(md5)) {
+			index.put(md5, fileLength, sn.getId());
+		}
+		return sn;
+	}
+	
+	/* Get a node from an upload index. Returns null if the node doesn't exist, isn't
+	 * readable, or has a different file.
+	 */
+	private ShockNode getIndexedNode(
+			final ShockNodeId id,
+			final String md5,
+			final long fileLength,
+			final String filename,
+			final String format)
+			throws IOException, ShockHttpException {
+		final ShockNode sn;
+		try {
+			sn = getNode(id);
+		} catch (ShockNoNodeException | ShockAuthorizationException e) {
+			return null;
+		}
+		final ShockFileInformation fi = sn.getFileInformation();
+		final String fmt = format == null || format.trim().isEmpty() ? null : format;
+		if (fi.getSize() != fileLength || !fi.getChecksumTypes().contains("md5") ||
+				!fi.getChecksum("md5").equals(md5) || !filename.equals(fi.getName()) ||
+				!Objects.equals(fmt, sn.getFormat())) {
+			return null;
+		}
+		return sn;
+	}
+	
+	/* Create a node that expects its file to be uploaded in parts. Returns null if the server
+	 * clearly doesn't support parts uploads: the request method or feature isn't implemented,
+	 * the server requires a file when creating a node, or the server ignores the parts field
+	 * and returns a node without parts, which is deleted. Other errors are thrown.
+	 */
+	ShockNode createPartsNode(final int parts, final String format)
+			throws IOException, ShockHttpException {
+		final MultipartEntityBuilder mpeb = MultipartEntityBuilder.create()
+				.addTextBody("parts", "" + parts);
+		if (format != null && !format.trim().isEmpty()) {
+			mpeb.addTextBody("format", format);
+		}
+		final HttpPost htp = new HttpPost(nodeurl);
+		htp.setEntity(mpeb.build());
+		final ShockNode sn;
+		try {
+			sn = (ShockNode) processRequest(htp, ShockNodeResponse.class);
+		} catch (ShockHttpException e) {
+			if (e.getHttpCode() == 405 || e.getHttpCode() == 501 ||
+					(e.getHttpCode() == 400 && NO_FILE_PROVIDED.equals(e.getMessage()))) {
+				return null;
+			}
+			throw e;
+		}
+		sn.addClient(this);
+		removeMissing(sn.getId());
+		if (!sn.hasParts()) {
+			deleteNode(sn.getId());
+			return null;
+		}
+		return sn;
 	}
 	
-	/**
-	 * Equivalent to client.getFile(client.getNode(id))
-	 * @param id the ID of the shock node.
-	 * @return an input stream containing the file.
-	 * @throws IOException if an IO problem occurs.
-	 * @throws ShockHttpException if the file could not be fetched from shock.
+	/* Upload a part of a node's file. Parts are numbered from 1. Shock assembles the file
+	 * once all the parts are uploaded.
 	 */
-	public InputStream getFile(final ShockNodeId id)
+	void uploadPart(final ShockNodeId id, final int part, final ContentBody body)
 			throws IOException, ShockHttpException {
-		return getFile(getNode(id));
+		final HttpPut htp = new HttpPut(getNodeURI(id));
+		htp.setEntity(MultipartEntityBuilder.create().addPart("" + part, body).build());
+		setExpectContinue(htp, body.getContentLength());
+		processRequest(htp, ShockNodeResponse.class);
 	}
 	
-	/** Get the file for this shock node. The user is responsible for closing the returned stream.
-	 * @param sn the shock node from which to retrieve the file.
-	 * @return an input stream containing the file.
-	 * @throws IOException if an IO problem occurs.
-	 * @throws ShockHttpException if the file could not be fetched from shock.
+	/* Ask the server to accept an upload before the body is sent if the upload is large
+	 * enough. A negative length means the length is unknown.
 	 */
-	public InputStream getFile(final ShockNode sn)
-			throws ShockHttpException, IOException {
-		final CloseableHttpResponse response = getFileResponse(sn);
-		final int code = response.getStatusLine().getStatusCode();
-		if (code > 299) {
-			getShockData(response, ShockNodeResponse.class); //trigger errors
+	private void setExpectContinue(final HttpRequestBase request, final long fileLength) {
+		if (isExpectContinue(fileLength)) {
+			request.setHeader(HTTP.EXPECT_DIRECTIVE, HTTP.EXPECT_CONTINUE);
 		}
-		// from https://hc.apache.org/httpcomponents-client-ga/tutorial/html/fundamentals.html#d5e145
-		// 1.1.5. Ensuring release of low level resources
-		// In order to ensure proper release of system resources one must close either the 
-		// content stream associated with the entity or the response itself
-		return response.getEntity().getContent();
 	}
 	
-	/**
-	 * Creates a node on the shock server containing a file.
-	 * @param file the file data.
-	 * @param fileLength the length of the file in bytes.
-	 * @param filename the name of the file.
-	 * @param format the format of the file, e.g. ASCII, UTF-8, JSON. Ignored
-	 * if null or whitespace only.
-	 * @return a shock node object.
-	 * @throws IOException if an IO problem occurs.
-	 * @throws ShockHttpException if the node could not be created.
-	 */
-	public ShockNode addNode(
+	private boolean isExpectContinue(final long fileLength) {
+		return expectContinueThreshold >= 0 &&
+				(fileLength < 0 || fileLength >= expectContinueThreshold);
+	}
+	
+	/* Set the name of a node's file. */
+	ShockNode setFileName(final ShockNodeId id, final String filename)
+			throws IOException, ShockHttpException {
+		final HttpPut htp = new HttpPut(getNodeURI(id));
+		htp.setEntity(MultipartEntityBuilder.create()
+				.addTextBody("file_name", filename).build());
+		final ShockNode sn = (ShockNode) processRequest(htp, ShockNodeResponse.class);
+		sn.addClient(this);
+		return sn;
+	}
+	
+	// returns the file length
+	private long checkAddNodeArgs(final Path file, final String filename) throws IOException {
+		if (file == null) {
+			throw new IllegalArgumentException("file may not be null");
+		}
+		if (filename == null || filename.isEmpty()) {
+			throw new IllegalArgumentException(
+					"filename may not be null or empty");
+		}
+		return Files.size(file);
+	}
+	
+	private void checkAddNodeArgs(
 			final InputStream file,
 			final long fileLength,
-			final String filename,
-			final String format)
-			throws IOException, ShockHttpException {
+			final String filename) {
 		if (file == null) {
 			throw new IllegalArgumentException("file may not be null");
 		}
@@ -430,20 +2121,24 @@ public class BasicShockClient {
 		if (fileLength < 0) {
 			throw new IllegalArgumentException("fileLength may not be negative");
 		}
-		final HttpPost htp = new HttpPost(nodeurl);
+	}
+	
+	private MultipartEntityBuilder getAddNodeForm(
+			final ContentBody file,
+			final long fileLength,
+			final String format) {
 		final MultipartEntityBuilder mpeb = MultipartEntityBuilder.create();
 		if (format != null && !format.trim().isEmpty()) {
 			mpeb.addTextBody("format", format);
 		}
-		mpeb.addPart(FormBodyPartBuilder.create()
+		final FormBodyPartBuilder part = FormBodyPartBuilder.create()
 				.setName("upload")
-				.setField("Content-Length", "" + fileLength)
-				.setBody(new InputStreamBody(file, filename))
-				.build());
-		htp.setEntity(mpeb.build());
-		final ShockNode sn = (ShockNode) processRequest(htp, ShockNodeResponse.class);
-		sn.addClient(this);
-		return sn;
+				.setBody(file);
+		if (fileLength >= 0) {
+			part.setField("Content-Length", "" + fileLength);
+		}
+		mpeb.addPart(part.build());
+		return mpeb;
 	}
 	
 	/** Makes a copy of a shock node, including the indexes and attributes, owned by the user.
@@ -468,14 +2163,17 @@ public class BasicShockClient {
 			return source;
 		}
 		final HttpPost htp = new HttpPost(nodeurl);
-		final MultipartEntityBuilder mpeb = MultipartEntityBuilder.create();
-		mpeb.addTextBody("copy_data", id.getId());
-		htp.setEntity(mpeb.build());
+		htp.setEntity(getCopyForm(id));
 		ShockNode sn = (ShockNode) processRequest(htp, ShockNodeResponse.class);
 		sn.addClient(this);
+		removeMissing(sn.getId());
 		return sn;
 	}
 	
+	private HttpEntity getCopyForm(final ShockNodeId id) {
+		return MultipartEntityBuilder.create().addTextBody("copy_data", id.getId()).build();
+	}
+	
 	/**
 	 * Deletes a node on the shock server.
 	 * @param id the node to delete.
@@ -486,7 +2184,53 @@ public class BasicShockClient {
 			throws IOException, ShockHttpException {
 		final URI targeturl = nodeurl.resolve(id.getId());
 		final HttpDelete htd = new HttpDelete(targeturl);
-		processRequest(htd, ShockNodeResponse.class); //triggers throwing errors
+		try {
+			processRequest(htd, ShockNodeResponse.class); //triggers throwing errors
+		} finally {
+			invalidate(id);
+		}
+	}
+	
+	/** Deletes many nodes on the shock server, with a bounded number of concurrent requests
+	 * and, optionally, a bounded request rate. The requests are made via
+	 * {@link #deleteNodeAsync(ShockNodeId)}, and so use the client's transport and connection
+	 * pool. Failing to delete a node does not prevent deleting the other nodes.
+	 * @param ids the nodes to delete. Duplicate IDs are deleted once.
+	 * @param options the concurrency and rate limit for the requests.
+	 * @return the nodes that were deleted, not found, that the user may not delete, and that
+	 * could not be deleted for other reasons.
+	 * @throws IOException if the thread is interrupted while waiting for the requests.
+	 */
+	public DeleteResult deleteNodes(final Collection<ShockNodeId> ids, final BulkOptions options)
+			throws IOException {
+		final Set<ShockNodeId> idset = checkIDs(ids);
+		final Set<ShockNodeId> deleted = ConcurrentHashMap.newKeySet();
+		final Map<ShockNodeId, Exception> errors = new ConcurrentHashMap<>();
+		new BulkOperation(options).run(idset.iterator(), this::deleteNodeAsync,
+				(id, v, err) -> {
+					if (err == null) {
+						deleted.add(id);
+					} else {
+						errors.put(id, toException(err));
+					}
+				});
+		final Set<ShockNodeId> del = new LinkedHashSet<>();
+		final Set<ShockNodeId> notFound = new LinkedHashSet<>();
+		final Map<ShockNodeId, ShockAuthorizationException> unauthorized = new LinkedHashMap<>();
+		final Map<ShockNodeId, Exception> failed = new LinkedHashMap<>();
+		for (final ShockNodeId id: idset) {
+			final Exception e = errors.get(id);
+			if (deleted.contains(id)) {
+				del.add(id);
+			} else if (e instanceof ShockNoNodeException) {
+				notFound.add(id);
+			} else if (e instanceof ShockAuthorizationException) {
+				unauthorized.put(id, (ShockAuthorizationException) e);
+			} else if (e != null) {
+				failed.put(id, e);
+			}
+		}
+		return new DeleteResult(del, notFound, unauthorized, failed);
 	}
 	
 	/** Add users to a node's ACLs.
@@ -504,7 +2248,11 @@ public class BasicShockClient {
 			throws ShockHttpException, IOException {
 		final URI targeturl = checkACLArgsAndGenURI(id, users, aclType);
 		final HttpPut htp = new HttpPut(targeturl);
-		return (ShockACL) processRequest(htp, ShockACLResponse.class);
+		try {
+			return (ShockACL) processRequest(htp, ShockACLResponse.class);
+		} finally {
+			invalidate(id);
+		}
 	}
 	
 	/** Remove users to a node's ACLs.
@@ -522,13 +2270,28 @@ public class BasicShockClient {
 			throws ShockHttpException, IOException {
 		final URI targeturl = checkACLArgsAndGenURI(id, users, aclType);
 		final HttpDelete htd = new HttpDelete(targeturl);
-		return (ShockACL) processRequest(htd, ShockACLResponse.class);
+		try {
+			return (ShockACL) processRequest(htd, ShockACLResponse.class);
+		} finally {
+			invalidate(id);
+		}
 	}
 	
 	private URI checkACLArgsAndGenURI(
 			final ShockNodeId id,
 			final List<String> users,
 			final ShockACLType aclType) {
+		checkACLArgs(id, users, aclType);
+		final URI targeturl = nodeurl.resolve(id.getId() +
+				aclType.getUrlFragmentForAcl() + "?users=" +
+				StringUtils.join(users, ",") + ";verbosity=full");
+		return targeturl;
+	}
+	
+	static void checkACLArgs(
+			final ShockNodeId id,
+			final List<String> users,
+			final ShockACLType aclType) {
 		if (id == null) {
 			throw new NullPointerException("id cannot be null");
 		}
@@ -545,10 +2308,49 @@ public class BasicShockClient {
 						"user cannot be null or the empty string");
 			}
 		}
-		final URI targeturl = nodeurl.resolve(id.getId() +
-				aclType.getUrlFragmentForAcl() + "?users=" +
-				StringUtils.join(users, ",") + ";verbosity=full");
-		return targeturl;
+	}
+	
+	/** Applies a batch of changes to the ACLs of many nodes. The batch coalesces the changes
+	 * into at most one request per node, ACL type, and addition or removal. The requests for
+	 * each node are made in sequence, and requests for different nodes concurrently, with a
+	 * bounded number of nodes in flight and, optionally, a bounded rate at which nodes are
+	 * started. The requests are made via the asynchronous ACL methods, and so use the
+	 * client's transport and connection pool.
+	 * 
+	 * If a request for a node fails, the remaining requests for that node are not made, but
+	 * the other nodes are unaffected.
+	 * @param batch the changes to apply.
+	 * @param options the concurrency and rate limit for the nodes. The concurrency is the
+	 * number of nodes updated at once, and the rate the number of nodes started per second.
+	 * @return the ACLs of each node after the node's last request, and, separately, the
+	 * errors for nodes for which a request failed.
+	 * @throws IOException if the thread is interrupted while waiting for the requests.
+	 */
+	public BulkResult<ShockACL> updateACLs(final ACLBatch batch, final BulkOptions options)
+			throws IOException {
+		if (batch == null) {
+			throw new NullPointerException("batch");
+		}
+		final Set<ShockNodeId> ids = new LinkedHashSet<>(batch.getNodes());
+		final Map<ShockNodeId, ShockACL> acls = new ConcurrentHashMap<>();
+		final Map<ShockNodeId, Exception> failures = new ConcurrentHashMap<>();
+		new BulkOperation(options).run(ids.iterator(), id -> {
+			CompletableFuture<ShockACL> fut = CompletableFuture.completedFuture(null);
+			for (final ACLBatch.ACLChange c: batch.getChanges(id)) {
+				fut = fut.thenCompose(acl -> c.isAdd() ?
+						addToNodeAclAsync(id, c.getUsers(), c.getACLType()) :
+						removeFromNodeAclAsync(id, c.getUsers(), c.getACLType()));
+			}
+			return fut;
+		},
+		(id, acl, err) -> {
+			if (err == null) {
+				acls.put(id, acl);
+			} else {
+				failures.put(id, toException(err));
+			}
+		});
+		return toBulkResult(ids, acls, failures);
 	}
 	
 	/** Set a node publicly readable.
@@ -562,20 +2364,28 @@ public class BasicShockClient {
 			final ShockNodeId id,
 			final boolean publicRead)
 			throws ShockHttpException, IOException {
-		if (id == null) {
-			throw new NullPointerException("id");
-		}
-		final URI targeturl = nodeurl.resolve(id.getId() +
-				// parameterize this if we support public write & delete,
-				// which seems like a bad idea to me
-				"/acl/public_read?verbosity=full");
+		final URI targeturl = getPublicReadURI(id);
 		final HttpRequestBase req;
 		if (publicRead) {
 			req = new HttpPut(targeturl);
 		} else {
 			req = new HttpDelete(targeturl);
 		}
-		return (ShockACL) processRequest(req, ShockACLResponse.class);
+		try {
+			return (ShockACL) processRequest(req, ShockACLResponse.class);
+		} finally {
+			invalidate(id);
+		}
+	}
+	
+	private URI getPublicReadURI(final ShockNodeId id) {
+		if (id == null) {
+			throw new NullPointerException("id");
+		}
+		return nodeurl.resolve(id.getId() +
+				// parameterize this if we support public write & delete,
+				// which seems like a bad idea to me
+				"/acl/public_read?verbosity=full");
 	}
 	
 	/**
@@ -590,11 +2400,532 @@ public class BasicShockClient {
 	 */
 	public ShockACL getACLs(final ShockNodeId id)
 			throws IOException, ShockHttpException {
-		final URI targeturl = nodeurl.resolve(id.getId() + "/acl/?verbosity=full");
-		final HttpGet htg = new HttpGet(targeturl);
+		if (cache != null && id != null) {
+			final ShockACL cached = cache.getACLs(id);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		if (aclFlights == null || id == null) {
+			return loadACLs(id);
+		}
+		return coalesce(aclFlights, id, () -> loadACLs(id));
+	}
+	
+	// fetches a node's ACLs and adds them to the cache
+	private ShockACL loadACLs(final ShockNodeId id) throws IOException, ShockHttpException {
+		if (cache == null || id == null) {
+			return fetchACLs(id);
+		}
+		final long stamp = cache.getStamp();
+		final ShockACL acl = fetchACLs(id);
+		cache.putACLs(id, acl, stamp);
+		return acl;
+	}
+	
+	private ShockACL fetchACLs(final ShockNodeId id) throws IOException, ShockHttpException {
+		final HttpGet htg = new HttpGet(getACLsURI(id));
 		return (ShockACL) processRequest(htg, ShockACLResponse.class);
 	}
 	
+	private URI getACLsURI(final ShockNodeId id) {
+		return nodeurl.resolve(id.getId() + "/acl/?verbosity=full");
+	}
+	
+	/** Retrieves the ACLs for many nodes, for example every node in a deployment, with a
+	 * bounded number of concurrent requests and, optionally, a bounded request rate. The
+	 * requests are made via {@link #getACLsAsync(ShockNodeId)}, and so use the client's
+	 * transport and connection pool.
+	 *
+	 * Node IDs are taken from the iterator only as requests complete, and each result is
+	 * passed to the callback rather than kept, so any number of nodes may be processed in
+	 * constant memory. Failing to get the ACLs for a node does not prevent getting the ACLs
+	 * for the other nodes. Duplicate IDs are not removed.
+	 * @param ids the nodes to query.
+	 * @param options the concurrency and rate limit for the requests.
+	 * @param callback the callback that receives the ACLs, or the error, for each node.
+	 * @throws IOException if the thread is interrupted while waiting for the requests.
+	 * @throws RuntimeException if the callback throws an exception. No further requests are
+	 * started, and the exception is thrown once the requests in flight complete.
+	 */
+	public void getACLs(
+			final Iterator<ShockNodeId> ids,
+			final BulkOptions options,
+			final BulkCallback<ShockACL> callback)
+			throws IOException {
+		if (ids == null) {
+			throw new NullPointerException("ids");
+		}
+		if (callback == null) {
+			throw new NullPointerException("callback");
+		}
+		new BulkOperation(options).run(ids, this::getACLsAsync,
+				(id, acl, err) -> callback.complete(
+						id, acl, err == null ? null : toException(err)));
+	}
+	
+	/** Retrieves the ACLs for many nodes as
+	 * {@link #getACLs(Iterator, BulkOptions, BulkCallback)}, writing them to a file.
+	 *
+	 * The file has one tab separated line per node, in the order the requests complete. A
+	 * node's line contains the node ID, the owner, the users who can read, write, and delete
+	 * the node, each as a comma separated list of user names, and <code>true</code> or
+	 * <code>false</code> for whether the node is publicly readable. If the ACLs for a node
+	 * could not be retrieved, the line contains the node ID, <code>ERROR</code>, and the
+	 * error.
+	 * @param ids the nodes to query.
+	 * @param options the concurrency and rate limit for the requests.
+	 * @param output the file to write. Any existing file is overwritten.
+	 * @return the number of nodes for which the ACLs could not be retrieved.
+	 * @throws IOException if the file could not be written or the thread is interrupted while
+	 * waiting for the requests. No further requests are started once writing the file fails.
+	 */
+	public long getACLs(
+			final Iterator<ShockNodeId> ids,
+			final BulkOptions options,
+			final Path output)
+			throws IOException {
+		if (ids == null) {
+			throw new NullPointerException("ids");
+		}
+		if (output == null) {
+			throw new NullPointerException("output");
+		}
+		final AtomicLong failures = new AtomicLong();
+		final AtomicReference<IOException> writeError = new AtomicReference<>();
+		// stop taking IDs once the file can't be written
+		final Iterator<ShockNodeId> checked = new Iterator<ShockNodeId>() {
+	
+			@Override
+			public boolean hasNext() {
+				return writeError.get() == null && ids.hasNext();
+			}
+	
+			@Override
+			public ShockNodeId next() {
+				return ids.next();
+			}
+		};
+		try (final Writer w = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+			getACLs(checked, options, (id, acl, err) -> {
+				if (err != null) {
+					failures.incrementAndGet();
+				}
+				final String line = err == null ? toACLLine(id, acl) : toErrorLine(id, err);
+				synchronized (w) {
+					if (writeError.get() == null) {
+						try {
+							w.write(line);
+						} catch (IOException e) {
+							writeError.set(e);
+						}
+					}
+				}
+			});
+			if (writeError.get() != null) {
+				throw writeError.get();
+			}
+		}
+		return failures.get();
+	}
+	
+	private static String toACLLine(final ShockNodeId id, final ShockACL acl) {
+		final ShockUserId owner = acl.getOwner();
+		return String.join("\t",
+				id.getId(),
+				owner == null ? "" : owner.getUsername(),
+				toUserNames(acl.getRead()),
+				toUserNames(acl.getWrite()),
+				toUserNames(acl.getDelete()),
+				Boolean.toString(acl.isPublicallyReadable())) + "\n";
+	}
+	
+	private static String toUserNames(final List<ShockUserId> users) {
+		if (users == null) {
+			return "";
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (final ShockUserId u: users) {
+			if (sb.length() > 0) {
+				sb.append(",");
+			}
+			sb.append(u.getUsername());
+		}
+		return sb.toString();
+	}
+	
+	private static String toErrorLine(final ShockNodeId id, final Exception err) {
+		// keep the error on one line
+		final String msg = (err.getClass().getSimpleName() + ": " + err.getMessage())
+				.replaceAll("\\s+", " ");
+		return String.join("\t", id == null ? "" : id.getId(), "ERROR", msg) + "\n";
+	}
+	
+	/* Asynchronous versions of the methods above. Each returns immediately and, depending on
+	 * the client's transport, either runs the request on the client's executor or starts it
+	 * on the non-blocking transport. Any exception the synchronous method would throw,
+	 * including argument errors, completes the returned future exceptionally.
+	 */
+	
+	/** Asynchronous version of {@link #getNode(ShockNodeId)}.
+	 * @param id the ID of the shock node.
+	 * @return a future that completes with the shock node.
+	 */
+	public CompletableFuture<ShockNode> getNodeAsync(final ShockNodeId id) {
+		if (cache != null && id != null) {
+			final ShockNode cached;
+			try {
+				cached = cache.getNode(id);
+			} catch (ShockNoNodeException e) {
+				final CompletableFuture<ShockNode> fut = new CompletableFuture<>();
+				fut.completeExceptionally(e);
+				return fut;
+			}
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+		}
+		if (nodeFlights == null || id == null) {
+			return loadNodeAsync(id);
+		}
+		return nodeFlights.run(id, () -> loadNodeAsync(id)).thenApply(ShockNode::copy);
+	}
+	
+	private CompletableFuture<ShockNode> loadNodeAsync(final ShockNodeId id) {
+		final long stamp = cache == null ? 0 : cache.getStamp();
+		final CompletableFuture<ShockNode> fut = runAsync(() -> fetchNode(id), () ->
+				processNodeAsync(transport.request("GET", getNodeURI(id), getAuthorization())));
+		if (cache == null || id == null) {
+			return fut;
+		}
+		return fut.whenComplete((sn, e) -> {
+			if (e == null) {
+				cache.putNode(sn, stamp);
+			} else {
+				final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+				if (cause instanceof ShockNoNodeException) {
+					cache.putMissing(id, (ShockNoNodeException) cause, stamp);
+				}
+			}
+		});
+	}
+	
+	/** Asynchronous version of {@link #getFile(ShockNodeId, OutputStream)}.
+	 * @param id the ID of the shock node.
+	 * @param file the stream to which the file will be written.
+	 * @return a future that completes when the file has been written to the stream.
+	 */
+	public CompletableFuture<Void> getFileAsync(final ShockNodeId id, final OutputStream file) {
+		return runAsync(() -> {
+			getFile(id, file);
+			return null;
+		},
+		() -> {
+			if (verifyChecksums || compression != null || fileCache != null) {
+				return getNodeAsync(id).thenCompose(sn -> getFileAsync(sn, file));
+			}
+			final URI uri = getDownloadURI(id);
+			if (file == null) {
+				throw new NullPointerException("os");
+			}
+			// HTTP/2 responses may not have a content length, so count the bytes
+			final AtomicLong written = new AtomicLong();
+			final OutputStream counter = new FilterOutputStream(file) {
+				
+				@Override
+				public void write(final int b) throws IOException {
+					out.write(b);
+					written.incrementAndGet();
+				}
+				
+				@Override
+				public void write(final byte[] b, final int off, final int len)
+						throws IOException {
+					out.write(b, off, len);
+					written.addAndGet(len);
+				}
+			};
+			return transport.download(uri, getAuthorization(), counter)
+					.thenApply(unchecked(r -> {
+						if (r.getCode() > 299) {
+							getShockData(r, ShockNodeResponse.class); //trigger errors
+						}
+						final org.apache.hc.core5.http.Header cl =
+								r.getFirstHeader("Content-Length");
+						checkHasFile(cl == null ? written.get() : Long.parseLong(cl.getValue()));
+						return null;
+					}));
+		});
+	}
+	
+	/** Asynchronous version of {@link #getFile(ShockNode, OutputStream)}.
+	 * @param sn the shock node from which to retrieve the file.
+	 * @param os the stream to which the file will be written.
+	 * @return a future that completes when the file has been written to the stream.
+	 */
+	public CompletableFuture<Void> getFileAsync(final ShockNode sn, final OutputStream os) {
+		return runAsync(() -> {
+			getFile(sn, os);
+			return null;
+		},
+		() -> {
+			if (os == null) {
+				throw new NullPointerException("os");
+			}
+			final URI uri = getDownloadURI(sn);
+			if (getCompression(sn) != null || isCacheable(sn)) {
+				// decompression and the file cache need a stream to read from, so use the
+				// blocking transport
+				return runAsync(() -> {
+					getFile(sn, os);
+					return null;
+				});
+			}
+			final ChecksumVerifier verifier = verifyChecksums ? new ChecksumVerifier(sn) : null;
+			return transport.download(uri, getAuthorization(),
+					verifier == null ? os : verifier.wrap(os))
+					.thenApply(unchecked(r -> {
+						if (r.getCode() > 299) {
+							getShockData(r, ShockNodeResponse.class); //trigger errors
+						}
+						if (verifier != null) {
+							verifier.verify();
+						}
+						return null;
+					}));
+		});
+	}
+	
+	/** Asynchronous version of {@link #addNode(InputStream, long, String, String)}.
+	 * @param file the file data.
+	 * @param fileLength the length of the file in bytes.
+	 * @param filename the name of the file.
+	 * @param format the format of the file, e.g. ASCII, UTF-8, JSON. Ignored
+	 * if null or whitespace only.
+	 * @return a future that completes with the new shock node.
+	 */
+	public CompletableFuture<ShockNode> addNodeAsync(
+			final InputStream file,
+			final long fileLength,
+			final String filename,
+			final String format) {
+		return runAsync(() -> addNode(file, fileLength, filename, format), () -> {
+			checkAddNodeArgs(file, fileLength, filename);
+			if (compression != null) {
+				return uploadAsync(Channels.newChannel(compression.compress(
+						file, compressionLevel)), -1, filename, compression.getFormat(format));
+			}
+			return uploadAsync(Channels.newChannel(file), fileLength, filename, format);
+		});
+	}
+	
+	/** Asynchronous version of {@link #addNode(Path, String, String)}. When using a
+	 * non-blocking transport, the file is read directly from disk into the buffers written to
+	 * the network connection.
+	 * @param file the file.
+	 * @param filename the name of the file.
+	 * @param format the format of the file, e.g. ASCII, UTF-8, JSON. Ignored
+	 * if null or whitespace only.
+	 * @return a future that completes with the new shock node.
+	 */
+	public CompletableFuture<ShockNode> addNodeAsync(
+			final Path file,
+			final String filename,
+			final String format) {
+		return runAsync(() -> addNode(file, filename, format), () -> {
+			final long fileLength = checkAddNodeArgs(file, filename);
+			final ReadableByteChannel source = compression == null ?
+					FileChannel.open(file, StandardOpenOption.READ) :
+					Channels.newChannel(compression.compress(
+							Files.newInputStream(file), compressionLevel));
+			try {
+				if (compression != null) {
+					return uploadAsync(source, -1, filename, compression.getFormat(format));
+				}
+				return uploadAsync(source, fileLength, filename, format);
+			} catch (IOException | RuntimeException e) {
+				source.close();
+				throw e;
+			}
+		});
+	}
+	
+	/* Upload a node's file from a channel via the non-blocking transport. The channel is
+	 * closed when the upload completes. If the file length is negative the length is unknown
+	 * and the request body is sent with chunked transfer encoding.
+	 */
+	private CompletableFuture<ShockNode> uploadAsync(
+			ReadableByteChannel source,
+			final long fileLength,
+			final String filename,
+			final String format)
+			throws IOException {
+		final UploadChecksum checksum = verifyChecksums ? new UploadChecksum() : null;
+		if (checksum != null) {
+			source = checksum.wrap(source);
+		}
+		/* serialize the form with an empty file body, and then stream the file between
+		 * the serialized form and the closing boundary.
+		 */
+		final String boundary = UUID.randomUUID().toString().replace("-", "");
+		final HttpEntity form = getAddNodeForm(
+				new ByteArrayBody(new byte[0], filename), fileLength, format)
+				.setBoundary(boundary)
+				.build();
+		final byte[] serialized = serialize(form);
+		final byte[] epilogue = ("\r\n--" + boundary + "--\r\n")
+				.getBytes(StandardCharsets.US_ASCII);
+		final byte[] preamble = Arrays.copyOf(
+				serialized, serialized.length - epilogue.length);
+		final CompletableFuture<ShockNode> upload = processNodeAsync(transport.upload(
+				"POST", nodeurl, getAuthorization(),
+				new AsyncTransport.MultipartProducer(preamble, source,
+						fileLength, epilogue, form.getContentType().getValue()),
+				isExpectContinue(fileLength)));
+		if (checksum == null) {
+			return upload;
+		}
+		return upload.thenCompose(sn -> {
+			final ShockChecksumException e = checkUpload(sn, checksum);
+			if (e == null) {
+				return CompletableFuture.completedFuture(sn);
+			}
+			final CompletableFuture<Void> delete = deleteCorruptUploads ?
+					deleteNodeAsync(sn.getId()) : CompletableFuture.completedFuture(null);
+			return delete.handle((v, err) -> {
+				if (err != null) {
+					e.addSuppressed(err instanceof CompletionException ? err.getCause() : err);
+				}
+				throw new CompletionException(e);
+			});
+		});
+	}
+	
+	private byte[] serialize(final HttpEntity entity) throws IOException {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		entity.writeTo(baos);
+		return baos.toByteArray();
+	}
+	
+	/** Asynchronous version of {@link #copyNode(ShockNodeId, boolean)}.
+	 * @param id the ID of the shock node to copy.
+	 * @param unlessAlreadyOwned if true and the shock node is already owned by the user,
+	 * don't make a copy.
+	 * @return a future that completes with the new shock node, or the node from the id if
+	 * unlessAlreadyOwned is true and the user already owns the node.
+	 */
+	public CompletableFuture<ShockNode> copyNodeAsync(
+			final ShockNodeId id,
+			final boolean unlessAlreadyOwned) {
+		return runAsync(() -> copyNode(id, unlessAlreadyOwned), () -> {
+			final CompletableFuture<ShockNode> source = getNodeAsync(id);
+			if (!unlessAlreadyOwned) {
+				return source.thenCompose(unchecked(sn -> startCopy(id)));
+			}
+			// see the comments in copyNode() re the user name
+			return source.thenCompose(sn -> getACLsAsync(id).thenCompose(unchecked(acl ->
+					acl.getOwner().getUsername().equals(token.getUserName()) ?
+							CompletableFuture.completedFuture(sn) : startCopy(id))));
+		});
+	}
+	
+	private CompletableFuture<ShockNode> startCopy(final ShockNodeId id) throws IOException {
+		final HttpEntity form = getCopyForm(id);
+		return processNodeAsync(transport.request("POST", nodeurl, getAuthorization(),
+				serialize(form), form.getContentType().getValue()));
+	}
+	
+	/** Asynchronous version of {@link #deleteNode(ShockNodeId)}.
+	 * @param id the node to delete.
+	 * @return a future that completes when the node has been deleted.
+	 */
+	public CompletableFuture<Void> deleteNodeAsync(final ShockNodeId id) {
+		return runAsync(() -> {
+			deleteNode(id);
+			return null;
+		},
+		() -> processAsync("DELETE", getNodeURI(id), ShockNodeResponse.class)
+				.whenComplete((d, e) -> invalidate(id))
+				.thenApply(d -> null));
+	}
+	
+	/** Asynchronous version of {@link #addToNodeAcl(ShockNodeId, List, ShockACLType)}.
+	 * @param id the node to update.
+	 * @param users the users to add to the ACL.
+	 * @param aclType the ACL to which the users should be added.
+	 * @return a future that completes with the new ACL.
+	 */
+	public CompletableFuture<ShockACL> addToNodeAclAsync(
+			final ShockNodeId id,
+			final List<String> users,
+			final ShockACLType aclType) {
+		return runAsync(() -> addToNodeAcl(id, users, aclType), () -> processAsync(
+				"PUT", checkACLArgsAndGenURI(id, users, aclType), ShockACLResponse.class)
+				.whenComplete((d, e) -> invalidate(id))
+				.thenApply(d -> (ShockACL) d));
+	}
+	
+	/** Asynchronous version of {@link #removeFromNodeAcl(ShockNodeId, List, ShockACLType)}.
+	 * @param id the node to update.
+	 * @param users the users to remove from the ACL.
+	 * @param aclType the ACL from which the users should be removed.
+	 * @return a future that completes with the new ACL.
+	 */
+	public CompletableFuture<ShockACL> removeFromNodeAclAsync(
+			final ShockNodeId id,
+			final List<String> users,
+			final ShockACLType aclType) {
+		return runAsync(() -> removeFromNodeAcl(id, users, aclType), () -> processAsync(
+				"DELETE", checkACLArgsAndGenURI(id, users, aclType), ShockACLResponse.class)
+				.whenComplete((d, e) -> invalidate(id))
+				.thenApply(d -> (ShockACL) d));
+	}
+	
+	/** Asynchronous version of {@link #setPubliclyReadable(ShockNodeId, boolean)}.
+	 * @param id the ID of the node to set readable.
+	 * @param publicRead true to set publicly readable, false to set private.
+	 * @return a future that completes with the new ACLs.
+	 */
+	public CompletableFuture<ShockACL> setPubliclyReadableAsync(
+			final ShockNodeId id,
+			final boolean publicRead) {
+		return runAsync(() -> setPubliclyReadable(id, publicRead), () -> processAsync(
+				publicRead ? "PUT" : "DELETE", getPublicReadURI(id), ShockACLResponse.class)
+				.whenComplete((d, e) -> invalidate(id))
+				.thenApply(d -> (ShockACL) d));
+	}
+	
+	/** Asynchronous version of {@link #getACLs(ShockNodeId)}.
+	 * @param id the node to query.
+	 * @return a future that completes with the ACLs for the node.
+	 */
+	public CompletableFuture<ShockACL> getACLsAsync(final ShockNodeId id) {
+		if (cache != null && id != null) {
+			final ShockACL cached = cache.getACLs(id);
+			if (cached != null) {
+				return CompletableFuture.completedFuture(cached);
+			}
+		}
+		if (aclFlights == null || id == null) {
+			return loadACLsAsync(id);
+		}
+		return aclFlights.run(id, () -> loadACLsAsync(id));
+	}
+	
+	private CompletableFuture<ShockACL> loadACLsAsync(final ShockNodeId id) {
+		final long stamp = cache == null ? 0 : cache.getStamp();
+		final CompletableFuture<ShockACL> fut = runAsync(() -> fetchACLs(id), () -> processAsync(
+				"GET", getACLsURI(id), ShockACLResponse.class)
+				.thenApply(d -> (ShockACL) d));
+		if (cache == null || id == null) {
+			return fut;
+		}
+		return fut.thenApply(acl -> {
+			cache.putACLs(id, acl, stamp);
+			return acl;
+		});
+	}
+	
 	//for known good uris ONLY
 	private URL uriToUrl(final URI uri) {
 		try {
@@ -0,0 +1,23 @@
+package us.kbase.shock.client;
+
+/** Receives the outcome of an operation on each of many shock nodes as the operations
+ * complete, for example from
+ * {@link BasicShockClient#getACLs(java.util.Iterator, BulkOptions, BulkCallback)}. Results
+ * are delivered in the order the operations complete, not the order of the nodes.
+ *
+ * The callback is called on the thread that completes the operation, and so may be called
+ * concurrently for different nodes. It should return quickly, as it holds up the operation's
+ * next request. If the callback throws an exception, no further operations are started, and
+ * the exception is thrown from the bulk method once the operations in flight complete.
+ * @param <T> the type of the results.
+ */
+public interface BulkCallback<T> {
+
+	/** Receive the outcome of the operation for a node.
+	 * @param id the ID of the node.
+	 * @param result the result, or null if the operation failed.
+	 * @param error the error, or null if the operation succeeded. See
+	 * {@link BulkResult#getFailures()} for the errors that may occur.
+	 */
+	void complete(ShockNodeId id, T result, Exception error);
+}
@@ -0,0 +1,130 @@
+package us.kbase.shock.client;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/** Runs an asynchronous operation on each of a sequence of items, with a bounded number of
+ * operations in flight and, optionally, a bounded rate at which operations start. Items are
+ * taken from the sequence only as operations complete, so neither the items nor the futures
+ * are held in memory, and sequences of millions of items may be processed.
+ */
+class BulkOperation {
+
+	/** Receives the outcome of each operation. Called on the thread that completes the
+	 * operation, and so may be called concurrently. If the callback throws an exception, no
+	 * further operations are started, and the exception is thrown from
+	 * {@link BulkOperation#run(Iterator, Function, Callback)}.
+	 * @param <I> the type of the items.
+	 * @param <T> the type of the results.
+	 */
+	interface Callback<I, T> {
+
+		/** Receive the outcome of an operation.
+		 * @param item the item.
+		 * @param result the result, or null if the operation failed.
+		 * @param error the error, or null if the operation succeeded.
+		 */
+		void complete(I item, T result, Throwable error);
+	}
+
+	private final int maxConcurrency;
+	// 0 if the rate is not limited
+	private final long intervalNS;
+
+	/** Create the operation.
+	 * @param maxConcurrency the maximum number of operations in flight.
+	 */
+	BulkOperation(final int maxConcurrency) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("maxConcurrency must be > 0");
+		}
+		this.maxConcurrency = maxConcurrency;
+		this.intervalNS = 0;
+	}
+
+	/** Create the operation.
+	 * @param options the concurrency and rate limit for the operation.
+	 */
+	BulkOperation(final BulkOptions options) {
+		if (options == null) {
+			throw new NullPointerException("options");
+		}
+		this.maxConcurrency = options.getConcurrency();
+		this.intervalNS = options.getMaxRequestsPerSecond() == 0 ? 0 :
+				(long) Math.ceil(1_000_000_000 / options.getMaxRequestsPerSecond());
+	}
+
+	/** Run the operation on each item and wait for all the operations to complete.
+	 * @param items the items.
+	 * @param operation the operation. Exceptions thrown by the operation are reported to the
+	 * callback rather than thrown.
+	 * @param callback the callback that receives the outcome of each operation.
+	 * @throws IOException if the thread is interrupted. Operations in flight continue.
+	 * @throws RuntimeException if the callback throws an exception, once the operations in
+	 * flight complete. Errors thrown by the callback are rethrown in the same way.
+	 */
+	<I, T> void run(
+			final Iterator<I> items,
+			final Function<I, CompletableFuture<T>> operation,
+			final Callback<I, T> callback)
+			throws IOException {
+		final Semaphore inflight = new Semaphore(maxConcurrency);
+		// the first exception thrown by the callback, which would otherwise be lost in the future
+		final AtomicReference<Throwable> callbackError = new AtomicReference<>();
+		long nextStart = System.nanoTime();
+		try {
+			while (items.hasNext()) {
+				inflight.acquire();
+				if (callbackError.get() != null) {
+					inflight.release();
+					break;
+				}
+				final I item = items.next();
+				if (intervalNS > 0) {
+					final long wait = nextStart - System.nanoTime();
+					if (wait > 0) {
+						TimeUnit.NANOSECONDS.sleep(wait);
+					}
+					// don't save up unused starts while waiting for operations to complete
+					nextStart = Math.max(nextStart, System.nanoTime()) + intervalNS;
+				}
+				CompletableFuture<T> fut;
+				try {
+					fut = operation.apply(item);
+				} catch (RuntimeException e) {
+					fut = new CompletableFuture<>();
+					fut.completeExceptionally(e);
+				}
+				fut.whenComplete((r, e) -> {
+					try {
+						callback.complete(item, e == null ? r : null,
+								e instanceof CompletionException ? e.getCause() : e);
+					} catch (Throwable t) {
+						callbackError.compareAndSet(null, t);
+					} finally {
+						inflight.release();
+					}
+				});
+			}
+			// all the permits are available once every operation is complete
+			inflight.acquire(maxConcurrency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for shock", e);
+		}
+		final Throwable error = callbackError.get();
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		} else if (error != null) {
+			throw new RuntimeException(error); // should be impossible
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package us.kbase.shock.client;
+
+/** Options for an operation on many shock nodes, for example
+ * {@link BasicShockClient#deleteNodes(java.util.Collection, BulkOptions)}.
+ *
+ * The operation makes a request per node, with a bounded number of requests in flight, and
+ * optionally a bounded request rate to avoid overloading the server.
+ *
+ * When using a non-blocking transport, each request in flight requires a connection from the
+ * client's connection pool for HTTP/1.1, or a stream on a shared connection for HTTP/2. When
+ * using the blocking transport, each request in flight also requires a thread from the
+ * client's executor, and so the concurrency is limited by the size of the executor.
+ */
+public class BulkOptions {
+
+	/** The default number of requests in flight. */
+	public static final int DEFAULT_CONCURRENCY = 10;
+
+	private final int concurrency;
+	private final double maxRequestsPerSecond;
+
+	private BulkOptions(final int concurrency, final double maxRequestsPerSecond) {
+		this.concurrency = concurrency;
+		this.maxRequestsPerSecond = maxRequestsPerSecond;
+	}
+
+	/** Get the maximum number of requests in flight.
+	 * @return the concurrency.
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/** Get the maximum rate at which requests are started.
+	 * @return the rate in requests per second, or 0 if the rate is not limited.
+	 */
+	public double getMaxRequestsPerSecond() {
+		return maxRequestsPerSecond;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("BulkOptions [concurrency=");
+		builder.append(concurrency);
+		builder.append(", maxRequestsPerSecond=");
+		builder.append(maxRequestsPerSecond);
+		builder.append("]");
+		return builder.toString();
+	}
+
+	/** Get a builder for a {@link BulkOptions}.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder() {
+		return new Builder();
+	}
+
+	/** A builder for a {@link BulkOptions}. */
+	public static class Builder {
+
+		private int concurrency = DEFAULT_CONCURRENCY;
+		private double maxRequestsPerSecond = 0;
+
+		private Builder() {}
+
+		/** Set the maximum number of requests in flight. The default is
+		 * {@link BulkOptions#DEFAULT_CONCURRENCY}.
+		 * @param concurrency the concurrency.
+		 * @return this builder.
+		 */
+		public Builder withConcurrency(final int concurrency) {
+			if (concurrency < 1) {
+				throw new IllegalArgumentException("concurrency must be > 0");
+			}
+			this.concurrency = concurrency;
+			return this;
+		}
+
+		/** Set the maximum rate at which requests are started. Requests are spaced evenly,
+		 * so a rate of 100 starts a request at most every 10 milliseconds. By default the
+		 * rate is not limited.
+		 * @param maxRequestsPerSecond the rate in requests per second, or 0 to not limit the
+		 * rate.
+		 * @return this builder.
+		 */
+		public Builder withMaxRequestsPerSecond(final double maxRequestsPerSecond) {
+			if (!(maxRequestsPerSecond >= 0) || Double.isInfinite(maxRequestsPerSecond)) {
+				throw new IllegalArgumentException(
+						"maxRequestsPerSecond must be a finite number >= 0");
+			}
+			this.maxRequestsPerSecond = maxRequestsPerSecond;
+			return this;
+		}
+
+		/** Build the options.
+		 * @return the options.
+		 */
+		public BulkOptions build() {
+			return new BulkOptions(concurrency, maxRequestsPerSecond);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package us.kbase.shock.client;
+
+import java.util.Collections;
+import java.util.Map;
+
+/** The results of an operation on many shock nodes, for example
+ * {@link BasicShockClient#getNodes(java.util.Collection, int)}. The operation continues when
+ * the operation fails for some nodes, and those failures are reported separately from the
+ * results.
+ * @param <T> the type of the results.
+ */
+public class BulkResult<T> {
+
+	private final Map<ShockNodeId, T> results;
+	private final Map<ShockNodeId, Exception> failures;
+
+	BulkResult(final Map<ShockNodeId, T> results, final Map<ShockNodeId, Exception> failures) {
+		this.results = Collections.unmodifiableMap(results);
+		this.failures = Collections.unmodifiableMap(failures);
+	}
+
+	/** Get the results of the operation for the nodes for which it succeeded.
+	 * @return a map of node ID to result, in the order the IDs were provided.
+	 */
+	public Map<ShockNodeId, T> getResults() {
+		return results;
+	}
+
+	/** Get the errors for the nodes for which the operation failed. The errors are usually
+	 * a {@link us.kbase.shock.client.exceptions.ShockHttpException}, for example a
+	 * {@link us.kbase.shock.client.exceptions.ShockNoNodeException} if the node doesn't
+	 * exist, or an {@link java.io.IOException}.
+	 * @return a map of node ID to error, in the order the IDs were provided.
+	 */
+	public Map<ShockNodeId, Exception> getFailures() {
+		return failures;
+	}
+
+	/** Check whether the operation succeeded for all the nodes.
+	 * @return true if there are no failures.
+	 */
+	public boolean isComplete() {
+		return failures.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("BulkResult [results=");
+		builder.append(results.size());
+		builder.append(", failures=");
+		builder.append(failures);
+		builder.append("]");
+		return builder.toString();
+	}
+}
@@ -0,0 +1,140 @@
+package us.kbase.shock.client;
+
+/** Options for a client's cache of nodes and ACLs. See
+ * {@link BasicShockClient.Builder#withCache(CacheOptions)}.
+ *
+ * The cache holds the node and ACLs returned by
+ * {@link BasicShockClient#getNode(ShockNodeId)} and
+ * {@link BasicShockClient#getACLs(ShockNodeId)} for up to a maximum number of nodes, evicting
+ * the least recently used node when full, and for up to a maximum time. Optionally, the cache
+ * also records which nodes don't exist, so that repeated requests for missing nodes fail
+ * without contacting shock.
+ */
+public class CacheOptions {
+
+	/** The default maximum number of nodes in the cache. */
+	public static final int DEFAULT_MAX_NODES = 10_000;
+	/** The default time, in milliseconds, a node or ACL remains in the cache. */
+	public static final long DEFAULT_TIME_TO_LIVE_MS = 60_000;
+
+	private final int maxNodes;
+	private final long timeToLiveMS;
+	private final long missingNodeTimeToLiveMS;
+
+	private CacheOptions(
+			final int maxNodes,
+			final long timeToLiveMS,
+			final long missingNodeTimeToLiveMS) {
+		this.maxNodes = maxNodes;
+		this.timeToLiveMS = timeToLiveMS;
+		this.missingNodeTimeToLiveMS = missingNodeTimeToLiveMS;
+	}
+
+	/** Get the maximum number of nodes in the cache.
+	 * @return the maximum number of nodes.
+	 */
+	public int getMaxNodes() {
+		return maxNodes;
+	}
+
+	/** Get the time a node or ACL remains in the cache after it is fetched from shock.
+	 * @return the time to live in milliseconds.
+	 */
+	public long getTimeToLiveMS() {
+		return timeToLiveMS;
+	}
+
+	/** Get the time the cache records that a node doesn't exist.
+	 * @return the time to live in milliseconds, or 0 if missing nodes are not cached.
+	 */
+	public long getMissingNodeTimeToLiveMS() {
+		return missingNodeTimeToLiveMS;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CacheOptions [maxNodes=");
+		builder.append(maxNodes);
+		builder.append(", timeToLiveMS=");
+		builder.append(timeToLiveMS);
+		builder.append(", missingNodeTimeToLiveMS=");
+		builder.append(missingNodeTimeToLiveMS);
+		builder.append("]");
+		return builder.toString();
+	}
+
+	/** Get a builder for a {@link CacheOptions}.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder() {
+		return new Builder();
+	}
+
+	/** A builder for a {@link CacheOptions}. */
+	public static class Builder {
+
+		private int maxNodes = DEFAULT_MAX_NODES;
+		private long timeToLiveMS = DEFAULT_TIME_TO_LIVE_MS;
+		private long missingNodeTimeToLiveMS = 0;
+
+		private Builder() {}
+
+		/** Set the maximum number of nodes in the cache. A node's metadata and ACLs count as
+		 * one node. The default is {@link CacheOptions#DEFAULT_MAX_NODES}.
+		 * @param maxNodes the maximum number of nodes.
+		 * @return this builder.
+		 */
+		public Builder withMaxNodes(final int maxNodes) {
+			if (maxNodes < 1) {
+				throw new IllegalArgumentException("maxNodes must be > 0");
+			}
+			this.maxNodes = maxNodes;
+			return this;
+		}
+
+		/** Set the time a node or ACL remains in the cache after it is fetched from shock.
+		 * Changes to a node made by other clients, for example to its ACLs, are not seen
+		 * until the cached copy expires. The default is
+		 * {@link CacheOptions#DEFAULT_TIME_TO_LIVE_MS}.
+		 * @param timeToLiveMS the time to live in milliseconds.
+		 * @return this builder.
+		 */
+		public Builder withTimeToLiveMS(final long timeToLiveMS) {
+			if (timeToLiveMS < 1) {
+				throw new IllegalArgumentException("timeToLiveMS must be > 0");
+			}
+			this.timeToLiveMS = timeToLiveMS;
+			return this;
+		}
+
+		/** Record that a node doesn't exist when
+		 * {@link BasicShockClient#getNode(ShockNodeId)}, its asynchronous version, or
+		 * {@link BasicShockClient#getFile(ShockNodeId)} and
+		 * {@link BasicShockClient#getFile(ShockNodeId, java.io.OutputStream)} throw a
+		 * {@link us.kbase.shock.client.exceptions.ShockNoNodeException}, so that requests for
+		 * the node in the given time fail at once. Creating a node via the client removes any
+		 * such record, but, since node IDs are assigned by shock, a missing node is otherwise
+		 * only expected to appear in the rare case that it was being created as it was
+		 * requested. A missing node counts towards the maximum number of nodes. By default
+		 * missing nodes are not cached.
+		 * @param missingNodeTimeToLiveMS the time to live in milliseconds, or 0 to not cache
+		 * missing nodes.
+		 * @return this builder.
+		 */
+		public Builder withMissingNodeTimeToLiveMS(final long missingNodeTimeToLiveMS) {
+			if (missingNodeTimeToLiveMS < 0) {
+				throw new IllegalArgumentException("missingNodeTimeToLiveMS must be >= 0");
+			}
+			this.missingNodeTimeToLiveMS = missingNodeTimeToLiveMS;
+			return this;
+		}
+
+		/** Build the options.
+		 * @return the options.
+		 */
+		public CacheOptions build() {
+			return new CacheOptions(maxNodes, timeToLiveMS, missingNodeTimeToLiveMS);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package us.kbase.shock.client;
+
+/** Statistics for a client's cache of nodes and ACLs at a point in time. See
+ * {@link BasicShockClient#getCacheStats()}.
+ */
+public class CacheStats {
+
+	private final long hits;
+	private final long missingHits;
+	private final long misses;
+	private final long evictions;
+	private final long expirations;
+	private final long invalidations;
+	private final int size;
+
+	CacheStats(
+			final long hits,
+			final long missingHits,
+			final long misses,
+			final long evictions,
+			final long expirations,
+			final long invalidations,
+			final int size) {
+		this.hits = hits;
+		this.missingHits = missingHits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.expirations = expirations;
+		this.invalidations = invalidations;
+		this.size = size;
+	}
+
+	/** Get the number of requests for a node or ACL that were served from the cache.
+	 * @return the number of hits.
+	 */
+	public long getHitCount() {
+		return hits;
+	}
+
+	/** Get the number of requests for a node that failed without contacting shock because
+	 * the cache recorded that the node doesn't exist. These are not included in the hit
+	 * count.
+	 * @return the number of hits for missing nodes.
+	 */
+	public long getMissingNodeHitCount() {
+		return missingHits;
+	}
+
+	/** Get the number of requests for a node or ACL that were sent to shock because the
+	 * node or ACL was not in the cache or had expired.
+	 * @return the number of misses.
+	 */
+	public long getMissCount() {
+		return misses;
+	}
+
+	/** Get the fraction of requests that were served from the cache.
+	 * @return the hit rate, or 0 if there have been no requests.
+	 */
+	public double getHitRate() {
+		final long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	/** Get the number of nodes evicted from the cache to make room for other nodes.
+	 * @return the number of evictions.
+	 */
+	public long getEvictionCount() {
+		return evictions;
+	}
+
+	/** Get the number of nodes and ACLs removed from the cache because they had expired.
+	 * @return the number of expirations.
+	 */
+	public long getExpirationCount() {
+		return expirations;
+	}
+
+	/** Get the number of nodes removed from the cache because the client changed or deleted
+	 * the node.
+	 * @return the number of invalidations.
+	 */
+	public long getInvalidationCount() {
+		return invalidations;
+	}
+
+	/** Get the number of nodes in the cache.
+	 * @return the number of nodes.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("CacheStats [hits=");
+		builder.append(hits);
+		builder.append(", missingHits=");
+		builder.append(missingHits);
+		builder.append(", misses=");
+		builder.append(misses);
+		builder.append(", evictions=");
+		builder.append(evictions);
+		builder.append(", expirations=");
+		builder.append(expirations);
+		builder.append(", invalidations=");
+		builder.append(invalidations);
+		builder.append(", size=");
+		builder.append(size);
+		builder.append("]");
+		return builder.toString();
+	}
+}
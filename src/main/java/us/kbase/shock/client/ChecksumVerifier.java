@@ -0,0 +1,162 @@
+package us.kbase.shock.client;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.codec.binary.Hex;
+
+import us.kbase.shock.client.exceptions.ShockChecksumException;
+
+/** Computes the checksums of a node's file as the file streams from shock and compares them
+ * to the checksums recorded by shock, avoiding a second pass over the file to verify it.
+ *
+ * The md5 and sha1 checksums are verified if shock reports them.
+ */
+class ChecksumVerifier {
+
+	// shock checksum type -> java digest algorithm
+	private static final Map<String, String> ALGORITHMS;
+	static {
+		final Map<String, String> algs = new LinkedHashMap<>();
+		algs.put("md5", "MD5");
+		algs.put("sha1", "SHA-1");
+		ALGORITHMS = Collections.unmodifiableMap(algs);
+	}
+
+	private final ShockNode node;
+	private final Map<String, MessageDigest> digests = new HashMap<>();
+	private boolean verified = false;
+
+	/** Create a verifier for a node's file.
+	 * @param node the node.
+	 */
+	ChecksumVerifier(final ShockNode node) {
+		this.node = node;
+		final ShockFileInformation fi = node.getFileInformation();
+		for (final Entry<String, String> alg: ALGORITHMS.entrySet()) {
+			if (fi.getChecksumTypes().contains(alg.getKey())) {
+				try {
+					digests.put(alg.getKey(), MessageDigest.getInstance(alg.getValue()));
+				} catch (NoSuchAlgorithmException e) {
+					throw new RuntimeException(alg.getValue() + " is a required algorithm", e);
+				}
+			}
+		}
+	}
+
+	private void update(final byte[] b, final int off, final int len) {
+		for (final MessageDigest md: digests.values()) {
+			md.update(b, off, len);
+		}
+	}
+
+	/** Compare the checksums of the data seen by the verifier to the checksums recorded by
+	 * shock. Only the first call has any effect.
+	 * @throws ShockChecksumException if a checksum doesn't match.
+	 */
+	void verify() throws ShockChecksumException {
+		if (verified) {
+			return;
+		}
+		verified = true;
+		for (final String type: ALGORITHMS.keySet()) {
+			if (digests.containsKey(type)) {
+				final String expected = node.getFileInformation().getChecksum(type);
+				final String actual = Hex.encodeHexString(digests.get(type).digest());
+				if (!actual.equals(expected)) {
+					throw new ShockChecksumException(String.format(
+							"The %s of the file downloaded from shock node %s, %s, does not " +
+							"match the %s recorded by shock, %s",
+							type, node.getId().getId(), actual, type, expected),
+							expected, actual);
+				}
+			}
+		}
+	}
+
+	/** Wrap a stream of the file. The checksums are verified when the stream reaches the end
+	 * of the file.
+	 * @param is the stream.
+	 * @return the wrapped stream.
+	 */
+	InputStream wrap(final InputStream is) {
+		return new FilterInputStream(is) {
+
+			@Override
+			public int read() throws IOException {
+				final byte[] b = new byte[1];
+				final int read = read(b, 0, 1);
+				return read < 0 ? -1 : b[0] & 0xFF;
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				final int read = in.read(b, off, len);
+				if (read < 0) {
+					verify();
+				} else {
+					update(b, off, read);
+				}
+				return read;
+			}
+
+			@Override
+			public long skip(final long n) throws IOException {
+				if (n <= 0) {
+					return 0;
+				}
+				// every byte must be digested
+				final byte[] b = new byte[(int) Math.min(n, 8192)];
+				final int read = read(b, 0, b.length);
+				return read < 0 ? 0 : read;
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+
+			@Override
+			public synchronized void mark(final int readlimit) {
+				// not supported
+			}
+
+			@Override
+			public synchronized void reset() throws IOException {
+				throw new IOException("mark/reset not supported");
+			}
+		};
+	}
+
+	/** Wrap a target for the file. The caller must call {@link #verify()} once all the file
+	 * has been written.
+	 * @param os the target.
+	 * @return the wrapped target.
+	 */
+	OutputStream wrap(final OutputStream os) {
+		return new FilterOutputStream(os) {
+
+			@Override
+			public void write(final int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(final byte[] b, final int off, final int len)
+					throws IOException {
+				update(b, off, len);
+				out.write(b, off, len);
+			}
+		};
+	}
+}
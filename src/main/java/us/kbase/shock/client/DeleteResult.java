@@ -0,0 +1,84 @@
+package us.kbase.shock.client;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import us.kbase.shock.client.exceptions.ShockAuthorizationException;
+import us.kbase.shock.client.exceptions.ShockNoNodeException;
+
+/** The result of deleting many shock nodes via
+ * {@link BasicShockClient#deleteNodes(java.util.Collection, BulkOptions)}. Each node is in
+ * exactly one of the deleted, not found, unauthorized, or failed groups, and each group is
+ * in the order the node IDs were provided.
+ */
+public class DeleteResult {
+
+	private final Set<ShockNodeId> deleted;
+	private final Set<ShockNodeId> notFound;
+	private final Map<ShockNodeId, ShockAuthorizationException> unauthorized;
+	private final Map<ShockNodeId, Exception> failed;
+
+	DeleteResult(
+			final Set<ShockNodeId> deleted,
+			final Set<ShockNodeId> notFound,
+			final Map<ShockNodeId, ShockAuthorizationException> unauthorized,
+			final Map<ShockNodeId, Exception> failed) {
+		this.deleted = Collections.unmodifiableSet(deleted);
+		this.notFound = Collections.unmodifiableSet(notFound);
+		this.unauthorized = Collections.unmodifiableMap(unauthorized);
+		this.failed = Collections.unmodifiableMap(failed);
+	}
+
+	/** Get the nodes that were deleted.
+	 * @return the node IDs.
+	 */
+	public Set<ShockNodeId> getDeleted() {
+		return deleted;
+	}
+
+	/** Get the nodes that didn't exist, for which shock threw a {@link ShockNoNodeException}.
+	 * For a garbage collection sweep, these nodes are usually as good as deleted.
+	 * @return the node IDs.
+	 */
+	public Set<ShockNodeId> getNotFound() {
+		return notFound;
+	}
+
+	/** Get the nodes the user is not permitted to delete.
+	 * @return a map of node ID to the exception thrown by shock.
+	 */
+	public Map<ShockNodeId, ShockAuthorizationException> getUnauthorized() {
+		return unauthorized;
+	}
+
+	/** Get the nodes that could not be deleted for any other reason, for example a shock
+	 * server error or a network failure. Deleting these nodes may succeed if retried.
+	 * @return a map of node ID to error.
+	 */
+	public Map<ShockNodeId, Exception> getFailed() {
+		return failed;
+	}
+
+	/** Check whether every node was deleted or not found.
+	 * @return true if no node is unauthorized or failed.
+	 */
+	public boolean isComplete() {
+		return unauthorized.isEmpty() && failed.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("DeleteResult [deleted=");
+		builder.append(deleted.size());
+		builder.append(", notFound=");
+		builder.append(notFound.size());
+		builder.append(", unauthorized=");
+		builder.append(unauthorized.size());
+		builder.append(", failed=");
+		builder.append(failed);
+		builder.append("]");
+		return builder.toString();
+	}
+}
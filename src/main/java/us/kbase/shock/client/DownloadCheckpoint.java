@@ -0,0 +1,137 @@
+package us.kbase.shock.client;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/** A sidecar file recording the byte ranges of a download that have been written to the
+ * target file, allowing an interrupted download to be resumed.
+ *
+ * The checkpoint is a small text file. The first line identifies the format, the second the
+ * node, file size and md5, and each following line the offset and length of a completed
+ * range. A partially written final line, for example from a crash, is ignored.
+ */
+class DownloadCheckpoint implements Closeable {
+
+	private static final String FORMAT = "shock-download-checkpoint 1";
+	/** The suffix appended to the target file name to create the checkpoint file name. */
+	static final String SUFFIX = ".checkpoint";
+
+	private final Path path;
+	private final BufferedWriter writer;
+	private final List<long[]> completed;
+
+	private DownloadCheckpoint(
+			final Path path,
+			final BufferedWriter writer,
+			final List<long[]> completed) {
+		this.path = path;
+		this.writer = writer;
+		this.completed = completed;
+	}
+
+	/** Get the path to the checkpoint file for a download target.
+	 * @param target the download target.
+	 * @return the checkpoint path.
+	 */
+	static Path getPath(final Path target) {
+		return target.resolveSibling(target.getFileName().toString() + SUFFIX);
+	}
+
+	/** Open the checkpoint for a download, loading the completed ranges if the checkpoint
+	 * exists and is for the same node and file. Otherwise a new checkpoint is started.
+	 * @param target the download target.
+	 * @param node the node being downloaded.
+	 * @return the checkpoint.
+	 * @throws IOException if the checkpoint could not be read or written.
+	 */
+	static DownloadCheckpoint open(final Path target, final ShockNode node)
+			throws IOException {
+		final Path path = getPath(target);
+		final String header = getHeader(node);
+		final List<long[]> completed = new LinkedList<>();
+		if (Files.exists(path) && Files.exists(target)) {
+			final List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+			if (lines.size() >= 2 && lines.get(0).equals(FORMAT) &&
+					lines.get(1).equals(header)) {
+				for (final String line: lines.subList(2, lines.size())) {
+					final long[] range = parse(line);
+					if (range != null) {
+						completed.add(range);
+					}
+				}
+			}
+		}
+		final BufferedWriter writer;
+		if (completed.isEmpty()) {
+			writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+			writer.write(FORMAT + "\n" + header + "\n");
+			writer.flush();
+		} else {
+			writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+					StandardOpenOption.APPEND);
+			// terminate any partially written line
+			writer.write("\n");
+			writer.flush();
+		}
+		return new DownloadCheckpoint(path, writer, completed);
+	}
+
+	private static String getHeader(final ShockNode node) {
+		final ShockFileInformation fi = node.getFileInformation();
+		final String md5 = fi.getChecksumTypes().contains("md5") ? fi.getChecksum("md5") : "-";
+		return node.getId().getId() + " " + fi.getSize() + " " + md5;
+	}
+
+	private static long[] parse(final String line) {
+		final String[] parts = line.trim().split(" ");
+		if (parts.length != 2) {
+			return null;
+		}
+		try {
+			final long[] range = new long[] {
+					Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+			return range[0] < 0 || range[1] < 1 ? null : range;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/** Get the ranges recorded as complete when the checkpoint was opened.
+	 * @return the completed ranges as {offset, length} pairs.
+	 */
+	List<long[]> getCompleted() {
+		return Collections.unmodifiableList(completed);
+	}
+
+	/** Record a completed range. The range's data must already be durably written to the
+	 * target file.
+	 * @param offset the offset of the range.
+	 * @param length the length of the range.
+	 * @throws IOException if the checkpoint could not be written.
+	 */
+	synchronized void complete(final long offset, final long length) throws IOException {
+		writer.write(offset + " " + length + "\n");
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+
+	/** Close and delete the checkpoint.
+	 * @throws IOException if the checkpoint could not be deleted.
+	 */
+	void delete() throws IOException {
+		close();
+		Files.deleteIfExists(path);
+	}
+}
@@ -0,0 +1,296 @@
+package us.kbase.shock.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import us.kbase.shock.client.exceptions.ShockChecksumException;
+
+/** A local disk cache of the files of shock nodes, keyed by the md5 of the file. See
+ * {@link BasicShockClient.Builder#withFileCache(FileCache)}.
+ *
+ * Files are downloaded to a temporary file in the cache directory, verified against the
+ * checksums recorded by shock, and then moved into place with an atomic rename, so a
+ * partially written file is never read from the cache. When the total size of the cached
+ * files exceeds the cache's budget, the least recently read files are deleted. Files read
+ * from the cache are verified against the checksums as they are read, and a corrupt file is
+ * deleted from the cache.
+ *
+ * The cache may be shared by several threads and by several processes on the same host.
+ * Adding a file and evicting files hold an exclusive lock on a lock file in the cache
+ * directory. Reads are not locked - on POSIX systems a file deleted from the cache remains
+ * readable by readers that already opened it. If several processes miss the same file at
+ * once, each downloads it, and the last download to complete replaces the others.
+ *
+ * The cache does not record which shock server the files came from, but since files are
+ * keyed by their content, the cache may be shared by clients of different servers.
+ */
+public class FileCache {
+
+	private static final String LOCK_FILE = ".lock";
+	private static final String TEMP_DIR = "tmp";
+	private static final Pattern MD5 = Pattern.compile("[0-9a-f]{32}");
+	// temp files not written for this long are from a crashed process
+	private static final long STALE_TEMP_MS = TimeUnit.DAYS.toMillis(1);
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// FileChannel locks are held by the process, so threads must also lock in process
+	private static final Map<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+	private final Path directory;
+	private final long maxBytes;
+	private final Object lock;
+
+	private FileCache(final Path directory, final long maxBytes) {
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		this.lock = LOCKS.computeIfAbsent(directory, k -> new Object());
+	}
+
+	/** Open a cache, creating the cache directory if it does not exist.
+	 * @param directory the cache directory. The directory should not be used for anything
+	 * else.
+	 * @param maxBytes the maximum total size of the cached files. Files larger than the
+	 * budget are not cached.
+	 * @return the cache.
+	 * @throws IOException if the directory could not be created.
+	 */
+	public static FileCache open(final Path directory, final long maxBytes) throws IOException {
+		if (directory == null) {
+			throw new NullPointerException("directory");
+		}
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("maxBytes must be > 0");
+		}
+		Files.createDirectories(directory.resolve(TEMP_DIR));
+		return new FileCache(directory.toRealPath(), maxBytes);
+	}
+
+	/** Get the cache directory.
+	 * @return the directory.
+	 */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/** Get the maximum total size of the cached files.
+	 * @return the maximum size in bytes.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/** Get the total size of the cached files.
+	 * @return the size in bytes.
+	 * @throws IOException if the cache directory could not be read.
+	 */
+	public long getSize() throws IOException {
+		long size = 0;
+		for (final CachedFile f: list()) {
+			size += f.size;
+		}
+		return size;
+	}
+
+	/* Whether a node's file may be cached. */
+	boolean isCacheable(final ShockNode sn) {
+		final ShockFileInformation fi = sn.getFileInformation();
+		return fi.getSize() > 0 && fi.getSize() <= maxBytes &&
+				fi.getChecksumTypes().contains("md5") &&
+				MD5.matcher(fi.getChecksum("md5")).matches();
+	}
+
+	private Path getPath(final ShockNode sn) {
+		return directory.resolve(sn.getFileInformation().getChecksum("md5"));
+	}
+
+	/* Open a node's file from the cache. Returns null if the file is not cached. The checksums
+	 * are verified when the stream reaches the end of the file, and if they don't match the
+	 * file is removed from the cache and a ShockChecksumException is thrown.
+	 */
+	InputStream get(final ShockNode sn) throws IOException {
+		final Path path = getPath(sn);
+		final InputStream is;
+		try {
+			is = Files.newInputStream(path);
+			if (Files.size(path) != sn.getFileInformation().getSize()) {
+				is.close();
+				remove(path);
+				return null;
+			}
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		try {
+			// the modification time records when the file was last used
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the file was evicted, but is still readable
+		}
+		final ChecksumVerifier verifier = new ChecksumVerifier(sn);
+		return new FilterInputStream(verifier.wrap(is)) {
+
+			@Override
+			public int read() throws IOException {
+				try {
+					return super.read();
+				} catch (ShockChecksumException e) {
+					throw corrupt(path, e);
+				}
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				try {
+					return super.read(b, off, len);
+				} catch (ShockChecksumException e) {
+					throw corrupt(path, e);
+				}
+			}
+		};
+	}
+
+	private ShockChecksumException corrupt(final Path path, final ShockChecksumException e)
+			throws IOException {
+		remove(path);
+		return new ShockChecksumException(String.format(
+				"The cached file %s is corrupt and was removed from the cache. %s",
+				path, e.getMessage()), e.getExpected(), e.getActual());
+	}
+
+	/* Add a node's file to the cache, reading the file from the stream. Throws
+	 * ShockChecksumException if the file does not match the checksums recorded by shock.
+	 */
+	void put(final ShockNode sn, final InputStream file) throws IOException {
+		final Path path = getPath(sn);
+		final Path tmp = Files.createTempFile(directory.resolve(TEMP_DIR),
+				path.getFileName().toString(), ".tmp");
+		try {
+			final ChecksumVerifier verifier = new ChecksumVerifier(sn);
+			try (final OutputStream os = verifier.wrap(Files.newOutputStream(tmp))) {
+				final byte[] buf = new byte[BUFFER_SIZE];
+				int read;
+				while ((read = file.read(buf)) > 0) {
+					os.write(buf, 0, read);
+				}
+			}
+			verifier.verify();
+			synchronized (lock) {
+				try (final FileChannel fc = FileChannel.open(directory.resolve(LOCK_FILE),
+							StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+						final FileLock fl = fc.lock()) {
+					Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE,
+							StandardCopyOption.REPLACE_EXISTING);
+					evict(path);
+				}
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private void remove(final Path path) throws IOException {
+		synchronized (lock) {
+			try (final FileChannel fc = FileChannel.open(directory.resolve(LOCK_FILE),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+					final FileLock fl = fc.lock()) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	// must hold the lock. Deletes the least recently used files until the cache fits
+	private void evict(final Path keep) throws IOException {
+		final List<CachedFile> files = list();
+		long size = 0;
+		for (final CachedFile f: files) {
+			size += f.size;
+		}
+		files.sort(Comparator.comparing(f -> f.lastUsed));
+		for (final CachedFile f: files) {
+			if (size <= maxBytes) {
+				break;
+			}
+			if (!f.path.equals(keep)) {
+				try {
+					Files.deleteIfExists(f.path);
+					size -= f.size;
+				} catch (IOException e) {
+					// may be open on a system that doesn't allow deleting open files
+				}
+			}
+		}
+		final long stale = System.currentTimeMillis() - STALE_TEMP_MS;
+		try (final DirectoryStream<Path> tmps = Files.newDirectoryStream(
+				directory.resolve(TEMP_DIR))) {
+			for (final Path tmp: tmps) {
+				try {
+					if (Files.getLastModifiedTime(tmp).toMillis() < stale) {
+						Files.deleteIfExists(tmp);
+					}
+				} catch (IOException e) {
+					// try again on the next eviction
+				}
+			}
+		}
+	}
+
+	private static class CachedFile {
+
+		private final Path path;
+		private final long size;
+		private final FileTime lastUsed;
+
+		private CachedFile(final Path path, final BasicFileAttributes attribs) {
+			this.path = path;
+			this.size = attribs.size();
+			this.lastUsed = attribs.lastModifiedTime();
+		}
+	}
+
+	private List<CachedFile> list() throws IOException {
+		final List<CachedFile> files = new ArrayList<>();
+		try (final DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+			for (final Path p: paths) {
+				if (MD5.matcher(p.getFileName().toString()).matches()) {
+					try {
+						files.add(new CachedFile(p,
+								Files.readAttributes(p, BasicFileAttributes.class)));
+					} catch (NoSuchFileException e) {
+						// evicted by another process
+					}
+				}
+			}
+		}
+		return files;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("FileCache [directory=");
+		builder.append(directory);
+		builder.append(", maxBytes=");
+		builder.append(maxBytes);
+		builder.append("]");
+		return builder.toString();
+	}
+}
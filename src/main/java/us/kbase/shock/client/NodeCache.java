@@ -0,0 +1,274 @@
+package us.kbase.shock.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import us.kbase.shock.client.exceptions.ShockNoNodeException;
+
+/** A bounded, least recently used cache of nodes and ACLs, with a time to live. A node's
+ * metadata and ACLs share an entry, so that changing or deleting the node removes both. The
+ * cache may also record that a node doesn't exist, with a separate time to live.
+ *
+ * A value fetched from shock may be stale by the time it is added to the cache if the node
+ * was changed while the value was in flight. To prevent caching stale values, a value is
+ * only added if its node has not been invalidated since the value was requested, as recorded
+ * by {@link #getStamp()}. The time of the last invalidation is kept for a bounded number of
+ * recently invalidated nodes - for older invalidations only the latest time is kept, and
+ * applies to all the other nodes, so a value may occasionally not be cached when it could
+ * have been, but a stale value is never cached.
+ *
+ * Nodes are copied when they are added and when they are retrieved, since
+ * {@link ShockNode#delete()} alters the node, and one holder deleting a node must not affect
+ * the cache or other holders.
+ */
+class NodeCache {
+
+	private static class Entry {
+
+		private ShockNode node = null;
+		private long nodeExpires;
+		private ShockACL acl = null;
+		private long aclExpires;
+		private boolean missing = false;
+		private long missingExpires;
+		// the error shock returned for the missing node
+		private int missingCode;
+		private String missingMessage;
+
+		private boolean isEmpty() {
+			return node == null && acl == null && !missing;
+		}
+	}
+
+	private final long ttlNS;
+	// 0 if missing nodes are not cached
+	private final long missingTtlNS;
+	private final LinkedHashMap<ShockNodeId, Entry> entries;
+	// node -> the stamp at which the node was last invalidated, for recent invalidations
+	private final LinkedHashMap<ShockNodeId, Long> invalidated;
+	// the latest invalidation stamp of the nodes not in the invalidated map
+	private long floor = 0;
+	private long stamp = 0;
+	private long hits = 0;
+	private long missingHits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+	private long invalidations = 0;
+
+	/** Create the cache.
+	 * @param options the size and time to live of the cache.
+	 */
+	NodeCache(final CacheOptions options) {
+		this.ttlNS = TimeUnit.MILLISECONDS.toNanos(options.getTimeToLiveMS());
+		this.missingTtlNS = TimeUnit.MILLISECONDS.toNanos(
+				options.getMissingNodeTimeToLiveMS());
+		final int maxNodes = options.getMaxNodes();
+		// access order, so the eldest entry is the least recently used
+		entries = new LinkedHashMap<ShockNodeId, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<ShockNodeId, Entry> eldest) {
+				if (size() > maxNodes) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+		invalidated = new LinkedHashMap<ShockNodeId, Long>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<ShockNodeId, Long> eldest) {
+				if (size() > maxNodes) {
+					floor = Math.max(floor, eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/** Get the stamp to pass to the put methods for a value that is about to be requested.
+	 * @return the stamp.
+	 */
+	synchronized long getStamp() {
+		return stamp;
+	}
+
+	// whether a node has not been invalidated since the stamp was taken
+	private boolean isCurrent(final ShockNodeId id, final long stamp) {
+		final Long inv = invalidated.get(id);
+		return (inv == null ? floor : inv) <= stamp;
+	}
+
+	/** Get a node.
+	 * @param id the node's ID.
+	 * @return a copy of the node, or null if the node is not in the cache or has expired.
+	 * @throws ShockNoNodeException if the cache records that the node doesn't exist.
+	 */
+	synchronized ShockNode getNode(final ShockNodeId id) throws ShockNoNodeException {
+		checkMissing(id);
+		final Entry e = entries.get(id);
+		if (e != null && e.node != null && expired(e.nodeExpires)) {
+			e.node = null;
+			expire(id, e);
+		}
+		final ShockNode node = count(e == null ? null : e.node);
+		return node == null ? null : node.copy();
+	}
+
+	/** Get a node's ACLs.
+	 * @param id the node's ID.
+	 * @return the ACLs, or null if the ACLs are not in the cache or have expired.
+	 */
+	synchronized ShockACL getACLs(final ShockNodeId id) {
+		final Entry e = entries.get(id);
+		if (e != null && e.acl != null && expired(e.aclExpires)) {
+			e.acl = null;
+			expire(id, e);
+		}
+		return count(e == null ? null : e.acl);
+	}
+
+	/** Check whether the cache records that a node doesn't exist.
+	 * @param id the node's ID.
+	 * @throws ShockNoNodeException if the cache records that the node doesn't exist.
+	 */
+	synchronized void checkMissing(final ShockNodeId id) throws ShockNoNodeException {
+		final Entry e = entries.get(id);
+		if (e != null && e.missing) {
+			if (expired(e.missingExpires)) {
+				e.missing = false;
+				expire(id, e);
+			} else {
+				missingHits++;
+				throw new ShockNoNodeException(e.missingCode, e.missingMessage);
+			}
+		}
+	}
+
+	private boolean expired(final long expires) {
+		return System.nanoTime() - expires >= 0;
+	}
+
+	private void expire(final ShockNodeId id, final Entry e) {
+		expirations++;
+		if (e.isEmpty()) {
+			entries.remove(id);
+		}
+	}
+
+	private <T> T count(final T value) {
+		if (value == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return value;
+	}
+
+	/** Add a node to the cache.
+	 * @param node the node.
+	 * @param stamp the stamp from {@link #getStamp()} taken before the node was requested.
+	 */
+	synchronized void putNode(final ShockNode node, final long stamp) {
+		if (isCurrent(node.getId(), stamp)) {
+			final Entry e = getEntry(node.getId());
+			e.node = node.copy();
+			e.nodeExpires = System.nanoTime() + ttlNS;
+			e.missing = false;
+		}
+	}
+
+	/** Add a node's ACLs to the cache.
+	 * @param id the node's ID.
+	 * @param acl the ACLs.
+	 * @param stamp the stamp from {@link #getStamp()} taken before the ACLs were requested.
+	 */
+	synchronized void putACLs(final ShockNodeId id, final ShockACL acl, final long stamp) {
+		if (isCurrent(id, stamp)) {
+			final Entry e = getEntry(id);
+			e.acl = acl;
+			e.aclExpires = System.nanoTime() + ttlNS;
+		}
+	}
+
+	/** Record that a node doesn't exist, if missing nodes are cached.
+	 * @param id the node's ID.
+	 * @param error the error shock returned for the node, which is rethrown with the same code
+	 * and message by {@link #checkMissing(ShockNodeId)}.
+	 * @param stamp the stamp from {@link #getStamp()} taken before the node was requested.
+	 */
+	synchronized void putMissing(
+			final ShockNodeId id,
+			final ShockNoNodeException error,
+			final long stamp) {
+		if (missingTtlNS > 0 && isCurrent(id, stamp)) {
+			final Entry e = getEntry(id);
+			e.node = null;
+			e.acl = null;
+			e.missing = true;
+			e.missingExpires = System.nanoTime() + missingTtlNS;
+			e.missingCode = error.getHttpCode();
+			e.missingMessage = error.getMessage();
+		}
+	}
+
+	/** Remove any record that a node doesn't exist, for example because the node was just
+	 * created.
+	 * @param id the node's ID.
+	 */
+	synchronized void removeMissing(final ShockNodeId id) {
+		final Entry e = entries.get(id);
+		if (e != null && e.missing) {
+			e.missing = false;
+			if (e.isEmpty()) {
+				entries.remove(id);
+			}
+		}
+	}
+
+	private Entry getEntry(final ShockNodeId id) {
+		Entry e = entries.get(id);
+		if (e == null) {
+			e = new Entry();
+			entries.put(id, e);
+		}
+		return e;
+	}
+
+	/** Remove a node and its ACLs from the cache.
+	 * @param id the node's ID.
+	 */
+	synchronized void invalidate(final ShockNodeId id) {
+		stamp++;
+		// reinsert so the map is in invalidation order
+		invalidated.remove(id);
+		invalidated.put(id, stamp);
+		if (entries.remove(id) != null) {
+			invalidations++;
+		}
+	}
+
+	/** Remove all the nodes from the cache. Does not count as invalidations. */
+	synchronized void clear() {
+		stamp++;
+		floor = stamp;
+		invalidated.clear();
+		entries.clear();
+	}
+
+	/** Get the cache statistics.
+	 * @return the statistics.
+	 */
+	synchronized CacheStats getStats() {
+		return new CacheStats(hits, missingHits, misses, evictions, expirations, invalidations,
+				entries.size());
+	}
+}
@@ -0,0 +1,156 @@
+package us.kbase.shock.client;
+
+/** Options for a parallel, ranged download of a shock node's file, for example via
+ * {@link BasicShockClient#getFile(ShockNode, java.nio.file.Path, ParallelOptions)}.
+ *
+ * The file is split into byte ranges which are fetched concurrently, each over its own
+ * connection. If the range size is adaptive, the size of each range is adjusted to the
+ * throughput measured on its connection so that each range takes roughly the same time to
+ * fetch, and the final ranges are split evenly across the connections so they finish together.
+ *
+ * If the download is resumable, the completed ranges are recorded in a checkpoint file next to
+ * the target file, named for the target file with a {@code .checkpoint} suffix. If the
+ * download fails, downloading the same node to the same target again only fetches the ranges
+ * that are missing. Once all the ranges are downloaded, the file's md5 is checked against the
+ * md5 recorded by shock and the checkpoint is deleted.
+ *
+ * Each concurrent range requires a connection from the client's connection pool, and so the
+ * concurrency should be no larger than the client's maximum connections per route.
+ */
+public class ParallelOptions {
+
+	/** The default number of ranges fetched concurrently. */
+	public static final int DEFAULT_CONCURRENCY = 4;
+	/** The default range size, 16MB. */
+	public static final long DEFAULT_RANGE_SIZE = 16 * 1024 * 1024;
+
+	private final int concurrency;
+	private final long rangeSize;
+	private final boolean adaptiveRangeSize;
+	private final boolean resumable;
+
+	private ParallelOptions(
+			final int concurrency,
+			final long rangeSize,
+			final boolean adaptiveRangeSize,
+			final boolean resumable) {
+		this.concurrency = concurrency;
+		this.rangeSize = rangeSize;
+		this.adaptiveRangeSize = adaptiveRangeSize;
+		this.resumable = resumable;
+	}
+
+	/** Get the number of ranges fetched concurrently.
+	 * @return the concurrency.
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/** Get the size of the ranges, or, if the range size is adaptive, the initial size of the
+	 * ranges.
+	 * @return the range size in bytes.
+	 */
+	public long getRangeSize() {
+		return rangeSize;
+	}
+
+	/** Get whether the range size adapts to the measured throughput.
+	 * @return true if the range size is adaptive.
+	 */
+	public boolean isAdaptiveRangeSize() {
+		return adaptiveRangeSize;
+	}
+
+	/** Get whether the download is resumable.
+	 * @return true if the download is resumable.
+	 */
+	public boolean isResumable() {
+		return resumable;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("ParallelOptions [concurrency=");
+		builder.append(concurrency);
+		builder.append(", rangeSize=");
+		builder.append(rangeSize);
+		builder.append(", adaptiveRangeSize=");
+		builder.append(adaptiveRangeSize);
+		builder.append(", resumable=");
+		builder.append(resumable);
+		builder.append("]");
+		return builder.toString();
+	}
+
+	/** Get a builder for a {@link ParallelOptions}.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder() {
+		return new Builder();
+	}
+
+	/** A builder for a {@link ParallelOptions}. */
+	public static class Builder {
+
+		private int concurrency = DEFAULT_CONCURRENCY;
+		private long rangeSize = DEFAULT_RANGE_SIZE;
+		private boolean adaptiveRangeSize = true;
+		private boolean resumable = false;
+
+		private Builder() {}
+
+		/** Set the number of ranges fetched concurrently. The default is
+		 * {@link ParallelOptions#DEFAULT_CONCURRENCY}.
+		 * @param concurrency the concurrency.
+		 * @return this builder.
+		 */
+		public Builder withConcurrency(final int concurrency) {
+			if (concurrency < 1) {
+				throw new IllegalArgumentException("concurrency must be > 0");
+			}
+			this.concurrency = concurrency;
+			return this;
+		}
+
+		/** Set the size of the ranges, or, if the range size is adaptive, the initial size
+		 * of the ranges. The default is {@link ParallelOptions#DEFAULT_RANGE_SIZE}.
+		 * @param rangeSize the range size in bytes.
+		 * @return this builder.
+		 */
+		public Builder withRangeSize(final long rangeSize) {
+			if (rangeSize < 1) {
+				throw new IllegalArgumentException("rangeSize must be > 0");
+			}
+			this.rangeSize = rangeSize;
+			return this;
+		}
+
+		/** Set whether the range size adapts to the measured throughput. The default is true.
+		 * @param adaptiveRangeSize true for an adaptive range size, false for a fixed size.
+		 * @return this builder.
+		 */
+		public Builder withAdaptiveRangeSize(final boolean adaptiveRangeSize) {
+			this.adaptiveRangeSize = adaptiveRangeSize;
+			return this;
+		}
+
+		/** Set whether the download is resumable. The default is false.
+		 * @param resumable true to record the download's progress in a checkpoint file so
+		 * that a failed download may be resumed.
+		 * @return this builder.
+		 */
+		public Builder withResumable(final boolean resumable) {
+			this.resumable = resumable;
+			return this;
+		}
+
+		/** Build the options.
+		 * @return the options.
+		 */
+		public ParallelOptions build() {
+			return new ParallelOptions(concurrency, rangeSize, adaptiveRangeSize, resumable);
+		}
+	}
+}
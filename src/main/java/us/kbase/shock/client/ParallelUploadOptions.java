@@ -0,0 +1,135 @@
+package us.kbase.shock.client;
+
+/** Options for a parallel, multi-part upload of a file to shock, for example via
+ * {@link BasicShockClient#addNode(java.nio.file.Path, String, String, ParallelUploadOptions)}.
+ *
+ * The file is split into parts which are uploaded concurrently, each over its own connection,
+ * and assembled into the node's file by shock. A failed part only requires that part to be
+ * resent, rather than the whole file.
+ *
+ * Each concurrent part requires a connection from the client's connection pool, and so the
+ * concurrency should be no larger than the client's maximum connections per route.
+ */
+public class ParallelUploadOptions {
+
+	/** The default number of parts uploaded concurrently. */
+	public static final int DEFAULT_CONCURRENCY = 4;
+	/** The default part size, 64MB. */
+	public static final long DEFAULT_PART_SIZE = 64 * 1024 * 1024;
+	/** The default number of times a failed part is retried. */
+	public static final int DEFAULT_PART_RETRIES = 2;
+
+	private final int concurrency;
+	private final long partSize;
+	private final int partRetries;
+
+	private ParallelUploadOptions(
+			final int concurrency,
+			final long partSize,
+			final int partRetries) {
+		this.concurrency = concurrency;
+		this.partSize = partSize;
+		this.partRetries = partRetries;
+	}
+
+	/** Get the number of parts uploaded concurrently.
+	 * @return the concurrency.
+	 */
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	/** Get the size of the parts. The last part may be smaller.
+	 * @return the part size in bytes.
+	 */
+	public long getPartSize() {
+		return partSize;
+	}
+
+	/** Get the number of times a part whose upload fails with an IO error or a shock server
+	 * error is retried.
+	 * @return the number of retries.
+	 */
+	public int getPartRetries() {
+		return partRetries;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("ParallelUploadOptions [concurrency=");
+		builder.append(concurrency);
+		builder.append(", partSize=");
+		builder.append(partSize);
+		builder.append(", partRetries=");
+		builder.append(partRetries);
+		builder.append("]");
+		return builder.toString();
+	}
+
+	/** Get a builder for a {@link ParallelUploadOptions}.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder() {
+		return new Builder();
+	}
+
+	/** A builder for a {@link ParallelUploadOptions}. */
+	public static class Builder {
+
+		private int concurrency = DEFAULT_CONCURRENCY;
+		private long partSize = DEFAULT_PART_SIZE;
+		private int partRetries = DEFAULT_PART_RETRIES;
+
+		private Builder() {}
+
+		/** Set the number of parts uploaded concurrently. The default is
+		 * {@link ParallelUploadOptions#DEFAULT_CONCURRENCY}.
+		 * @param concurrency the concurrency.
+		 * @return this builder.
+		 */
+		public Builder withConcurrency(final int concurrency) {
+			if (concurrency < 1) {
+				throw new IllegalArgumentException("concurrency must be > 0");
+			}
+			this.concurrency = concurrency;
+			return this;
+		}
+
+		/** Set the size of the parts. The default is
+		 * {@link ParallelUploadOptions#DEFAULT_PART_SIZE}.
+		 * @param partSize the part size in bytes.
+		 * @return this builder.
+		 */
+		public Builder withPartSize(final long partSize) {
+			if (partSize < 1) {
+				throw new IllegalArgumentException("partSize must be > 0");
+			}
+			this.partSize = partSize;
+			return this;
+		}
+
+		/** Set the number of times a part whose upload fails with an IO error, for example
+		 * due to a network failure, or a shock server (5XX) error is retried. Other errors
+		 * reported by shock are not retried. Each retry waits twice as long as the last,
+		 * starting at one second and up to 30 seconds. The default is
+		 * {@link ParallelUploadOptions#DEFAULT_PART_RETRIES}.
+		 * @param partRetries the number of retries.
+		 * @return this builder.
+		 */
+		public Builder withPartRetries(final int partRetries) {
+			if (partRetries < 0) {
+				throw new IllegalArgumentException("partRetries must be >= 0");
+			}
+			this.partRetries = partRetries;
+			return this;
+		}
+
+		/** Build the options.
+		 * @return the options.
+		 */
+		public ParallelUploadOptions build() {
+			return new ParallelUploadOptions(concurrency, partSize, partRetries);
+		}
+	}
+}
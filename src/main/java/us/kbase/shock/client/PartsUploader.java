@@ -0,0 +1,266 @@
+package us.kbase.shock.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import us.kbase.shock.client.exceptions.ShockHttpException;
+
+/** Uploads a file to a new shock node as concurrently sent parts, which shock assembles into
+ * the node's file. If the upload fails, the partially uploaded node is deleted.
+ *
+ * A part that fails with an IO error or a server error is resent after an exponentially
+ * increasing delay.
+ */
+class PartsUploader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long INITIAL_BACKOFF_MS = 1000;
+	private static final long MAX_BACKOFF_MS = 30 * 1000;
+
+	private final BasicShockClient client;
+	private final Path file;
+	private final String filename;
+	private final String format;
+	private final ParallelUploadOptions options;
+	private final long size;
+	private final int parts;
+	private final int workers;
+	private final AtomicInteger nextPart = new AtomicInteger(1);
+	private volatile boolean failed = false;
+
+	/** Create the uploader.
+	 * @param client the client to use to upload the parts.
+	 * @param file the file to upload.
+	 * @param size the size of the file.
+	 * @param filename the name of the file.
+	 * @param format the format of the file, or null.
+	 * @param options the upload options.
+	 */
+	PartsUploader(
+			final BasicShockClient client,
+			final Path file,
+			final long size,
+			final String filename,
+			final String format,
+			final ParallelUploadOptions options) {
+		this.client = client;
+		this.file = file;
+		this.size = size;
+		this.filename = filename;
+		this.format = format;
+		this.options = options;
+		this.parts = (int) ((size + options.getPartSize() - 1) / options.getPartSize());
+		this.workers = Math.min(options.getConcurrency(), parts);
+	}
+
+	/** Get the number of parts the file will be uploaded in.
+	 * @return the number of parts.
+	 */
+	int getParts() {
+		return parts;
+	}
+
+	/** Upload the file.
+	 * @return the new node, or null if the server doesn't support parts uploads, in which case
+	 * nothing was uploaded.
+	 * @throws IOException if an IO error occurs.
+	 * @throws ShockHttpException if shock returns an error.
+	 */
+	ShockNode upload() throws IOException, ShockHttpException {
+		final ShockNode node = client.createPartsNode(parts, format);
+		if (node == null) {
+			return null;
+		}
+		try (final FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+			upload(node.getId(), fc);
+			return client.setFileName(node.getId(), filename);
+		} catch (IOException | ShockHttpException | RuntimeException | Error e) {
+			try {
+				client.deleteNode(node.getId());
+			} catch (IOException | ShockHttpException | RuntimeException e2) {
+				e.addSuppressed(e2);
+			}
+			throw e;
+		}
+	}
+
+	private void upload(final ShockNodeId id, final FileChannel fc)
+			throws IOException, ShockHttpException {
+		if (workers == 1) {
+			uploadParts(id, fc);
+			return;
+		}
+		final AtomicInteger count = new AtomicInteger();
+		final ExecutorService exe = Executors.newFixedThreadPool(workers, r -> {
+			final Thread t = new Thread(
+					r, "BasicShockClient-part-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			final List<Future<Void>> futures = new LinkedList<>();
+			for (int i = 0; i < workers; i++) {
+				futures.add(exe.submit(() -> {
+					uploadParts(id, fc);
+					return null;
+				}));
+			}
+			waitFor(futures);
+		} finally {
+			exe.shutdownNow();
+		}
+	}
+
+	private void waitFor(final List<Future<Void>> futures)
+			throws IOException, ShockHttpException {
+		Throwable error = null;
+		for (final Future<Void> f: futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				failed = true;
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while uploading file", e);
+			} catch (ExecutionException e) {
+				if (error == null) {
+					error = e.getCause();
+				}
+			}
+		}
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		} else if (error instanceof ShockHttpException) {
+			throw (ShockHttpException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		} else if (error != null) {
+			throw new RuntimeException(error); // should be impossible
+		}
+	}
+
+	private void uploadParts(final ShockNodeId id, final FileChannel fc)
+			throws IOException, ShockHttpException {
+		int part;
+		try {
+			while (!failed && (part = nextPart.getAndIncrement()) <= parts) {
+				final long offset = (part - 1) * options.getPartSize();
+				final long length = Math.min(options.getPartSize(), size - offset);
+				final FileRegionBody body = new FileRegionBody(fc, offset, length, filename);
+				for (int attempt = 0;; attempt++) {
+					try {
+						client.uploadPart(id, part, body);
+						break;
+					} catch (IOException e) {
+						if (attempt >= options.getPartRetries() || failed) {
+							throw e;
+						}
+					} catch (ShockHttpException e) {
+						// server errors may be transient, anything else won't be fixed by a retry
+						if (e.getHttpCode() < 500 || attempt >= options.getPartRetries() ||
+								failed) {
+							throw e;
+						}
+					}
+					backoff(attempt);
+					if (failed) {
+						return; // another worker will throw its error
+					}
+				}
+			}
+		} catch (IOException | ShockHttpException | RuntimeException | Error e) {
+			failed = true; // stop the other workers after their current part
+			throw e;
+		}
+	}
+
+	// waits before resending a part, so an overloaded server isn't sent the part repeatedly
+	private void backoff(final int attempt) throws IOException {
+		final long delay = Math.min(INITIAL_BACKOFF_MS << Math.min(attempt, 30), MAX_BACKOFF_MS);
+		final long end = System.currentTimeMillis() + delay;
+		long remaining = delay;
+		// wake up periodically to stop early if another part failed
+		while (!failed && remaining > 0) {
+			try {
+				Thread.sleep(Math.min(remaining, 100));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while uploading file", e);
+			}
+			remaining = end - System.currentTimeMillis();
+		}
+	}
+	
+	/* A repeatable multipart body containing a region of a file. */
+	private static class FileRegionBody extends AbstractContentBody {
+
+		private final FileChannel fc;
+		private final long offset;
+		private final long length;
+		private final String filename;
+
+		private FileRegionBody(
+				final FileChannel fc,
+				final long offset,
+				final long length,
+				final String filename) {
+			super(ContentType.DEFAULT_BINARY);
+			this.fc = fc;
+			this.offset = offset;
+			this.length = length;
+			this.filename = filename;
+		}
+
+		@Override
+		public String getFilename() {
+			return filename;
+		}
+
+		@Override
+		public void writeTo(final OutputStream out) throws IOException {
+			final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+			long pos = offset;
+			final long end = offset + length;
+			while (pos < end) {
+				buf.clear();
+				if (end - pos < buf.capacity()) {
+					buf.limit((int) (end - pos));
+				}
+				final int read = fc.read(buf, pos);
+				if (read < 0) {
+					throw new IOException(String.format(
+							"File ended at byte %s before the end of the part at byte %s",
+							pos, end));
+				}
+				out.write(buf.array(), 0, read);
+				pos += read;
+			}
+		}
+
+		@Override
+		public String getTransferEncoding() {
+			return MIME.ENC_BINARY;
+		}
+
+		@Override
+		public long getContentLength() {
+			return length;
+		}
+	}
+}
@@ -0,0 +1,299 @@
+package us.kbase.shock.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.client.methods.CloseableHttpResponse;
+
+import us.kbase.shock.client.exceptions.ShockChecksumException;
+import us.kbase.shock.client.exceptions.ShockHttpException;
+
+/** Downloads a shock node's file as concurrently fetched byte ranges, writing each range
+ * directly to its position in the target file. If the download is resumable, completed ranges
+ * are recorded in a {@link DownloadCheckpoint} and only the missing ranges are fetched when
+ * the download is retried.
+ */
+class RangedDownloader {
+
+	// bounds for adaptive range sizes
+	static final long MIN_RANGE_SIZE = 1024 * 1024;
+	static final long MAX_RANGE_SIZE = 1024 * 1024 * 1024;
+	// adaptive ranges are sized to take about this long at the measured throughput
+	private static final long TARGET_RANGE_NS = 2_000_000_000L;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final BasicShockClient client;
+	private final ShockNode node;
+	private final Path file;
+	private final ParallelOptions options;
+	private final long size;
+	// the ranges remaining to be fetched, in order
+	private final LinkedList<Range> gaps = new LinkedList<>();
+	private long remaining = 0;
+	private int workers;
+	private DownloadCheckpoint checkpoint = null;
+	private volatile boolean failed = false;
+
+	/** Create the downloader.
+	 * @param client the client to use to fetch the ranges.
+	 * @param node the node to download. The node must have a file.
+	 * @param file the target file.
+	 * @param options the download options.
+	 */
+	RangedDownloader(
+			final BasicShockClient client,
+			final ShockNode node,
+			final Path file,
+			final ParallelOptions options) {
+		this.client = client;
+		this.node = node;
+		this.file = file;
+		this.options = options;
+		this.size = node.getFileInformation().getSize();
+	}
+
+	private static class Range {
+
+		private final long offset;
+		private final long length;
+
+		private Range(final long offset, final long length) {
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/** Download the file. If an exception is thrown, the contents of the file are undefined,
+	 * but if the download is resumable, it may be resumed by downloading again.
+	 * @throws IOException if an IO error occurs.
+	 * @throws ShockHttpException if a range could not be fetched from shock.
+	 */
+	void download() throws IOException, ShockHttpException {
+		final List<long[]> completed;
+		if (options.isResumable()) {
+			checkpoint = DownloadCheckpoint.open(file, node);
+			completed = checkpoint.getCompleted();
+		} else {
+			completed = new LinkedList<>();
+		}
+		try {
+			findGaps(completed);
+			final FileChannel fc;
+			if (completed.isEmpty()) {
+				fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING);
+			} else {
+				fc = FileChannel.open(file, StandardOpenOption.WRITE);
+			}
+			try {
+				download(fc);
+				if (checkpoint != null) {
+					fc.truncate(size);
+				}
+			} finally {
+				fc.close();
+			}
+			if (checkpoint != null) {
+				verify();
+				checkpoint.delete();
+			}
+		} finally {
+			if (checkpoint != null) {
+				checkpoint.close();
+			}
+		}
+	}
+
+	private void findGaps(final List<long[]> completed) {
+		final List<long[]> sorted = new LinkedList<>(completed);
+		sorted.sort((r1, r2) -> Long.compare(r1[0], r2[0]));
+		long pos = 0;
+		for (final long[] r: sorted) {
+			if (r[0] > pos) {
+				gaps.add(new Range(pos, Math.min(r[0], size) - pos));
+			}
+			pos = Math.max(pos, r[0] + r[1]);
+		}
+		if (pos < size) {
+			gaps.add(new Range(pos, size - pos));
+		}
+		for (final Range r: gaps) {
+			remaining += r.length;
+		}
+		final long ranges = (remaining + options.getRangeSize() - 1) / options.getRangeSize();
+		workers = (int) Math.min(options.getConcurrency(), ranges);
+	}
+
+	private void verify() throws IOException {
+		final ShockFileInformation fi = node.getFileInformation();
+		if (!fi.getChecksumTypes().contains("md5")) {
+			return;
+		}
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("MD5 is a required algorithm", e);
+		}
+		try (final InputStream is = Files.newInputStream(file)) {
+			final byte[] buf = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = is.read(buf)) > 0) {
+				digest.update(buf, 0, read);
+			}
+		}
+		final String md5 = Hex.encodeHexString(digest.digest());
+		if (!md5.equals(fi.getChecksum("md5"))) {
+			// the file is corrupt, so start from scratch next time
+			checkpoint.delete();
+			throw new ShockChecksumException(String.format(
+					"The md5 of the downloaded file %s, %s, does not match the md5 of " +
+					"shock node %s, %s", file, md5, node.getId().getId(),
+					fi.getChecksum("md5")), fi.getChecksum("md5"), md5);
+		}
+	}
+
+	private void download(final FileChannel fc) throws IOException, ShockHttpException {
+		if (workers == 0) {
+			return;
+		}
+		if (workers == 1) {
+			fetchRanges(fc);
+			return;
+		}
+		final AtomicInteger count = new AtomicInteger();
+		final ExecutorService exe = Executors.newFixedThreadPool(workers, r -> {
+			final Thread t = new Thread(
+					r, "BasicShockClient-range-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			final List<Future<Void>> futures = new LinkedList<>();
+			for (int i = 0; i < workers; i++) {
+				futures.add(exe.submit(() -> {
+					fetchRanges(fc);
+					return null;
+				}));
+			}
+			waitFor(futures);
+		} finally {
+			exe.shutdownNow();
+		}
+	}
+
+	private void waitFor(final List<Future<Void>> futures)
+			throws IOException, ShockHttpException {
+		Throwable error = null;
+		for (final Future<Void> f: futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				failed = true;
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while downloading file", e);
+			} catch (ExecutionException e) {
+				if (error == null) {
+					error = e.getCause();
+				}
+			}
+		}
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		} else if (error instanceof ShockHttpException) {
+			throw (ShockHttpException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		} else if (error != null) {
+			throw new RuntimeException(error); // should be impossible
+		}
+	}
+
+	private void fetchRanges(final FileChannel fc) throws IOException, ShockHttpException {
+		long rangeSize = options.getRangeSize();
+		final long minRangeSize = Math.min(rangeSize, MIN_RANGE_SIZE);
+		Range r;
+		try {
+			while (!failed && (r = claim(rangeSize, minRangeSize)) != null) {
+				final long start = System.nanoTime();
+				fetch(fc, r);
+				if (options.isAdaptiveRangeSize()) {
+					final long elapsed = Math.max(1, System.nanoTime() - start);
+					final double bytesPerNS = (double) r.length / elapsed;
+					rangeSize = Math.max(minRangeSize, Math.min(MAX_RANGE_SIZE,
+							(long) (bytesPerNS * TARGET_RANGE_NS)));
+				}
+			}
+		} catch (IOException | ShockHttpException | RuntimeException | Error e) {
+			failed = true; // stop the other workers after their current range
+			throw e;
+		}
+	}
+
+	private synchronized Range claim(final long rangeSize, final long minRangeSize) {
+		if (gaps.isEmpty()) {
+			return null;
+		}
+		final Range gap = gaps.removeFirst();
+		long length = Math.min(rangeSize, gap.length);
+		if (options.isAdaptiveRangeSize()) {
+			// split the end of the file evenly across the workers so they finish together
+			final long share = (remaining + workers - 1) / workers;
+			length = Math.min(length, Math.max(share, minRangeSize));
+		}
+		if (length < gap.length) {
+			gaps.addFirst(new Range(gap.offset + length, gap.length - length));
+		}
+		remaining -= length;
+		return new Range(gap.offset, length);
+	}
+
+	private void fetch(final FileChannel fc, final Range r)
+			throws IOException, ShockHttpException {
+		final long end = r.offset + r.length;
+		long pos = r.offset;
+		try (final CloseableHttpResponse resp = client.getFileRange(node, r.offset, r.length)) {
+			final InputStream is = resp.getEntity().getContent();
+			final byte[] buf = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = is.read(buf)) > 0) {
+				if (pos + read > end) {
+					throw new IOException(String.format(
+							"Shock returned more than the requested %s bytes for the range " +
+							"of the file starting at byte %s", r.length, r.offset));
+				}
+				final ByteBuffer bb = ByteBuffer.wrap(buf, 0, read);
+				while (bb.hasRemaining()) {
+					pos += fc.write(bb, pos);
+				}
+			}
+		}
+		if (pos != end) {
+			throw new IOException(String.format(
+					"Shock returned %s bytes for the range of the file starting at byte %s " +
+					"but %s bytes were requested", pos - r.offset, r.offset, r.length));
+		}
+		if (checkpoint != null) {
+			// the data must be on disk before the checkpoint says it is
+			fc.force(false);
+			checkpoint.complete(r.offset, r.length);
+		}
+	}
+}
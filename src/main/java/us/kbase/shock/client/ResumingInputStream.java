@@ -0,0 +1,241 @@
+package us.kbase.shock.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+import us.kbase.shock.client.exceptions.ShockHttpException;
+
+/** A stream of a shock node's file that detects stalled transfers and resumes them.
+ *
+ * A watchdog task periodically measures the transfer rate over the time the reader of the
+ * stream spends waiting for data from shock, so a slow reader is never mistaken for a slow
+ * transfer. If the rate falls below a floor for the stall period, the watchdog aborts the
+ * request and the stream reopens the file from the last byte received, using Shock's download
+ * seek and length parameters. The reader of the stream does not see the interruption.
+ *
+ * If a transfer stalls {@link #MAX_STALLS_WITHOUT_PROGRESS} times in a row without receiving
+ * any data the stream fails with an {@link IOException}.
+ */
+class ResumingInputStream extends InputStream {
+
+	/** The number of consecutive stalls without receiving data after which the stream fails. */
+	static final int MAX_STALLS_WITHOUT_PROGRESS = 3;
+	private static final long MAX_CHECK_PERIOD_MS = 1000;
+
+	private final BasicShockClient client;
+	private final ShockNode node;
+	private final long size;
+	private final int minBytesPerSec;
+	private final long stallNS;
+	private final ScheduledFuture<?> watchdog;
+
+	// the reader's state
+	private CloseableHttpResponse response = null;
+	private InputStream stream = null;
+	private volatile long pos = 0;
+	private long lastStallPos = -1;
+	private int stallsWithoutProgress = 0;
+	private boolean closed = false;
+
+	// shared between the reader and the watchdog, guarded by this
+	private HttpGet request = null;
+	private boolean stalled = false;
+	private long waitingNS = 0;
+	private long waitStart = -1;
+
+	// the watchdog's state
+	private long windowWaitingNS = 0;
+	private long windowPos = 0;
+
+	/** Open a stream of a node's file.
+	 * @param client the client to use to fetch the file.
+	 * @param node the node. The node must have a file.
+	 * @param minBytesPerSec the transfer rate below which the transfer is considered stalled.
+	 * @param stallTimeMS the period, in milliseconds, for which the transfer rate must be
+	 * below the floor before the transfer is resumed.
+	 * @param scheduler the scheduler on which to run the watchdog.
+	 * @throws IOException if an IO error occurs.
+	 * @throws ShockHttpException if the file could not be fetched from shock.
+	 */
+	ResumingInputStream(
+			final BasicShockClient client,
+			final ShockNode node,
+			final int minBytesPerSec,
+			final int stallTimeMS,
+			final ScheduledExecutorService scheduler)
+			throws IOException, ShockHttpException {
+		this.client = client;
+		this.node = node;
+		this.size = node.getFileInformation().getSize();
+		this.minBytesPerSec = minBytesPerSec;
+		this.stallNS = TimeUnit.MILLISECONDS.toNanos(stallTimeMS);
+		final long period = Math.max(1, Math.min(MAX_CHECK_PERIOD_MS, stallTimeMS / 4));
+		watchdog = scheduler.scheduleAtFixedRate(
+				this::check, period, period, TimeUnit.MILLISECONDS);
+		try {
+			transfer(() -> 0);
+		} catch (IOException | ShockHttpException | RuntimeException | Error e) {
+			watchdog.cancel(false);
+			throw e;
+		}
+	}
+
+	private interface Transfer {
+
+		int transfer() throws IOException;
+	}
+
+	/* Run a transfer from the current response, opening a response first if necessary, and
+	 * resuming the transfer if it stalls.
+	 */
+	private int transfer(final Transfer transfer) throws IOException, ShockHttpException {
+		startWaiting();
+		try {
+			while (true) {
+				try {
+					if (stream == null) {
+						open();
+					}
+					return transfer.transfer();
+				} catch (IOException e) {
+					if (!isStalled()) {
+						throw e;
+					}
+					resume(e);
+				}
+			}
+		} finally {
+			stopWaiting();
+		}
+	}
+
+	private void open() throws IOException, ShockHttpException {
+		final HttpGet get = pos == 0 ? client.getFileRequest(node) :
+			client.getFileRequest(node, pos, size - pos);
+		synchronized (this) {
+			request = get;
+		}
+		response = client.executeFileRequest(get);
+		stream = response.getEntity().getContent();
+	}
+
+	private void resume(final IOException cause) throws IOException {
+		closeResponse();
+		synchronized (this) {
+			stalled = false;
+			request = null;
+		}
+		if (pos == lastStallPos) {
+			stallsWithoutProgress++;
+		} else {
+			stallsWithoutProgress = 1;
+			lastStallPos = pos;
+		}
+		if (stallsWithoutProgress >= MAX_STALLS_WITHOUT_PROGRESS) {
+			throw new IOException(String.format(
+					"The download of the file for shock node %s stalled %s times at byte %s",
+					node.getId().getId(), stallsWithoutProgress, pos), cause);
+		}
+	}
+
+	private synchronized boolean isStalled() {
+		return stalled;
+	}
+
+	private synchronized void startWaiting() {
+		waitStart = System.nanoTime();
+	}
+
+	private synchronized void stopWaiting() {
+		waitingNS += System.nanoTime() - waitStart;
+		waitStart = -1;
+	}
+
+	/* Called periodically by the watchdog. */
+	private void check() {
+		final HttpGet abort;
+		synchronized (this) {
+			final long waiting = waitingNS + (waitStart < 0 ? 0 : System.nanoTime() - waitStart);
+			final long elapsed = waiting - windowWaitingNS;
+			if (stalled || elapsed < stallNS) {
+				return;
+			}
+			final long transferred = pos - windowPos;
+			windowWaitingNS = waiting;
+			windowPos = pos;
+			if (transferred > 0 && transferred * 1_000_000_000.0 / elapsed >= minBytesPerSec) {
+				return;
+			}
+			stalled = true;
+			abort = request;
+		}
+		if (abort != null) {
+			abort.abort();
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] b = new byte[1];
+		final int read = read(b, 0, 1);
+		return read < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream is closed");
+		}
+		if (len == 0) {
+			return 0;
+		}
+		try {
+			return transfer(() -> {
+				final int read = stream.read(b, off, len);
+				if (read < 0) {
+					if (pos < size) {
+						throw new IOException(String.format(
+								"Shock returned %s bytes of the %s byte file for node %s",
+								pos, size, node.getId().getId()));
+					}
+				} else {
+					pos += read;
+				}
+				return read;
+			});
+		} catch (ShockHttpException e) {
+			throw new IOException(String.format(
+					"Could not resume the download of the file for shock node %s: %s",
+					node.getId().getId(), e.getMessage()), e);
+		}
+	}
+
+	private void closeResponse() {
+		if (response != null) {
+			try {
+				response.close();
+			} catch (IOException e) {
+				// the connection is discarded anyway
+			}
+		}
+		response = null;
+		stream = null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			watchdog.cancel(false);
+			if (response != null) {
+				response.close();
+			}
+		}
+	}
+}
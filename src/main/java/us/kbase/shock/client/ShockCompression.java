@@ -0,0 +1,240 @@
+package us.kbase.shock.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/** A compression codec applied to files as they are uploaded to and downloaded from shock.
+ * See {@link BasicShockClient.Builder#withCompression(ShockCompression, int)}.
+ *
+ * The codec used to compress a file is recorded in the node's format by appending
+ * <code>;codec=</code> and the codec name, for example <code>FASTA;codec=gzip</code>, or
+ * just <code>codec=gzip</code> if no format was provided.
+ */
+public enum ShockCompression {
+
+	/** gzip compression. Levels range from 0, no compression, to 9, the best and slowest
+	 * compression. The default level is 6.
+	 */
+	GZIP("gzip", 0, 9, 6) {
+
+		@Override
+		InputStream compress(final InputStream in, final int level) {
+			return new GzipCompressingInputStream(in, level);
+		}
+
+		@Override
+		OutputStream compress(final OutputStream out, final int level) throws IOException {
+			return new GZIPOutputStream(out, BUFFER_SIZE) {
+				{
+					def.setLevel(level);
+				}
+			};
+		}
+
+		@Override
+		InputStream decompressStream(final InputStream in) throws IOException {
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		}
+	};
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final String CODEC = "codec=";
+
+	private final String name;
+	private final int minLevel;
+	private final int maxLevel;
+	private final int defaultLevel;
+
+	private ShockCompression(
+			final String name,
+			final int minLevel,
+			final int maxLevel,
+			final int defaultLevel) {
+		this.name = name;
+		this.minLevel = minLevel;
+		this.maxLevel = maxLevel;
+		this.defaultLevel = defaultLevel;
+	}
+
+	/** Get the name of the codec, as recorded in the format of a node.
+	 * @return the name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/** Get the minimum compression level.
+	 * @return the minimum level.
+	 */
+	public int getMinLevel() {
+		return minLevel;
+	}
+
+	/** Get the maximum compression level.
+	 * @return the maximum level.
+	 */
+	public int getMaxLevel() {
+		return maxLevel;
+	}
+
+	/** Get the default compression level.
+	 * @return the default level.
+	 */
+	public int getDefaultLevel() {
+		return defaultLevel;
+	}
+
+	/* Compress a stream. The returned stream reads the compressed data. */
+	abstract InputStream compress(InputStream in, int level) throws IOException;
+
+	/* Compress a stream. Data written to the returned stream is compressed and written to out.
+	 * Closing the returned stream closes out.
+	 */
+	abstract OutputStream compress(OutputStream out, int level) throws IOException;
+
+	/* Decompress a stream. */
+	abstract InputStream decompressStream(InputStream in) throws IOException;
+
+	/* Decompress a stream. At the end of the decompressed data the rest of the source stream
+	 * is read, so that wrappers of the source, such as checksum verifiers, see its end.
+	 */
+	InputStream decompress(final InputStream source) throws IOException {
+		return new FilterInputStream(decompressStream(source)) {
+
+			@Override
+			public int read() throws IOException {
+				return drainAtEnd(super.read());
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) throws IOException {
+				return drainAtEnd(super.read(b, off, len));
+			}
+
+			private int drainAtEnd(final int read) throws IOException {
+				if (read < 0) {
+					final byte[] buf = new byte[BUFFER_SIZE];
+					while (source.read(buf) >= 0) {
+						// discard
+					}
+				}
+				return read;
+			}
+		};
+	}
+
+	/* Get the format recorded for a file compressed with this codec. */
+	String getFormat(final String format) {
+		if (format == null || format.trim().isEmpty()) {
+			return CODEC + name;
+		}
+		return format + ";" + CODEC + name;
+	}
+
+	/** Get the codec recorded in a node's format.
+	 * @param format the format.
+	 * @return the codec, or null if the format records no codec.
+	 */
+	public static ShockCompression fromFormat(final String format) {
+		if (format == null) {
+			return null;
+		}
+		final String param = format.substring(format.lastIndexOf(';') + 1);
+		if (!param.startsWith(CODEC)) {
+			return null;
+		}
+		for (final ShockCompression c: values()) {
+			if (param.equals(CODEC + c.name)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/* Reads a stream as gzip. The JDK only provides gzip compression for output streams, so
+	 * the raw deflate stream is wrapped in the gzip header and trailer here.
+	 */
+	private static class GzipCompressingInputStream extends InputStream {
+
+		// magic, deflate, no flags, no mtime, no extra flags, unknown OS
+		private static final byte[] HEADER = {
+				0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+		private final CRC32 crc = new CRC32();
+		private final Deflater deflater;
+		private final InputStream body;
+		private byte[] header = HEADER;
+		private byte[] trailer = null;
+		private int pos = 0; // position in the header or trailer
+
+		private GzipCompressingInputStream(final InputStream in, final int level) {
+			deflater = new Deflater(level, true);
+			body = new DeflaterInputStream(
+					new CheckedInputStream(in, crc), deflater, BUFFER_SIZE);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (header != null) {
+				final int n = Math.min(len, header.length - pos);
+				System.arraycopy(header, pos, b, off, n);
+				pos += n;
+				if (pos == header.length) {
+					header = null;
+					pos = 0;
+				}
+				return n;
+			}
+			if (trailer == null) {
+				final int read = body.read(b, off, len);
+				if (read >= 0) {
+					return read;
+				}
+				trailer = new byte[8];
+				writeInt(trailer, 0, crc.getValue());
+				writeInt(trailer, 4, deflater.getBytesRead());
+			}
+			if (pos == trailer.length) {
+				return -1;
+			}
+			final int n = Math.min(len, trailer.length - pos);
+			System.arraycopy(trailer, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		// little endian, modulo 2^32
+		private static void writeInt(final byte[] b, final int off, final long value) {
+			for (int i = 0; i < 4; i++) {
+				b[off + i] = (byte) (value >>> (8 * i));
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				body.close();
+			} finally {
+				// the deflater input stream only ends deflaters it creates
+				deflater.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package us.kbase.shock.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+
+import us.kbase.shock.client.exceptions.ShockHttpException;
+
+/** A read only channel over a shock node's file that fetches the file in blocks on demand.
+ *
+ * Blocks are fetched with Shock's download seek and length parameters and kept in a least
+ * recently used cache. When reads proceed sequentially, each fetch reads further ahead,
+ * doubling the number of blocks fetched up to {@link #MAX_READ_AHEAD_BLOCKS}, so sequential
+ * reads need few requests while random reads, for example of an index or footer, fetch only
+ * the blocks they touch.
+ */
+class ShockFileChannel implements SeekableByteChannel {
+
+	/** The size of the blocks fetched from shock and cached. */
+	static final int BLOCK_SIZE = 256 * 1024;
+	/** The maximum number of blocks held in the cache. */
+	static final int CACHE_BLOCKS = 32;
+	/** The maximum number of blocks fetched in one request when reading sequentially. */
+	static final int MAX_READ_AHEAD_BLOCKS = 16;
+
+	private final BasicShockClient client;
+	private final ShockNode node;
+	private final long size;
+	private final Map<Long, byte[]> cache = new LinkedHashMap<Long, byte[]>(
+			CACHE_BLOCKS, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+			return size() > CACHE_BLOCKS;
+		}
+	};
+	private long position = 0;
+	private boolean open = true;
+	// the block after the last block fetched, and the number of blocks fetched with it
+	private long nextBlock = -1;
+	private int readAhead = 1;
+
+	/** Create the channel.
+	 * @param client the client to use to fetch the file.
+	 * @param node the node. The node must have a file.
+	 */
+	ShockFileChannel(final BasicShockClient client, final ShockNode node) {
+		this.client = client;
+		this.node = node;
+		this.size = node.getFileInformation().getSize();
+	}
+
+	@Override
+	public synchronized boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public synchronized void close() {
+		open = false;
+		cache.clear();
+	}
+
+	private void checkOpen() throws ClosedChannelException {
+		if (!open) {
+			throw new ClosedChannelException();
+		}
+	}
+
+	@Override
+	public synchronized int read(final ByteBuffer dst) throws IOException {
+		checkOpen();
+		if (position >= size) {
+			return -1;
+		}
+		int total = 0;
+		while (dst.hasRemaining() && position < size) {
+			final long block = position / BLOCK_SIZE;
+			final byte[] data = getBlock(block);
+			final int offset = (int) (position - block * BLOCK_SIZE);
+			final int length = Math.min(dst.remaining(), data.length - offset);
+			dst.put(data, offset, length);
+			position += length;
+			total += length;
+		}
+		return total;
+	}
+
+	private byte[] getBlock(final long block) throws IOException {
+		final byte[] data = cache.get(block);
+		if (data != null) {
+			return data;
+		}
+		if (block == nextBlock) {
+			readAhead = Math.min(MAX_READ_AHEAD_BLOCKS, readAhead * 2);
+		} else {
+			readAhead = 1;
+		}
+		final long lastBlock = (size - 1) / BLOCK_SIZE;
+		final int blocks = (int) Math.min(readAhead, lastBlock - block + 1);
+		final long offset = block * BLOCK_SIZE;
+		final long length = Math.min((long) blocks * BLOCK_SIZE, size - offset);
+		final byte[] fetched = fetch(offset, (int) length);
+		for (int i = 0; i < blocks; i++) {
+			final int start = i * BLOCK_SIZE;
+			final byte[] b = new byte[Math.min(BLOCK_SIZE, fetched.length - start)];
+			System.arraycopy(fetched, start, b, 0, b.length);
+			cache.put(block + i, b);
+		}
+		nextBlock = block + blocks;
+		return cache.get(block);
+	}
+
+	private byte[] fetch(final long offset, final int length) throws IOException {
+		final byte[] data = new byte[length];
+		int pos = 0;
+		try (final CloseableHttpResponse resp = client.getFileRange(node, offset, length)) {
+			final InputStream is = resp.getEntity().getContent();
+			int read;
+			while (pos < length && (read = is.read(data, pos, length - pos)) > 0) {
+				pos += read;
+			}
+			if (pos == length && is.read() >= 0) {
+				throw new IOException(String.format(
+						"Shock returned more than the requested %s bytes for the range " +
+						"of the file starting at byte %s", length, offset));
+			}
+		} catch (ShockHttpException e) {
+			throw new IOException(String.format(
+					"Could not read the file for shock node %s: %s",
+					node.getId().getId(), e.getMessage()), e);
+		}
+		if (pos != length) {
+			throw new IOException(String.format(
+					"Shock returned %s bytes for the range of the file starting at byte %s " +
+					"but %s bytes were requested", pos, offset, length));
+		}
+		return data;
+	}
+
+	@Override
+	public int write(final ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(final long newPosition)
+			throws IOException {
+		if (newPosition < 0) {
+			throw new IllegalArgumentException("newPosition must be >= 0");
+		}
+		checkOpen();
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public synchronized long size() throws IOException {
+		checkOpen();
+		return size;
+	}
+
+	@Override
+	public SeekableByteChannel truncate(final long size) {
+		throw new NonWritableChannelException();
+	}
+}
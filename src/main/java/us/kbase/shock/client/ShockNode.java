@@ -42,6 +42,11 @@ public class ShockNode extends ShockData {
 	private BasicShockClient client;
 	@JsonIgnore
 	private boolean deleted = false;
+	@JsonIgnore
+	private String uploadMD5 = null;
+	// set by servers that assemble a node's file from uploaded parts
+	@JsonProperty("parts")
+	private Object parts = null;
 	
 	private ShockNode(){}
 	
@@ -51,6 +56,28 @@ public class ShockNode extends ShockData {
 		this.client = client;
 	}
 	
+	void setUploadMD5(final String md5) {
+		this.uploadMD5 = md5;
+	}
+	
+	// a copy of the node, so that deleting the copy doesn't affect this node
+	ShockNode copy() {
+		final ShockNode sn = new ShockNode();
+		sn.file = file;
+		sn.id = id;
+		sn.format = format;
+		sn.client = client;
+		sn.deleted = deleted;
+		sn.uploadMD5 = uploadMD5;
+		sn.parts = parts;
+		return sn;
+	}
+	
+	// whether the server reported the node's parts, and so supports parts uploads
+	boolean hasParts() {
+		return parts != null;
+	}
+	
 	private void checkDeleted() {
 		if (deleted) {
 			throw new ShockNodeDeletedException();
@@ -186,6 +213,30 @@ public class ShockNode extends ShockData {
 		return format;
 	}
 	
+	/**
+	 * Get the codec with which the node's file was compressed by a client with compression
+	 * enabled, as recorded in the node's format.
+	 * @return the codec, or <code>null</code> if the file was not compressed.
+	 * @see BasicShockClient.Builder#withCompression(ShockCompression, int)
+	 */
+	@JsonIgnore
+	public ShockCompression getCompression() {
+		return ShockCompression.fromFormat(getFormat());
+	}
+	
+	/**
+	 * Get the md5 of the node's file as computed by the client while uploading the file.
+	 * The md5 is only available for nodes returned by the client's upload methods when
+	 * checksum verification is enabled, and is the same as the md5 recorded by shock.
+	 * @return the md5, or <code>null</code> if the client did not compute the md5.
+	 * @see BasicShockClient.Builder#withChecksumVerification(boolean)
+	 */
+	@JsonIgnore
+	public String getUploadMD5() {
+		checkDeleted();
+		return uploadMD5;
+	}
+	
 	/**
 	 * Get the id of this node.
 	 * @return this node's id.
@@ -0,0 +1,357 @@
+package us.kbase.shock.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import us.kbase.shock.client.exceptions.ShockHttpException;
+
+/** A stream that creates a shock node containing the data written to the stream. Created via
+ * {@link BasicShockClient#createNodeWriter(String, String, long)}.
+ *
+ * The data is passed to a request running on a separate thread through a bounded buffer, so
+ * writes block if the data is written faster than it can be sent to shock. Errors from the
+ * request, for example if shock rejects the upload, are thrown from the next write. The
+ * request has its own thread, rather than using the client's executor, so it always starts
+ * and can't be starved by other work. If no data is written for 10 minutes, the request fails
+ * and the thread exits, so a writer that is never closed or aborted does not leak the thread.
+ *
+ * If the client compresses uploads, the data is compressed as it is written, and the
+ * expected length and the number of bytes written refer to the uncompressed data.
+ *
+ * Like most streams, this class is not thread safe.
+ */
+public class ShockNodeWriter extends OutputStream {
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int MAX_CHUNKS = 16; // at most 1MB is buffered
+	private static final long POLL_MS = 100;
+	private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+	private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	// end of file and abort markers
+	private static final byte[] EOF = new byte[0];
+	private static final byte[] ABORT = new byte[0];
+
+	private final long expectedLength;
+	private final BlockingQueue<byte[]> pipe = new ArrayBlockingQueue<>(MAX_CHUNKS);
+	private final FutureTask<ShockNode> upload;
+	// null if the data is not compressed
+	private final OutputStream compressor;
+	private byte[] buffer = new byte[CHUNK_SIZE];
+	private int count = 0;
+	private long written = 0;
+	private boolean closed = false;
+	private ShockNode node = null;
+
+	ShockNodeWriter(
+			final BasicShockClient client,
+			final String filename,
+			final String format,
+			final long expectedLength,
+			final ShockCompression compression,
+			final int compressionLevel) {
+		this.expectedLength = expectedLength < 0 ? -1 : expectedLength;
+		// the compressed length is unknown
+		final PipeBody body = new PipeBody(filename,
+				compression == null ? this.expectedLength : -1);
+		final String fmt = compression == null ? format : compression.getFormat(format);
+		upload = new FutureTask<>(() -> client.uploadNode(body, body.length, fmt));
+		try {
+			compressor = compression == null ? null : compression.compress(new OutputStream() {
+
+				@Override
+				public void write(final int b) throws IOException {
+					write(new byte[] {(byte) b}, 0, 1);
+				}
+
+				@Override
+				public void write(final byte[] b, final int off, final int len)
+						throws IOException {
+					append(b, off, len);
+				}
+			}, compressionLevel);
+		} catch (IOException e) {
+			// the compressor writes the header to the buffer, which can't fail
+			throw new RuntimeException("Unable to create compressor", e);
+		}
+		final Thread t = new Thread(
+				upload, "BasicShockClient-writer-" + THREAD_COUNT.incrementAndGet());
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/** Get the length of the file expected by the writer.
+	 * @return the expected length in bytes, or -1 if the length is unknown.
+	 */
+	public long getExpectedLength() {
+		return expectedLength;
+	}
+
+	/** Get the number of bytes written to the stream so far.
+	 * @return the number of bytes written.
+	 */
+	public long getBytesWritten() {
+		return written;
+	}
+
+	/** Get the new node.
+	 * @return the node, or null if the stream has not been successfully closed.
+	 */
+	public ShockNode getNode() {
+		return node;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		checkOpen();
+		if (off < 0 || len < 0 || len > b.length - off) {
+			throw new IndexOutOfBoundsException();
+		}
+		if (expectedLength >= 0 && written + len > expectedLength) {
+			abort();
+			throw new IOException(String.format(
+					"Attempted to write more than the expected %s bytes", expectedLength));
+		}
+		if (compressor == null) {
+			append(b, off, len);
+		} else {
+			compressor.write(b, off, len);
+		}
+		written += len;
+	}
+	
+	private void append(final byte[] b, final int off, final int len) throws IOException {
+		int pos = off;
+		final int end = off + len;
+		while (pos < end) {
+			final int n = Math.min(end - pos, buffer.length - count);
+			System.arraycopy(b, pos, buffer, count, n);
+			count += n;
+			pos += n;
+			if (count == buffer.length) {
+				sendBuffer();
+			}
+		}
+	}
+
+	/** Sends any buffered data to shock. Flushing frequently reduces the efficiency of the
+	 * upload.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		sendBuffer();
+	}
+
+	/** Closes the stream and waits for shock to create the node. If shock returns an error,
+	 * it is wrapped in an IOException. Use {@link #finish()} to receive the shock error
+	 * directly.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			finish();
+		} catch (ShockHttpException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/** Closes the stream, waits for shock to create the node, and returns the node. Calling
+	 * this method on a successfully closed stream returns the node again.
+	 * @return the new node.
+	 * @throws IOException if an IO error occurs, if the stream was aborted, if the upload
+	 * previously failed, or if the number of bytes written does not match the expected length.
+	 * @throws ShockHttpException if shock returns an error.
+	 */
+	public ShockNode finish() throws IOException, ShockHttpException {
+		if (closed) {
+			if (node == null) {
+				throw new IOException("The upload was aborted or failed");
+			}
+			return node;
+		}
+		if (expectedLength >= 0 && written != expectedLength) {
+			abort();
+			throw new IOException(String.format("Expected %s bytes but %s were written",
+					expectedLength, written));
+		}
+		if (compressor != null) {
+			compressor.close(); // writes the end of the compressed data to the buffer
+		}
+		sendBuffer();
+		send(EOF);
+		closed = true;
+		node = getResult();
+		return node;
+	}
+
+	/** Abandons the upload. Shock does not create the node. Calling this method on a closed
+	 * stream has no effect.
+	 */
+	public void abort() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		buffer = null;
+		// only this thread adds to the pipe, so there's now room for the marker
+		pipe.clear();
+		pipe.offer(ABORT);
+		// if the upload thread hasn't started the request, it never needs to. If it has,
+		// cancelling has no effect on the request, which reads the abort marker
+		upload.cancel(false);
+		try {
+			upload.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | CancellationException e) {
+			// expected
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void sendBuffer() throws IOException {
+		if (count > 0) {
+			send(count == buffer.length ? buffer : Arrays.copyOf(buffer, count));
+			buffer = new byte[CHUNK_SIZE];
+			count = 0;
+		}
+	}
+
+	private void send(final byte[] chunk) throws IOException {
+		// the upload can't complete before the end of the file is sent unless it fails
+		if (upload.isDone()) {
+			failed();
+		}
+		try {
+			while (!pipe.offer(chunk, POLL_MS, TimeUnit.MILLISECONDS)) {
+				if (upload.isDone()) {
+					failed();
+				}
+			}
+		} catch (InterruptedException e) {
+			abort();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing to shock", e);
+		}
+	}
+
+	private void failed() throws IOException {
+		closed = true;
+		buffer = null;
+		try {
+			getResult();
+		} catch (ShockHttpException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		throw new IOException("Shock created the node before the file was complete");
+	}
+
+	private ShockNode getResult() throws IOException, ShockHttpException {
+		try {
+			return upload.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for shock", e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof ShockHttpException) {
+				throw (ShockHttpException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause); // should be impossible
+		}
+	}
+
+	/* The file part of the upload form, read from the pipe. The request thread writes the
+	 * body to the connection.
+	 */
+	private class PipeBody extends AbstractContentBody {
+
+		private final String filename;
+		private final long length;
+		private boolean started = false;
+
+		private PipeBody(final String filename, final long length) {
+			super(ContentType.DEFAULT_BINARY);
+			this.filename = filename;
+			this.length = length;
+		}
+
+		@Override
+		public String getFilename() {
+			return filename;
+		}
+
+		@Override
+		public void writeTo(final OutputStream out) throws IOException {
+			// the http client may retry a failed request with a known length, but the data
+			// is gone
+			if (started) {
+				throw new IOException("The upload cannot be retried");
+			}
+			started = true;
+			while (true) {
+				final byte[] chunk;
+				try {
+					chunk = pipe.poll(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					throw new IOException("Interrupted while waiting for data", e);
+				}
+				if (chunk == null) {
+					throw new IOException(String.format(
+							"No data was written to the stream for %s minutes",
+							TimeUnit.MILLISECONDS.toMinutes(IDLE_TIMEOUT_MS)));
+				}
+				if (chunk == EOF) {
+					return;
+				}
+				if (chunk == ABORT) {
+					// causes the client to drop the connection before the body is complete
+					throw new IOException("The upload was aborted");
+				}
+				out.write(chunk);
+			}
+		}
+
+		@Override
+		public String getTransferEncoding() {
+			return MIME.ENC_BINARY;
+		}
+
+		@Override
+		public long getContentLength() {
+			return length;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package us.kbase.shock.client;
+
+/** The transport used by the asynchronous methods of a {@link BasicShockClient}, for example
+ * {@link BasicShockClient#getNodeAsync(ShockNodeId)}. The synchronous methods always use the
+ * blocking transport.
+ */
+public enum ShockTransport {
+	
+	/** Asynchronous methods run the synchronous methods on the client's executor. Each in
+	 * flight request occupies an executor thread.
+	 */
+	BLOCKING,
+	
+	/** Asynchronous methods use a non-blocking transport where a small number of I/O
+	 * threads multiplex all the in flight requests. The client's executor is not used.
+	 */
+	NIO,
+	
+	/** As {@link #NIO}, but requests are multiplexed as concurrent streams over HTTP/2
+	 * connections, usually one per server, rather than each in flight request requiring its
+	 * own HTTP/1.1 connection. This avoids most connection setup costs and is best suited to
+	 * large numbers of small requests, such as node and ACL requests.
+	 * 
+	 * The server, or a proxy in front of it, must support HTTP/2. For https URLs HTTP/2 is
+	 * negotiated via ALPN, which requires Java 8u252 or later. For http URLs the client
+	 * assumes the server supports HTTP/2 without negotiation (h2c with prior knowledge).
+	 */
+	HTTP2;
+}
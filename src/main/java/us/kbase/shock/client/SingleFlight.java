@@ -0,0 +1,123 @@
+package us.kbase.shock.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/** Coalesces concurrent identical requests, so that only one request is in flight for a key
+ * and every caller that asks for the key while the request is in flight shares its result.
+ * Callers that ask for the key after the request completes start a new request.
+ * @param <K> the type of the keys.
+ * @param <V> the type of the results.
+ */
+class SingleFlight<K, V> {
+
+	/** A request in flight, shared by the callers that joined it. */
+	static class Flight<V> {
+
+		private final CompletableFuture<V> result = new CompletableFuture<>();
+		private final AtomicBoolean led = new AtomicBoolean();
+		private int participants = 0;
+
+		private Flight() {}
+
+		/** Claim the flight. Exactly one participant claims the flight, and must then make
+		 * the request and pass the outcome to {@link SingleFlight#complete}.
+		 * @return true if the caller claimed the flight.
+		 */
+		boolean lead() {
+			return led.compareAndSet(false, true);
+		}
+
+		/** Get the result of the request.
+		 * @return a future that completes with the result.
+		 */
+		CompletableFuture<V> getResult() {
+			return result;
+		}
+
+		/** Release a participant's interest in the result, for example once a shared temporary
+		 * file has been read.
+		 * @return true if the caller was the last participant. Since participants release the
+		 * flight after the request completes, the last participant may clean up the result.
+		 */
+		synchronized boolean release() {
+			return --participants == 0;
+		}
+
+		private synchronized void join() {
+			participants++;
+		}
+	}
+
+	private final Map<K, Flight<V>> flights = new HashMap<>();
+
+	/** Join the flight for a key, starting a new flight if there is no flight in progress.
+	 * The caller should call {@link Flight#lead()} to determine whether to make the request.
+	 * @param key the key.
+	 * @return the flight.
+	 */
+	synchronized Flight<V> join(final K key) {
+		final Flight<V> f = flights.computeIfAbsent(key, k -> new Flight<>());
+		f.join();
+		return f;
+	}
+
+	/** Remove a flight that no other caller has joined, so that callers that ask for the key
+	 * later start a new request rather than joining the flight. The flight must still be
+	 * completed.
+	 * @param key the key.
+	 * @param flight the flight.
+	 * @return true if the flight was removed, or false if other callers have joined it.
+	 */
+	synchronized boolean removeIfAlone(final K key, final Flight<V> flight) {
+		synchronized (flight) {
+			if (flight.participants > 1) {
+				return false;
+			}
+		}
+		flights.remove(key, flight);
+		return true;
+	}
+
+	/** Complete a flight. The flight is removed before the result is published, so that later
+	 * callers start a new request rather than receiving the result.
+	 * @param key the key.
+	 * @param flight the flight.
+	 * @param result the result, or null if the request failed.
+	 * @param error the error, or null if the request succeeded.
+	 */
+	void complete(final K key, final Flight<V> flight, final V result, final Throwable error) {
+		synchronized (this) {
+			flights.remove(key, flight);
+		}
+		if (error == null) {
+			flight.result.complete(result);
+		} else {
+			flight.result.completeExceptionally(error);
+		}
+	}
+
+	/** Start an asynchronous request for a key, or join the request in flight.
+	 * @param key the key.
+	 * @param request starts the request if there is no request in flight.
+	 * @return a future that completes with the result of the request.
+	 */
+	CompletableFuture<V> run(final K key, final Supplier<CompletableFuture<V>> request) {
+		final Flight<V> f = join(key);
+		if (f.lead()) {
+			CompletableFuture<V> fut;
+			try {
+				fut = request.get();
+			} catch (RuntimeException e) {
+				fut = new CompletableFuture<>();
+				fut.completeExceptionally(e);
+			}
+			fut.whenComplete((r, e) -> complete(key, f, r, e));
+		}
+		// don't let callers complete the shared future
+		return f.result.thenApply(r -> r);
+	}
+}
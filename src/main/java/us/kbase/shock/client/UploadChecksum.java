@@ -0,0 +1,139 @@
+package us.kbase.shock.client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.apache.http.entity.mime.content.ContentBody;
+
+/** Computes the md5 of a file as it is uploaded to shock, avoiding a separate pass over the
+ * file to checksum it.
+ */
+class UploadChecksum {
+
+	private final MessageDigest digest;
+	private String md5 = null;
+
+	/** Create the checksum. */
+	UploadChecksum() {
+		digest = newDigest();
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("MD5 is a required algorithm", e);
+		}
+	}
+
+	/** Compute the md5 of a file before it is uploaded, for example to look up the file in an
+	 * {@link UploadIndex}.
+	 * @param file the file. The caller is responsible for closing the stream.
+	 * @return the md5 as a hex string.
+	 * @throws IOException if the file could not be read.
+	 */
+	static String getMD5(final InputStream file) throws IOException {
+		final MessageDigest md = newDigest();
+		final byte[] buf = new byte[64 * 1024];
+		int read;
+		while ((read = file.read(buf)) > 0) {
+			md.update(buf, 0, read);
+		}
+		return Hex.encodeHexString(md.digest());
+	}
+
+	/** Get the md5 of the data seen by the checksum. Must be called after the upload is
+	 * complete.
+	 * @return the md5 as a hex string.
+	 */
+	String getMD5() {
+		if (md5 == null) {
+			md5 = Hex.encodeHexString(digest.digest());
+		}
+		return md5;
+	}
+
+	/** Wrap the file part of an upload form. If the body is written more than once, for
+	 * example because the request is retried, the checksum restarts.
+	 * @param body the file part.
+	 * @return the wrapped file part.
+	 */
+	ContentBody wrap(final AbstractContentBody body) {
+		return new AbstractContentBody(body.getContentType()) {
+
+			@Override
+			public String getFilename() {
+				return body.getFilename();
+			}
+
+			@Override
+			public void writeTo(final OutputStream out) throws IOException {
+				digest.reset();
+				body.writeTo(new FilterOutputStream(out) {
+
+					@Override
+					public void write(final int b) throws IOException {
+						write(new byte[] {(byte) b}, 0, 1);
+					}
+
+					@Override
+					public void write(final byte[] b, final int off, final int len)
+							throws IOException {
+						digest.update(b, off, len);
+						out.write(b, off, len);
+					}
+				});
+			}
+
+			@Override
+			public String getTransferEncoding() {
+				return body.getTransferEncoding();
+			}
+
+			@Override
+			public long getContentLength() {
+				return body.getContentLength();
+			}
+		};
+	}
+
+	/** Wrap the source of a file upload.
+	 * @param source the source.
+	 * @return the wrapped source.
+	 */
+	ReadableByteChannel wrap(final ReadableByteChannel source) {
+		return new ReadableByteChannel() {
+
+			@Override
+			public boolean isOpen() {
+				return source.isOpen();
+			}
+
+			@Override
+			public void close() throws IOException {
+				source.close();
+			}
+
+			@Override
+			public int read(final ByteBuffer dst) throws IOException {
+				final int start = dst.position();
+				final int read = source.read(dst);
+				if (read > 0) {
+					final ByteBuffer data = dst.duplicate();
+					data.position(start);
+					data.limit(start + read);
+					digest.update(data);
+				}
+				return read;
+			}
+		};
+	}
+}
@@ -0,0 +1,173 @@
+package us.kbase.shock.client;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/** A persistent local index from the md5 and size of uploaded files to the shock nodes
+ * containing them, allowing
+ * {@link BasicShockClient#addOrReuseNode(Path, String, String, UploadIndex)} to reuse an
+ * existing node rather than uploading the same file again.
+ *
+ * The index is a text file. The first line identifies the format and each following line
+ * records the md5, size and node ID of an upload, or removes an entry if the node ID is
+ * {@code -}. Later lines replace earlier lines for the same md5 and size. A partially written
+ * final line, for example from a crash, is ignored. The file is compacted when the index is
+ * opened.
+ *
+ * The index is thread safe, but should not be opened by more than one process at a time.
+ * The index does not record which shock server the nodes are stored in, and so should only
+ * be used with one server.
+ */
+public class UploadIndex implements Closeable {
+
+	private static final String FORMAT = "shock-upload-index 1";
+	private static final String REMOVED = "-";
+
+	private final Path path;
+	private final Map<String, ShockNodeId> nodes;
+	private final BufferedWriter writer;
+
+	private UploadIndex(
+			final Path path,
+			final Map<String, ShockNodeId> nodes,
+			final BufferedWriter writer) {
+		this.path = path;
+		this.nodes = nodes;
+		this.writer = writer;
+	}
+
+	/** Open an index, creating the index file if it does not exist.
+	 * @param path the path to the index file.
+	 * @return the index.
+	 * @throws IOException if the index could not be read or written, or the file is not an
+	 * upload index.
+	 */
+	public static UploadIndex open(final Path path) throws IOException {
+		if (path == null) {
+			throw new NullPointerException("path");
+		}
+		final Map<String, ShockNodeId> nodes = new HashMap<>();
+		if (Files.exists(path)) {
+			final List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+			if (lines.isEmpty() || !lines.get(0).equals(FORMAT)) {
+				throw new IOException(path + " is not a shock upload index");
+			}
+			for (final String line: lines.subList(1, lines.size())) {
+				parse(line, nodes);
+			}
+		}
+		// write the compacted index next to the old one and then replace it
+		final Path tmp = path.resolveSibling(path.getFileName().toString() + ".tmp");
+		try (final BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			w.write(FORMAT + "\n");
+			for (final Entry<String, ShockNodeId> e: nodes.entrySet()) {
+				w.write(e.getKey() + " " + e.getValue().getId() + "\n");
+			}
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		return new UploadIndex(path, nodes, Files.newBufferedWriter(
+				path, StandardCharsets.UTF_8, StandardOpenOption.APPEND));
+	}
+
+	private static void parse(final String line, final Map<String, ShockNodeId> nodes) {
+		final String[] parts = line.trim().split(" ");
+		if (parts.length != 3 || !parts[0].matches("[0-9a-f]{32}")) {
+			return;
+		}
+		try {
+			if (Long.parseLong(parts[1]) < 0) {
+				return;
+			}
+			final String key = parts[0] + " " + parts[1];
+			if (parts[2].equals(REMOVED)) {
+				nodes.remove(key);
+			} else {
+				nodes.put(key, new ShockNodeId(parts[2]));
+			}
+		} catch (IllegalArgumentException e) {
+			// bad size or node ID, e.g. from a partial line
+		}
+	}
+
+	/** Get the path to the index file.
+	 * @return the path.
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/** Get the number of entries in the index.
+	 * @return the number of entries.
+	 */
+	public synchronized int size() {
+		return nodes.size();
+	}
+
+	/** Get the node recorded for a file.
+	 * @param md5 the md5 of the file.
+	 * @param size the size of the file.
+	 * @return the node ID, or null if there is no entry for the file.
+	 */
+	public synchronized ShockNodeId get(final String md5, final long size) {
+		return nodes.get(getKey(md5, size));
+	}
+
+	/** Record the node containing a file, replacing any existing entry.
+	 * @param md5 the md5 of the file.
+	 * @param size the size of the file.
+	 * @param id the ID of the node containing the file.
+	 * @throws IOException if the index could not be written.
+	 */
+	public synchronized void put(final String md5, final long size, final ShockNodeId id)
+			throws IOException {
+		if (id == null) {
+			throw new NullPointerException("id");
+		}
+		final String key = getKey(md5, size);
+		nodes.put(key, id);
+		write(key, id.getId());
+	}
+
+	/** Remove the entry for a file, for example because the node was deleted.
+	 * @param md5 the md5 of the file.
+	 * @param size the size of the file.
+	 * @throws IOException if the index could not be written.
+	 */
+	public synchronized void remove(final String md5, final long size) throws IOException {
+		final String key = getKey(md5, size);
+		if (nodes.remove(key) != null) {
+			write(key, REMOVED);
+		}
+	}
+
+	private void write(final String key, final String value) throws IOException {
+		writer.write(key + " " + value + "\n");
+		writer.flush();
+	}
+
+	private static String getKey(final String md5, final long size) {
+		if (md5 == null || !md5.matches("[0-9a-f]{32}")) {
+			throw new IllegalArgumentException("Illegal md5: " + md5);
+		}
+		if (size < 0) {
+			throw new IllegalArgumentException("size may not be negative");
+		}
+		return md5 + " " + size;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
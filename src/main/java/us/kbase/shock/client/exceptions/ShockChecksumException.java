@@ -0,0 +1,43 @@
+package us.kbase.shock.client.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the checksum of file data transferred to or from shock does not match the
+ * checksum recorded by shock. This is an {@link IOException} rather than a
+ * {@link ShockException} as it may be thrown from stream methods.
+ */
+public class ShockChecksumException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+	private final String expected;
+	private final String actual;
+
+	/**
+	 * Construct the exception.
+	 * @param message the error message.
+	 * @param expected the checksum recorded by shock.
+	 * @param actual the checksum of the transferred data.
+	 */
+	public ShockChecksumException(String message, String expected, String actual) {
+		super(message);
+		this.expected = expected;
+		this.actual = actual;
+	}
+
+	/**
+	 * Get the checksum recorded by shock.
+	 * @return the expected checksum.
+	 */
+	public String getExpected() {
+		return expected;
+	}
+
+	/**
+	 * Get the checksum of the transferred data.
+	 * @return the actual checksum.
+	 */
+	public String getActual() {
+		return actual;
+	}
+}
@@ -0,0 +1,114 @@
+package us.kbase.test.shock.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import us.kbase.auth.AuthToken;
+import us.kbase.shock.client.BasicShockClient;
+import us.kbase.shock.client.ShockCompression;
+import us.kbase.shock.client.ShockNode;
+
+public class CompressionBenchmark {
+
+	private static final int FILE_MB = 64;
+	private static final int RUNS = 3;
+	// the network speed used to estimate the transfer time on a network bottleneck
+	private static final double LINK_MBIT_PER_SEC = 100;
+
+	/** Compare uploading and downloading a FASTA style text file with and without compression,
+	 * against a local stand in Shock server, at several compression levels.
+	 *
+	 * Prints, for each level, the compression ratio, the upload and download throughput on the
+	 * loopback interface, the CPU time spent per MB of uncompressed data by the uploading
+	 * and downloading thread, which includes compression and decompression, and the estimated
+	 * upload time on a network link, which is the larger of the CPU time and the time to send
+	 * the compressed file over the link.
+	 * @param args ignored.
+	 * @throws Exception if an exception occurs.
+	 */
+	public static void main(final String[] args) throws Exception {
+		final byte[] file = fasta(FILE_MB * 1024 * 1024);
+		System.out.println(String.format("%sMB FASTA file, best of %s runs, %s Mbit/s link",
+				FILE_MB, RUNS, LINK_MBIT_PER_SEC));
+		System.out.println(String.format("%-8s %6s %9s %10s %9s %10s %9s",
+				"codec", "ratio", "up MB/s", "up cpu/MB", "dn MB/s", "dn cpu/MB", "link s"));
+		try (final StandInShockServer server = new StandInShockServer()) {
+			run(server, file, null, 0);
+			for (final int level: new int[] {1, 3, 6, 9}) {
+				run(server, file, ShockCompression.GZIP, level);
+			}
+		}
+	}
+
+	private static byte[] fasta(final int size) {
+		final Random r = new Random(42);
+		final byte[] file = new byte[size];
+		int i = 0;
+		int seq = 0;
+		while (i < size) {
+			final byte[] header = (">contig_" + seq++ + " len=4800\n").getBytes();
+			for (int j = 0; j < header.length && i < size; j++) {
+				file[i++] = header[j];
+			}
+			for (int line = 0; line < 80 && i < size; line++) {
+				for (int j = 0; j < 60 && i < size; j++) {
+					file[i++] = (byte) "ACGT".charAt(r.nextInt(4));
+				}
+				if (i < size) {
+					file[i++] = '\n';
+				}
+			}
+		}
+		return file;
+	}
+
+	private static void run(
+			final StandInShockServer server,
+			final byte[] file,
+			final ShockCompression compression,
+			final int level)
+			throws Exception {
+		final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		final double mb = file.length / 1024.0 / 1024.0;
+		double upSecs = Double.MAX_VALUE;
+		double upCPU = Double.MAX_VALUE;
+		double dnSecs = Double.MAX_VALUE;
+		double dnCPU = Double.MAX_VALUE;
+		long stored = 0;
+		try (final BasicShockClient bsc = BasicShockClient.getBuilder(server.getURL())
+				.withToken(new AuthToken("user1", "user1"))
+				.withCompression(compression, level)
+				.build()) {
+			for (int i = 0; i < RUNS; i++) {
+				long cpu = mx.getCurrentThreadCpuTime();
+				long start = System.nanoTime();
+				final ShockNode sn = bsc.addNode(
+						new ByteArrayInputStream(file), file.length, "f", "FASTA");
+				upSecs = Math.min(upSecs, (System.nanoTime() - start) / 1e9);
+				upCPU = Math.min(upCPU, (mx.getCurrentThreadCpuTime() - cpu) / 1e6);
+				stored = sn.getFileInformation().getSize();
+
+				cpu = mx.getCurrentThreadCpuTime();
+				start = System.nanoTime();
+				try (final InputStream is = bsc.getFile(sn)) {
+					final byte[] buf = new byte[64 * 1024];
+					while (is.read(buf) >= 0) {
+						// discard
+					}
+				}
+				dnSecs = Math.min(dnSecs, (System.nanoTime() - start) / 1e9);
+				dnCPU = Math.min(dnCPU, (mx.getCurrentThreadCpuTime() - cpu) / 1e6);
+				sn.delete();
+			}
+		}
+		final double linkSecs = Math.max(upCPU / 1000,
+				stored * 8 / (LINK_MBIT_PER_SEC * 1_000_000));
+		System.out.println(String.format("%-8s %6.2f %9.1f %8.1fms %9.1f %8.1fms %9.2f",
+				compression == null ? "none" : compression.getName() + "-" + level,
+				(double) file.length / stored, mb / upSecs, upCPU / mb, mb / dnSecs,
+				dnCPU / mb, linkSecs));
+	}
+}
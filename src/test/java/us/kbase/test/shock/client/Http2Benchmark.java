@@ -0,0 +1,89 @@
+package us.kbase.test.shock.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import us.kbase.auth.AuthToken;
+import us.kbase.shock.client.BasicShockClient;
+import us.kbase.shock.client.ShockACLType;
+import us.kbase.shock.client.ShockNodeId;
+import us.kbase.shock.client.ShockTransport;
+
+public class Http2Benchmark {
+
+	private static final int NODES = 100;
+	private static final int REQUESTS = 10000;
+	private static final int IN_FLIGHT = 200;
+	// simulate a WAN round trip and TCP + TLS setup, ~3 round trips. The stand in server's
+	// real TLS handshakes add to the setup time.
+	private static final int LATENCY_MS = 20;
+	private static final int CONNECTION_SETUP_MS = 60;
+
+	/** Compare an ACL sync style workload - many small node and ACL requests - over HTTP/1.1
+	 * and HTTP/2 against a local stand in Shock server, over https, with simulated network
+	 * latency.
+	 *
+	 * Prints the elapsed time and number of connections opened for HTTP/1.1 with a small pool,
+	 * as commonly enforced by proxies, HTTP/1.1 with a connection per in flight request, and
+	 * HTTP/2.
+	 * @param args ignored.
+	 * @throws Exception if an exception occurs.
+	 */
+	public static void main(final String[] args) throws Exception {
+		try (final StandInShockServer server = new StandInShockServer(true)) {
+			final List<ShockNodeId> ids = new ArrayList<>();
+			for (int i = 0; i < NODES; i++) {
+				ids.add(new ShockNodeId(server.addNode("user1", new byte[] {1}, "f", null)));
+			}
+			server.setLatencyMS(LATENCY_MS);
+			server.setConnectionSetupMS(CONNECTION_SETUP_MS);
+			System.out.println(String.format(
+					"%s requests, %s in flight, %sms latency, %sms connection setup",
+					REQUESTS, IN_FLIGHT, LATENCY_MS, CONNECTION_SETUP_MS));
+			run(server, ids, "HTTP/1.1, 8 connections", BasicShockClient.getBuilder(
+					server.getURL()).withTransport(ShockTransport.NIO)
+					.withMaxConnectionsPerRoute(8));
+			run(server, ids, "HTTP/1.1, " + IN_FLIGHT + " connections",
+					BasicShockClient.getBuilder(server.getURL())
+					.withTransport(ShockTransport.NIO)
+					.withMaxConnectionsPerRoute(IN_FLIGHT));
+			run(server, ids, "HTTP/2", BasicShockClient.getBuilder(server.getURL())
+					.withTransport(ShockTransport.HTTP2));
+		}
+	}
+
+	private static void run(
+			final StandInShockServer server,
+			final List<ShockNodeId> ids,
+			final String name,
+			final BasicShockClient.Builder builder)
+			throws Exception {
+		// the constructor's version check uses the blocking client, so count from here
+		try (final BasicShockClient bsc = builder.withToken(new AuthToken("user1", "user1"))
+				.withAllowSelfSignedCerts(true).build()) {
+			final int connections = server.getConnectionCount();
+			final Semaphore inflight = new Semaphore(IN_FLIGHT);
+			final List<CompletableFuture<?>> futures = new ArrayList<>(REQUESTS);
+			final long start = System.nanoTime();
+			for (int i = 0; i < REQUESTS; i++) {
+				final ShockNodeId id = ids.get(i % ids.size());
+				inflight.acquire();
+				final CompletableFuture<?> f;
+				switch (i % 3) {
+					case 0: f = bsc.getNodeAsync(id); break;
+					case 1: f = bsc.getACLsAsync(id); break;
+					default: f = bsc.addToNodeAclAsync(
+							id, Arrays.asList("user2"), ShockACLType.READ);
+				}
+				futures.add(f.whenComplete((r, e) -> inflight.release()));
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+			final double secs = (System.nanoTime() - start) / 1_000_000_000.0;
+			System.out.println(String.format("%-28s %6.2fs %8.0f req/s %5s connections",
+					name, secs, REQUESTS / secs, server.getConnectionCount() - connections));
+		}
+	}
+}
@@ -16,7 +16,15 @@ import java.io.OutputStreamWriter;
 import java.io.StringReader;
 import java.io.Writer;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
@@ -24,8 +32,13 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
@@ -41,13 +54,18 @@ import com.github.zafarkhaja.semver.Version;
 
 import us.kbase.auth.AuthToken;
 import us.kbase.shock.client.BasicShockClient;
+import us.kbase.shock.client.ParallelOptions;
+import us.kbase.shock.client.ParallelUploadOptions;
 import us.kbase.shock.client.ShockACL;
 import us.kbase.shock.client.ShockACLType;
 import us.kbase.shock.client.ShockNode;
 import us.kbase.shock.client.ShockNodeId;
+import us.kbase.shock.client.ShockNodeWriter;
+import us.kbase.shock.client.ShockTransport;
 import us.kbase.shock.client.ShockUserId;
 import us.kbase.shock.client.exceptions.InvalidShockUrlException;
 import us.kbase.shock.client.exceptions.ShockAuthorizationException;
+import us.kbase.shock.client.exceptions.ShockChecksumException;
 import us.kbase.shock.client.exceptions.ShockIllegalShareException;
 import us.kbase.shock.client.exceptions.ShockIllegalUnshareException;
 import us.kbase.shock.client.exceptions.ShockNoNodeException;
@@ -221,6 +239,90 @@ public class ShockTests {
 		getDeletedNode(sn.getId());
 	}
 	
+	@Test
+	public void builder() throws Exception {
+		final BasicShockClient bsc = BasicShockClient.getBuilder(BSC1.getShockUrl())
+				.withToken(BSC1.getToken())
+				.withMaxConnections(10)
+				.withMaxConnectionsPerRoute(5)
+				.withConnectTimeoutMS(10000)
+				.withSocketTimeoutMS(60000)
+				.withConnectionRequestTimeoutMS(10000)
+				.withValidateAfterInactivityMS(1000)
+				.withSocketSendBufferSize(64 * 1024)
+				.withSocketReceiveBufferSize(64 * 1024)
+				.build();
+		assertThat("incorrect url", bsc.getShockUrl(), is(BSC1.getShockUrl()));
+		assertThat("incorrect token", bsc.getToken(), is(BSC1.getToken()));
+		assertThat("incorrect version", bsc.getShockVersion(), is(BSC1.getShockVersion()));
+		addGetDeleteNodeBasic(bsc);
+		bsc.close();
+		try {
+			bsc.getNode(new ShockNodeId("00000000-0000-0000-0000-000000000000"));
+			fail("used closed client");
+		} catch (IllegalStateException e) {
+			assertThat("incorrect exception message", e.getLocalizedMessage(),
+					is("Connection pool shut down"));
+		}
+		// the shared connection pool should be unaffected by closing clients
+		final BasicShockClient shared = new BasicShockClient(BSC1.getShockUrl(), BSC1.getToken());
+		shared.close();
+		addGetDeleteNodeBasic(shared);
+		addGetDeleteNodeBasic(BSC1);
+	}
+	
+	@Test
+	public void builderNoToken() throws Exception {
+		final BasicShockClient bsc = BasicShockClient.getBuilder(BSC1.getShockUrl()).build();
+		assertThat("incorrect token", bsc.getToken(), is((AuthToken) null));
+		try {
+			bsc.addNode(getIS(), 1, "f", null);
+			fail("Added node with no token");
+		} catch (ShockAuthorizationException sae) {
+			assertThat("correct exception message", sae.getLocalizedMessage(),
+					is("No Authorization"));
+		}
+		bsc.close();
+	}
+	
+	@Test
+	public void builderFail() throws Exception {
+		try {
+			BasicShockClient.getBuilder(null);
+			fail("expected exception");
+		} catch (NullPointerException e) {
+			assertThat("incorrect exception message", e.getLocalizedMessage(), is("url"));
+		}
+		final BasicShockClient.Builder b = BasicShockClient.getBuilder(BSC1.getShockUrl());
+		failBuilder(() -> b.withMaxConnections(0), "maxConnections must be > 0");
+		failBuilder(() -> b.withMaxConnectionsPerRoute(0), "maxConnectionsPerRoute must be > 0");
+		failBuilder(() -> b.withConnectTimeoutMS(-1), "connectTimeoutMS must be >= 0");
+		failBuilder(() -> b.withSocketTimeoutMS(-1), "socketTimeoutMS must be >= 0");
+		failBuilder(() -> b.withConnectionRequestTimeoutMS(-1),
+				"connectionRequestTimeoutMS must be >= 0");
+		failBuilder(() -> b.withSocketSendBufferSize(0), "socketSendBufferSize must be > 0");
+		failBuilder(() -> b.withSocketReceiveBufferSize(0),
+				"socketReceiveBufferSize must be > 0");
+		failBuilder(() -> b.withStallDetection(-1, 1), "minBytesPerSec must be >= 0");
+		failBuilder(() -> b.withStallDetection(0, 0), "stallTimeMS must be > 0");
+		failBuilder(() -> b.withExpectContinueThreshold(-1), "fileLength must be >= 0");
+		try {
+			BasicShockClient.getBuilder(new URL("ftp://thing.us/")).build();
+			fail("built client with bad url");
+		} catch (InvalidShockUrlException e) {
+			// pass
+		}
+	}
+	
+	private void failBuilder(final Runnable r, final String expected) {
+		try {
+			r.run();
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+			assertThat("incorrect exception message", e.getLocalizedMessage(), is(expected));
+		}
+	}
+	
 	@Test
 	public void getNodeBadId() throws Exception {
 		try {
@@ -626,6 +728,20 @@ public class ShockTests {
 		final long writes = 571428571;
 		ShockNode sn = writeFileToNode(sb.toString(), writes, last.toString(), "somefile", "JSON", 1);
 		verifyStreamedNode(sn, sb.toString(), writes, last.toString(), "somefile", "JSON", 1);
+		
+		final Path target = Files.createTempFile(
+				Paths.get(ShockTestCommon.getTempDir()), "4GB", ".bin");
+		try {
+			BSC1.getFile(sn, target, ParallelOptions.getBuilder().build());
+			assertThat("incorrect file size", Files.size(target),
+					is(sn.getFileInformation().getSize()));
+			try (final InputStream is = Files.newInputStream(target)) {
+				assertThat("incorrect md5", DigestUtils.md5Hex(is),
+						is(sn.getFileInformation().getChecksum("md5")));
+			}
+		} finally {
+			Files.delete(target);
+		}
 		BSC1.deleteNode(sn.getId());
 	}
 	
@@ -747,6 +863,264 @@ public class ShockTests {
 			assertThat("correct exception message", snne.getLocalizedMessage(),
 					is("Node not found"));
 		}
+		try {
+			BSC1.getFile(sn.getId(), new ByteArrayOutputStream());
+			fail("got deleted file");
+		} catch (ShockNoNodeException snne) {
+			assertThat("correct exception message", snne.getLocalizedMessage(),
+					is("Node not found"));
+		}
+		try {
+			BSC1.getFile(sn.getId());
+			fail("got deleted file");
+		} catch (ShockNoNodeException snne) {
+			assertThat("correct exception message", snne.getLocalizedMessage(),
+					is("Node not found"));
+		}
+		try {
+			BSC1.getFile(sn.getId(), null);
+			fail("called get file w/ null arg");
+		} catch (NullPointerException ioe) {
+			assertThat("no file exc string incorrect", ioe.getLocalizedMessage(), 
+					is("os"));
+		}
+	}
+	
+	@Test
+	public void getFileChecksumVerification() throws Exception {
+		final byte[] content = new byte[100001];
+		new Random(11).nextBytes(content);
+		final ShockNode sn = BSC1.addNode(
+				new ByteArrayInputStream(content), content.length, "f", null);
+		final BasicShockClient bsc = BasicShockClient.getBuilder(BSC1.getShockUrl())
+				.withToken(BSC1.getToken())
+				.withChecksumVerification(true)
+				.build();
+		try {
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			bsc.getFile(sn.getId(), bos);
+			assertThat("incorrect file", Arrays.equals(bos.toByteArray(), content), is(true));
+			try (final InputStream is = bsc.getFile(sn)) {
+				// read a byte at a time to check single byte reads are digested
+				final ByteArrayOutputStream bos2 = new ByteArrayOutputStream();
+				int b;
+				while ((b = is.read()) >= 0) {
+					bos2.write(b);
+				}
+				assertThat("incorrect file", Arrays.equals(bos2.toByteArray(), content),
+						is(true));
+			}
+		} finally {
+			bsc.close();
+			BSC1.deleteNode(sn.getId());
+		}
+	}
+	
+	@Test
+	public void getFileParallel() throws Exception {
+		final byte[] content = new byte[100001];
+		new Random(42).nextBytes(content);
+		final ShockNode sn = BSC1.addNode(
+				new ByteArrayInputStream(content), content.length, "f", null);
+		final Path target = Files.createTempFile(
+				Paths.get(ShockTestCommon.getTempDir()), "parallel", ".bin");
+		try {
+			for (final ParallelOptions opts: Arrays.asList(
+					ParallelOptions.getBuilder().build(),
+					ParallelOptions.getBuilder().withRangeSize(1000)
+							.withAdaptiveRangeSize(false).withConcurrency(8).build(),
+					ParallelOptions.getBuilder().withRangeSize(999).withConcurrency(3).build(),
+					ParallelOptions.getBuilder().withRangeSize(200000).build())) {
+				Files.write(target, "previous contents that are longer than the file".getBytes());
+				BSC1.getFile(sn, target, opts);
+				assertThat("incorrect file for " + opts,
+						Arrays.equals(Files.readAllBytes(target), content), is(true));
+			}
+			
+			final ParallelOptions opts = ParallelOptions.getBuilder().build();
+			failGetFileParallel(null, target, opts, new NullPointerException("sn"));
+			failGetFileParallel(sn, null, opts, new NullPointerException("file"));
+			failGetFileParallel(sn, target, null, new NullPointerException("options"));
+			BSC1.deleteNode(sn.getId());
+			failGetFileParallel(sn, target, opts, new ShockNoNodeException(404, "Node not found"));
+		} finally {
+			Files.delete(target);
+		}
+	}
+	
+	@Test
+	public void getFileParallelResume() throws Exception {
+		final byte[] content = new byte[100001];
+		new Random(24).nextBytes(content);
+		final ShockNode sn = BSC1.addNode(
+				new ByteArrayInputStream(content), content.length, "f", null);
+		final String md5 = DigestUtils.md5Hex(content);
+		final Path target = Files.createTempFile(
+				Paths.get(ShockTestCommon.getTempDir()), "resume", ".bin");
+		final Path checkpoint = target.resolveSibling(target.getFileName() + ".checkpoint");
+		final ParallelOptions opts = ParallelOptions.getBuilder().withRangeSize(10000)
+				.withResumable(true).build();
+		final String header = "shock-download-checkpoint 1\n" + sn.getId().getId() + " " +
+				content.length + " " + md5 + "\n";
+		try {
+			// a partial download with a partially written final line
+			Files.write(target, Arrays.copyOf(content, 50000));
+			Files.write(checkpoint, (header + "0 30000\n40000 10000\n300").getBytes());
+			BSC1.getFile(sn, target, opts);
+			assertThat("incorrect file", Arrays.equals(Files.readAllBytes(target), content),
+					is(true));
+			assertThat("checkpoint not deleted", Files.exists(checkpoint), is(false));
+			
+			// only the recorded ranges are skipped, so the corrupt range is detected
+			final byte[] corrupt = Arrays.copyOf(content, content.length);
+			corrupt[20000]++;
+			Files.write(target, corrupt);
+			Files.write(checkpoint, (header + "0 50000\n").getBytes());
+			try {
+				BSC1.getFile(sn, target, opts);
+				fail("expected exception");
+			} catch (ShockChecksumException e) {
+				assertThat("incorrect expected md5", e.getExpected(), is(md5));
+				assertThat("incorrect actual md5", e.getActual(),
+						is(DigestUtils.md5Hex(corrupt)));
+			}
+			assertThat("checkpoint not deleted", Files.exists(checkpoint), is(false));
+			
+			// a checkpoint for a different node is ignored
+			Files.write(target, corrupt);
+			Files.write(checkpoint, ("shock-download-checkpoint 1\nsomeid " + content.length +
+					" " + md5 + "\n0 50000\n").getBytes());
+			BSC1.getFile(sn, target, opts);
+			assertThat("incorrect file", Arrays.equals(Files.readAllBytes(target), content),
+					is(true));
+			assertThat("checkpoint not deleted", Files.exists(checkpoint), is(false));
+		} finally {
+			Files.delete(target);
+			Files.deleteIfExists(checkpoint);
+			BSC1.deleteNode(sn.getId());
+		}
+	}
+	
+	@Test
+	public void openChannel() throws Exception {
+		final byte[] content = new byte[1000001];
+		new Random(7).nextBytes(content);
+		final ShockNode sn = BSC1.addNode(
+				new ByteArrayInputStream(content), content.length, "f", null);
+		try {
+			final SeekableByteChannel sbc = BSC1.openChannel(sn.getId());
+			assertThat("incorrect size", sbc.size(), is((long) content.length));
+			// a footer, a read spanning blocks, and the start of the file
+			for (final int pos: Arrays.asList(content.length - 100, 262000, 0, 999999)) {
+				final ByteBuffer bb = ByteBuffer.allocate(1000);
+				sbc.position(pos);
+				int read;
+				while (bb.hasRemaining() && (read = sbc.read(bb)) >= 0) {
+					assertThat("incorrect position", sbc.position(),
+							is((long) pos + bb.position()));
+					assertThat("read nothing", read > 0, is(true));
+				}
+				final int end = Math.min(content.length, pos + 1000);
+				assertThat("incorrect data at " + pos, Arrays.equals(
+						Arrays.copyOf(bb.array(), bb.position()),
+						Arrays.copyOfRange(content, pos, end)), is(true));
+			}
+			assertThat("incorrect read past end", sbc.read(ByteBuffer.allocate(1)), is(-1));
+			sbc.position(2000000);
+			assertThat("incorrect read past end", sbc.read(ByteBuffer.allocate(1)), is(-1));
+			
+			// read the whole file sequentially
+			sbc.position(0);
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			IOUtils.copy(Channels.newInputStream(sbc), bos);
+			assertThat("incorrect file", Arrays.equals(bos.toByteArray(), content), is(true));
+			
+			try {
+				sbc.write(ByteBuffer.allocate(1));
+				fail("expected exception");
+			} catch (NonWritableChannelException e) {
+				// pass
+			}
+			try {
+				sbc.position(-1);
+				fail("expected exception");
+			} catch (IllegalArgumentException e) {
+				assertExceptionCorrect(e, new IllegalArgumentException(
+						"newPosition must be >= 0"));
+			}
+			sbc.close();
+			assertThat("incorrect open", sbc.isOpen(), is(false));
+			try {
+				sbc.read(ByteBuffer.allocate(1));
+				fail("expected exception");
+			} catch (ClosedChannelException e) {
+				// pass
+			}
+			
+			// errors fetching blocks are IOExceptions
+			final SeekableByteChannel deleted = BSC1.openChannel(sn);
+			BSC1.deleteNode(sn.getId());
+			try {
+				deleted.read(ByteBuffer.allocate(1));
+				fail("expected exception");
+			} catch (IOException e) {
+				assertExceptionCorrect(e, new IOException(String.format(
+						"Could not read the file for shock node %s: Node not found",
+						sn.getId().getId())));
+			}
+			try {
+				BSC1.openChannel((ShockNode) null);
+				fail("expected exception");
+			} catch (NullPointerException e) {
+				assertExceptionCorrect(e, new NullPointerException("sn"));
+			}
+		} finally {
+			try {
+				BSC1.deleteNode(sn.getId());
+			} catch (ShockNoNodeException e) {
+				// already deleted
+			}
+		}
+	}
+	
+	private void failGetFileParallel(
+			final ShockNode sn,
+			final Path file,
+			final ParallelOptions opts,
+			final Exception expected) {
+		try {
+			BSC1.getFile(sn, file, opts);
+			fail("expected exception");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, expected);
+		}
+	}
+	
+	@Test
+	public void parallelOptions() throws Exception {
+		final ParallelOptions d = ParallelOptions.getBuilder().build();
+		assertThat("incorrect concurrency", d.getConcurrency(), is(4));
+		assertThat("incorrect range size", d.getRangeSize(), is(16L * 1024 * 1024));
+		assertThat("incorrect adaptive", d.isAdaptiveRangeSize(), is(true));
+		assertThat("incorrect resumable", d.isResumable(), is(false));
+		final ParallelOptions o = ParallelOptions.getBuilder().withConcurrency(1)
+				.withRangeSize(1).withAdaptiveRangeSize(false).withResumable(true).build();
+		assertThat("incorrect concurrency", o.getConcurrency(), is(1));
+		assertThat("incorrect range size", o.getRangeSize(), is(1L));
+		assertThat("incorrect adaptive", o.isAdaptiveRangeSize(), is(false));
+		assertThat("incorrect resumable", o.isResumable(), is(true));
+		try {
+			ParallelOptions.getBuilder().withConcurrency(0);
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+			assertExceptionCorrect(e, new IllegalArgumentException("concurrency must be > 0"));
+		}
+		try {
+			ParallelOptions.getBuilder().withRangeSize(0);
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+			assertExceptionCorrect(e, new IllegalArgumentException("rangeSize must be > 0"));
+		}
 	}
 	
 	@Test
@@ -774,6 +1148,192 @@ public class ShockTests {
 		}
 	}
 	
+	@Test
+	public void addNodeFromPath() throws Exception {
+		final byte[] content = new byte[1000001];
+		new Random(5).nextBytes(content);
+		final Path file = Files.createTempFile(
+				Paths.get(ShockTestCommon.getTempDir()), "upload", ".bin");
+		final BasicShockClient nio = BasicShockClient.getBuilder(BSC1.getShockUrl())
+				.withToken(BSC1.getToken())
+				.withTransport(ShockTransport.NIO)
+				.build();
+		try {
+			Files.write(file, content);
+			for (final ShockNode sn: Arrays.asList(
+					BSC1.addNode(file, "myfile", "UTF-8"),
+					BSC1.addNodeAsync(file, "myfile", "UTF-8").get(),
+					nio.addNodeAsync(file, "myfile", "UTF-8").get())) {
+				assertThat("incorrect filename", sn.getFileInformation().getName(),
+						is("myfile"));
+				assertThat("incorrect format", sn.getFormat(), is("UTF-8"));
+				assertThat("incorrect size", sn.getFileInformation().getSize(),
+						is((long) content.length));
+				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				BSC1.getFile(sn, bos);
+				assertThat("incorrect file", Arrays.equals(bos.toByteArray(), content),
+						is(true));
+				BSC1.deleteNode(sn.getId());
+			}
+			
+			failAddNodeFromPath(null, "f", new IllegalArgumentException("file may not be null"));
+			failAddNodeFromPath(file, null,
+					new IllegalArgumentException("filename may not be null or empty"));
+			failAddNodeFromPath(file, "",
+					new IllegalArgumentException("filename may not be null or empty"));
+			final Path missing = file.resolveSibling(file.getFileName() + ".missing");
+			failAddNodeFromPath(missing, "f", new NoSuchFileException(missing.toString()));
+		} finally {
+			nio.close();
+			Files.delete(file);
+		}
+	}
+	
+	private void failAddNodeFromPath(
+			final Path file,
+			final String filename,
+			final Exception expected) {
+		try {
+			BSC1.addNode(file, filename, null);
+			fail("expected exception");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, expected);
+		}
+	}
+	
+	@Test
+	public void addNodeParallel() throws Exception {
+		final byte[] content = new byte[1000001];
+		new Random(6).nextBytes(content);
+		final Path file = Files.createTempFile(
+				Paths.get(ShockTestCommon.getTempDir()), "upload", ".bin");
+		try {
+			Files.write(file, content);
+			for (final ParallelUploadOptions o: Arrays.asList(
+					ParallelUploadOptions.getBuilder().build(), // single request
+					ParallelUploadOptions.getBuilder().withPartSize(100000)
+							.withConcurrency(3).build(),
+					ParallelUploadOptions.getBuilder().withPartSize(300000)
+							.withConcurrency(1).build())) {
+				final ShockNode sn = BSC1.addNode(file, "myfile", "UTF-8", o);
+				assertThat("incorrect filename", sn.getFileInformation().getName(),
+						is("myfile"));
+				assertThat("incorrect format", sn.getFormat(), is("UTF-8"));
+				assertThat("incorrect size", sn.getFileInformation().getSize(),
+						is((long) content.length));
+				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				BSC1.getFile(sn, bos);
+				assertThat("incorrect file", Arrays.equals(bos.toByteArray(), content),
+						is(true));
+				BSC1.deleteNode(sn.getId());
+			}
+			try {
+				BSC1.addNode(file, "myfile", "UTF-8", null);
+				fail("expected exception");
+			} catch (Exception e) {
+				assertExceptionCorrect(e, new NullPointerException("options"));
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
+	@Test
+	public void parallelUploadOptions() throws Exception {
+		final ParallelUploadOptions d = ParallelUploadOptions.getBuilder().build();
+		assertThat("incorrect concurrency", d.getConcurrency(), is(4));
+		assertThat("incorrect part size", d.getPartSize(), is(64L * 1024 * 1024));
+		assertThat("incorrect retries", d.getPartRetries(), is(2));
+		final ParallelUploadOptions o = ParallelUploadOptions.getBuilder().withConcurrency(1)
+				.withPartSize(1).withPartRetries(0).build();
+		assertThat("incorrect concurrency", o.getConcurrency(), is(1));
+		assertThat("incorrect part size", o.getPartSize(), is(1L));
+		assertThat("incorrect retries", o.getPartRetries(), is(0));
+		try {
+			ParallelUploadOptions.getBuilder().withConcurrency(0);
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+			assertExceptionCorrect(e, new IllegalArgumentException("concurrency must be > 0"));
+		}
+		try {
+			ParallelUploadOptions.getBuilder().withPartSize(0);
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+			assertExceptionCorrect(e, new IllegalArgumentException("partSize must be > 0"));
+		}
+		try {
+			ParallelUploadOptions.getBuilder().withPartRetries(-1);
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+			assertExceptionCorrect(e, new IllegalArgumentException("partRetries must be >= 0"));
+		}
+	}
+	
+	@Test
+	public void createNodeWriter() throws Exception {
+		final byte[] content = new byte[1000001];
+		new Random(7).nextBytes(content);
+		for (final long expectedLength: Arrays.asList((long) content.length, -1L)) {
+			final ShockNodeWriter w = BSC1.createNodeWriter("myfile", "UTF-8", expectedLength);
+			assertThat("incorrect expected length", w.getExpectedLength(), is(expectedLength));
+			for (int pos = 0; pos < content.length; pos += 30000) {
+				w.write(content, pos, Math.min(30000, content.length - pos));
+			}
+			assertThat("incorrect bytes written", w.getBytesWritten(),
+					is((long) content.length));
+			w.close();
+			final ShockNode sn = w.getNode();
+			assertThat("incorrect filename", sn.getFileInformation().getName(), is("myfile"));
+			assertThat("incorrect format", sn.getFormat(), is("UTF-8"));
+			assertThat("incorrect size", sn.getFileInformation().getSize(),
+					is((long) content.length));
+			assertThat("incorrect node", w.finish().getId(), is(sn.getId()));
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			BSC1.getFile(sn, bos);
+			assertThat("incorrect file", Arrays.equals(bos.toByteArray(), content), is(true));
+			BSC1.deleteNode(sn.getId());
+		}
+		
+		final ShockNodeWriter aborted = BSC1.createNodeWriter("myfile", null, -1);
+		aborted.write(content);
+		aborted.abort();
+		assertThat("incorrect node", aborted.getNode(), is((ShockNode) null));
+		failNodeWriter(() -> aborted.write(1), new IOException("Stream closed"));
+		failNodeWriter(() -> aborted.finish(),
+				new IOException("The upload was aborted or failed"));
+		
+		final ShockNodeWriter tooLong = BSC1.createNodeWriter("myfile", null, 10);
+		failNodeWriter(() -> tooLong.write(new byte[11]),
+				new IOException("Attempted to write more than the expected 10 bytes"));
+		final ShockNodeWriter tooShort = BSC1.createNodeWriter("myfile", null, 10);
+		tooShort.write(new byte[9]);
+		failNodeWriter(() -> tooShort.close(),
+				new IOException("Expected 10 bytes but 9 were written"));
+		
+		for (final String filename: Arrays.asList(null, "")) {
+			try {
+				BSC1.createNodeWriter(filename, null, 1);
+				fail("expected exception");
+			} catch (Exception e) {
+				assertExceptionCorrect(e,
+						new IllegalArgumentException("filename may not be null or empty"));
+			}
+		}
+	}
+	
+	private interface WriterCall {
+		void call() throws Exception;
+	}
+	
+	private void failNodeWriter(final WriterCall call, final Exception expected) {
+		try {
+			call.call();
+			fail("expected exception");
+		} catch (Exception e) {
+			assertExceptionCorrect(e, expected);
+		}
+	}
+	
 	@Test
 	public void addNodeFailNegativeSize() throws Exception {
 		try {
@@ -1265,6 +1825,134 @@ public class ShockTests {
 		return sn;
 	}
 	
+	@Test
+	public void asyncOperations() throws Exception {
+		final ExecutorService exe = Executors.newFixedThreadPool(2);
+		final BasicShockClient bsc = BasicShockClient.getBuilder(BSC1.getShockUrl())
+				.withToken(BSC1.getToken())
+				.withExecutor(exe)
+				.build();
+		try {
+			asyncOperations(bsc);
+		} finally {
+			bsc.close();
+		}
+		assertThat("executor was shut down", exe.isShutdown(), is(false));
+		exe.shutdown();
+		// default executor
+		asyncOperations(BSC1);
+	}
+
+	@Test
+	public void asyncOperationsNIO() throws Exception {
+		final BasicShockClient bsc = BasicShockClient.getBuilder(BSC1.getShockUrl())
+				.withToken(BSC1.getToken())
+				.withTransport(ShockTransport.NIO)
+				.withIOThreads(1)
+				.build();
+		try {
+			asyncOperations(bsc);
+			
+			// many concurrent requests on a single I/O thread
+			final List<CompletableFuture<ShockNode>> adds = new LinkedList<>();
+			for (int i = 0; i < 50; i++) {
+				final String data = "data" + i;
+				adds.add(bsc.addNodeAsync(new ByteArrayInputStream(data.getBytes()),
+						data.length(), "f" + i, null));
+			}
+			for (int i = 0; i < 50; i++) {
+				final ShockNode sn = adds.get(i).get();
+				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				bsc.getFileAsync(sn, bos).get();
+				assertThat("incorrect file", bos.toString(), is("data" + i));
+				bsc.deleteNodeAsync(sn.getId()).get();
+			}
+			
+			try {
+				bsc.addNodeAsync(new ByteArrayInputStream(new byte[2]), 5, "f", null).get();
+				fail("added node with short file");
+			} catch (ExecutionException e) {
+				assertExceptionCorrect((Exception) e.getCause(), new IOException(
+						"File data ended 3 bytes before the specified file length"));
+			}
+		} finally {
+			bsc.close();
+		}
+		try {
+			bsc.getNodeAsync(new ShockNodeId("00000000-0000-0000-0000-000000000000")).get();
+			fail("used closed client");
+		} catch (ExecutionException e) {
+			assertThat("incorrect exception", e.getCause() instanceof IllegalStateException,
+					is(true));
+		}
+	}
+	
+	@Test
+	public void builderTransportFail() throws Exception {
+		try {
+			BasicShockClient.getBuilder(BSC1.getShockUrl()).withTransport(null);
+			fail("set null transport");
+		} catch (NullPointerException e) {
+			assertExceptionCorrect(e, new NullPointerException("transport"));
+		}
+		try {
+			BasicShockClient.getBuilder(BSC1.getShockUrl()).withIOThreads(0);
+			fail("set bad io thread count");
+		} catch (IllegalArgumentException e) {
+			assertExceptionCorrect(e, new IllegalArgumentException("ioThreads must be > 0"));
+		}
+	}
+	
+	private void asyncOperations(final BasicShockClient bsc) throws Exception {
+		final String content = "Been shopping? No, I've been shopping";
+		final CompletableFuture<ShockNode> add = bsc.addNodeAsync(
+				new ReaderInputStream(new StringReader(content)), 37, "fname", "UTF-8");
+		final ShockNode sn = add.get();
+		final ShockNode snget = bsc.getNodeAsync(sn.getId()).get();
+		assertThat("get node != add Node output", snget.toString(), is(sn.toString()));
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bsc.getFileAsync(sn, bos).get();
+		assertThat("incorrect file", bos.toString(StandardCharsets.UTF_8.name()), is(content));
+		bos = new ByteArrayOutputStream();
+		bsc.getFileAsync(sn.getId(), bos).get();
+		assertThat("incorrect file", bos.toString(StandardCharsets.UTF_8.name()), is(content));
+		
+		ShockACL acl = bsc.addToNodeAclAsync(
+				sn.getId(), Arrays.asList(USER2), ShockACLType.READ).get();
+		assertThat("incorrect read acl", acl.getRead(), is(Arrays.asList(USER1_SID, USER2_SID)));
+		acl = bsc.getACLsAsync(sn.getId()).get();
+		assertThat("incorrect read acl", acl.getRead(), is(Arrays.asList(USER1_SID, USER2_SID)));
+		acl = bsc.removeFromNodeAclAsync(
+				sn.getId(), Arrays.asList(USER2), ShockACLType.READ).get();
+		assertThat("incorrect read acl", acl.getRead(), is(Arrays.asList(USER1_SID)));
+		acl = bsc.setPubliclyReadableAsync(sn.getId(), true).get();
+		assertThat("node is public", acl.isPublicallyReadable(), is(true));
+		
+		final ShockNode copy = bsc.copyNodeAsync(sn.getId(), false).get();
+		assertThat("copy has same md5", copy.getFileInformation().getChecksum("md5"),
+				is(sn.getFileInformation().getChecksum("md5")));
+		assertThat("copy owned node", bsc.copyNodeAsync(sn.getId(), true).get().getId(),
+				is(sn.getId()));
+		
+		bsc.deleteNodeAsync(copy.getId()).get();
+		bsc.deleteNodeAsync(sn.getId()).get();
+		try {
+			bsc.getNodeAsync(sn.getId()).get();
+			fail("got deleted node");
+		} catch (ExecutionException e) {
+			assertExceptionCorrect((Exception) e.getCause(),
+					new ShockNoNodeException(404, "Node not found"));
+		}
+		try {
+			bsc.getNodeAsync(null).get();
+			fail("got node with bad id");
+		} catch (ExecutionException e) {
+			assertExceptionCorrect((Exception) e.getCause(),
+					new NullPointerException("id may not be null"));
+		}
+	}
+	
 	@Test
 	public void getRemoteVersion() throws Exception {
 		String v = BSC1.getRemoteVersion();
@@ -0,0 +1,1272 @@
+package us.kbase.test.shock.client;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import us.kbase.auth.AuthToken;
+import us.kbase.shock.client.ACLBatch;
+import us.kbase.shock.client.BasicShockClient;
+import us.kbase.shock.client.BulkOptions;
+import us.kbase.shock.client.BulkResult;
+import us.kbase.shock.client.CacheOptions;
+import us.kbase.shock.client.CacheStats;
+import us.kbase.shock.client.DeleteResult;
+import us.kbase.shock.client.FileCache;
+import us.kbase.shock.client.ParallelUploadOptions;
+import us.kbase.shock.client.ShockACL;
+import us.kbase.shock.client.ShockACLType;
+import us.kbase.shock.client.ShockCompression;
+import us.kbase.shock.client.ShockNode;
+import us.kbase.shock.client.ShockNodeId;
+import us.kbase.shock.client.ShockNodeWriter;
+import us.kbase.shock.client.ShockTransport;
+import us.kbase.shock.client.ShockUserId;
+import us.kbase.shock.client.UploadIndex;
+import us.kbase.shock.client.exceptions.ShockAuthorizationException;
+import us.kbase.shock.client.exceptions.ShockChecksumException;
+import us.kbase.shock.client.exceptions.ShockNoFileException;
+import us.kbase.shock.client.exceptions.ShockNoNodeException;
+
+/** Tests of the client's transports against a stand in Shock server, for behavior that
+ * can't be tested against a real Shock server.
+ */
+public class ShockTransportTest {
+
+	private static StandInShockServer SERVER;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		SERVER = new StandInShockServer(true);
+	}
+
+	@AfterClass
+	public static void tearDownClass() throws Exception {
+		if (SERVER != null) {
+			SERVER.close();
+		}
+	}
+
+	@Test
+	public void http2() throws Exception {
+		final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+				.withToken(new AuthToken("user1", "user1"))
+				.withAllowSelfSignedCerts(true)
+				.withTransport(ShockTransport.HTTP2)
+				.build();
+		try {
+			final int connections = SERVER.getConnectionCount();
+			final List<CompletableFuture<ShockNode>> adds = new LinkedList<>();
+			for (int i = 0; i < 100; i++) {
+				final String data = "data" + i;
+				adds.add(bsc.addNodeAsync(new ByteArrayInputStream(data.getBytes()),
+						data.length(), "f" + i, "UTF-8"));
+			}
+			final List<CompletableFuture<ShockACL>> acls = new LinkedList<>();
+			for (final CompletableFuture<ShockNode> add: adds) {
+				acls.add(add.thenCompose(sn -> bsc.addToNodeAclAsync(
+						sn.getId(), Arrays.asList("user2"), ShockACLType.READ)));
+			}
+			for (int i = 0; i < 100; i++) {
+				final ShockNode sn = adds.get(i).get();
+				assertThat("incorrect format", sn.getFormat(), is("UTF-8"));
+				assertThat("incorrect read acl size", acls.get(i).get().getRead().size(), is(2));
+				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				bsc.getFileAsync(sn, bos).get();
+				assertThat("incorrect file", bos.toString(), is("data" + i));
+			}
+			assertThat("requests were not multiplexed",
+					SERVER.getConnectionCount() - connections, is(1));
+		} finally {
+			bsc.close();
+		}
+	}
+
+	@Test
+	public void stallResume() throws Exception {
+		final byte[] content = new byte[1000000];
+		new Random(42).nextBytes(content);
+		final ShockNodeId id = new ShockNodeId(SERVER.addNode("user1", content, "f", null));
+		final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+				.withToken(new AuthToken("user1", "user1"))
+				.withAllowSelfSignedCerts(true)
+				.withStallDetection(1000, 200)
+				.build();
+		try {
+			// stalls at 300000 and 600000 bytes
+			SERVER.setDownloadStalls(300000, 2);
+			int requests = SERVER.getRequestCount();
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			bsc.getFile(id, bos);
+			assertThat("incorrect file", Arrays.equals(bos.toByteArray(), content), is(true));
+			// get node, download, 2 resumes
+			assertThat("incorrect request count", SERVER.getRequestCount() - requests, is(4));
+
+			SERVER.setDownloadStalls(500000, 1);
+			requests = SERVER.getRequestCount();
+			try (final InputStream is = bsc.getFile(id)) {
+				assertThat("incorrect file", Arrays.equals(IOUtils.toByteArray(is), content),
+						is(true));
+			}
+			assertThat("incorrect request count", SERVER.getRequestCount() - requests, is(3));
+
+			// a slow reader is not a stalled transfer
+			requests = SERVER.getRequestCount();
+			try (final InputStream is = bsc.getFile(id)) {
+				final byte[] b = new byte[1000];
+				for (int i = 0; i < 3; i++) {
+					IOUtils.readFully(is, b);
+					Thread.sleep(400);
+				}
+				final ByteArrayOutputStream rest = new ByteArrayOutputStream();
+				rest.write(b);
+				IOUtils.copy(is, rest);
+				assertThat("incorrect file end", Arrays.equals(rest.toByteArray(),
+						Arrays.copyOfRange(content, 2000, content.length)), is(true));
+			}
+			assertThat("incorrect request count", SERVER.getRequestCount() - requests, is(2));
+
+			SERVER.setDownloadStalls(0, 100);
+			try {
+				bsc.getFile(id, new ByteArrayOutputStream());
+				fail("expected exception");
+			} catch (IOException e) {
+				assertThat("incorrect exception message", e.getMessage(), is(String.format(
+						"The download of the file for shock node %s stalled 3 times at byte 0",
+						id.getId())));
+			}
+		} finally {
+			SERVER.setDownloadStalls(0, 0);
+			bsc.close();
+		}
+	}
+
+	@Test
+	public void getFileByIDSingleRequest() throws Exception {
+		final ShockNodeId id = new ShockNodeId(
+				SERVER.addNode("user1", "small file".getBytes(), "f", null));
+		final ShockNodeId deleted = new ShockNodeId(UUID.randomUUID().toString());
+		final ShockNodeId nofile = new ShockNodeId(
+				SERVER.addNode("user1", new byte[0], "f", null));
+		for (final ShockTransport t: ShockTransport.values()) {
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.build();
+			try {
+				int requests = SERVER.getRequestCount();
+				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				bsc.getFile(id, bos);
+				assertThat("incorrect file", bos.toString(), is("small file"));
+				try (final InputStream is = bsc.getFile(id)) {
+					assertThat("incorrect file", IOUtils.toString(is), is("small file"));
+				}
+				final ByteArrayOutputStream abos = new ByteArrayOutputStream();
+				bsc.getFileAsync(id, abos).get();
+				assertThat("incorrect file", abos.toString(), is("small file"));
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(3));
+				try {
+					bsc.getFile(deleted, new ByteArrayOutputStream());
+					fail("expected exception");
+				} catch (ShockNoNodeException e) {
+					assertThat("incorrect exception message", e.getMessage(),
+							is("Node not found"));
+				}
+				try {
+					bsc.getFileAsync(deleted, new ByteArrayOutputStream()).get();
+					fail("expected exception");
+				} catch (ExecutionException e) {
+					assertThat("incorrect exception", e.getCause() instanceof
+							ShockNoNodeException, is(true));
+				}
+				// shock returns an error for a node without a file, but an empty response
+				// means the same thing
+				for (final boolean empty: Arrays.asList(false, true)) {
+					SERVER.setEmptyNoFileDownloads(empty);
+					try {
+						bsc.getFile(nofile, new ByteArrayOutputStream());
+						fail("expected exception");
+					} catch (ShockNoFileException e) {
+						checkNoFile(e, t, empty);
+					}
+					try {
+						bsc.getFile(nofile).close();
+						fail("expected exception");
+					} catch (ShockNoFileException e) {
+						checkNoFile(e, t, empty);
+					}
+					try {
+						bsc.getFileAsync(nofile, new ByteArrayOutputStream()).get();
+						fail("expected exception");
+					} catch (ExecutionException e) {
+						checkNoFile((ShockNoFileException) e.getCause(), t, empty);
+					}
+				}
+			} finally {
+				SERVER.setEmptyNoFileDownloads(false);
+				bsc.close();
+			}
+		}
+	}
+	
+	private void checkNoFile(
+			final ShockNoFileException e,
+			final ShockTransport t,
+			final boolean empty) {
+		assertThat("incorrect code for " + t + " " + empty, e.getHttpCode(), is(400));
+		assertThat("incorrect message for " + t + " " + empty, e.getMessage(),
+				is("Node has no file"));
+	}
+
+	@Test
+	public void checksumVerification() throws Exception {
+		final byte[] content = "some file content".getBytes();
+		final ShockNodeId id = new ShockNodeId(SERVER.addNode("user1", content, "f", null));
+		final String md5 = DigestUtils.md5Hex(content);
+		final byte[] corrupt = Arrays.copyOf(content, content.length);
+		corrupt[0]++;
+		final String badmd5 = DigestUtils.md5Hex(corrupt);
+		for (final ShockTransport t: ShockTransport.values()) {
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.withChecksumVerification(true)
+					.build();
+			try {
+				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				bsc.getFile(id, bos);
+				assertThat("incorrect file", bos.toByteArray(), is(content));
+				bsc.getFileAsync(id, new ByteArrayOutputStream()).get();
+
+				SERVER.setCorruptDownloads(1);
+				try {
+					bsc.getFile(id, new ByteArrayOutputStream());
+					fail("expected exception");
+				} catch (ShockChecksumException e) {
+					checkChecksumException(e, id, md5, badmd5);
+				}
+				SERVER.setCorruptDownloads(1);
+				try (final InputStream is = bsc.getFile(id)) {
+					IOUtils.toByteArray(is);
+					fail("expected exception");
+				} catch (ShockChecksumException e) {
+					checkChecksumException(e, id, md5, badmd5);
+				}
+				SERVER.setCorruptDownloads(1);
+				try {
+					bsc.getFileAsync(id, new ByteArrayOutputStream()).get();
+					fail("expected exception");
+				} catch (ExecutionException e) {
+					checkChecksumException((ShockChecksumException) e.getCause(),
+							id, md5, badmd5);
+				}
+			} finally {
+				SERVER.setCorruptDownloads(0);
+				bsc.close();
+			}
+		}
+	}
+
+	private void checkChecksumException(
+			final ShockChecksumException e,
+			final ShockNodeId id,
+			final String expected,
+			final String actual) {
+		assertThat("incorrect expected", e.getExpected(), is(expected));
+		assertThat("incorrect actual", e.getActual(), is(actual));
+		assertThat("incorrect message", e.getMessage(), is(String.format(
+				"The md5 of the file downloaded from shock node %s, %s, does not match the " +
+				"md5 recorded by shock, %s", id.getId(), actual, expected)));
+	}
+
+	@Test
+	public void uploadChecksumVerification() throws Exception {
+		final byte[] content = "some file content".getBytes();
+		final String md5 = DigestUtils.md5Hex(content);
+		final byte[] corrupt = Arrays.copyOf(content, content.length);
+		corrupt[0]++;
+		final String badmd5 = DigestUtils.md5Hex(corrupt);
+		for (final ShockTransport t: ShockTransport.values()) {
+			for (final boolean delete: Arrays.asList(false, true)) {
+				final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+						.withToken(new AuthToken("user1", "user1"))
+						.withAllowSelfSignedCerts(true)
+						.withTransport(t)
+						.withChecksumVerification(true)
+						.withDeleteCorruptUploads(delete)
+						.build();
+				try {
+					final ShockNode sn = bsc.addNode(
+							new ByteArrayInputStream(content), content.length, "f", null);
+					assertThat("incorrect md5", sn.getUploadMD5(), is(md5));
+					final ShockNode sn2 = bsc.addNodeAsync(
+							new ByteArrayInputStream(content), content.length, "f", null)
+							.get();
+					assertThat("incorrect md5", sn2.getUploadMD5(), is(md5));
+					try (final ShockNodeWriter w = bsc.createNodeWriter("f", null, -1)) {
+						w.write(content);
+						assertThat("incorrect md5", w.finish().getUploadMD5(), is(md5));
+					}
+					assertThat("incorrect md5", bsc.getNode(sn.getId()).getUploadMD5(),
+							is((String) null));
+
+					SERVER.setCorruptUploads(1);
+					try {
+						bsc.addNode(new ByteArrayInputStream(content), content.length, "f",
+								null);
+						fail("expected exception");
+					} catch (ShockChecksumException e) {
+						checkUploadChecksumException(e, badmd5, md5, delete);
+					}
+					SERVER.setCorruptUploads(1);
+					try {
+						bsc.addNodeAsync(new ByteArrayInputStream(content), content.length,
+								"f", null).get();
+						fail("expected exception");
+					} catch (ExecutionException e) {
+						checkUploadChecksumException(
+								(ShockChecksumException) e.getCause(), badmd5, md5, delete);
+					}
+				} finally {
+					SERVER.setCorruptUploads(0);
+					bsc.close();
+				}
+			}
+		}
+	}
+
+	private void checkUploadChecksumException(
+			final ShockChecksumException e,
+			final String expected,
+			final String actual,
+			final boolean deleted) {
+		assertThat("incorrect expected", e.getExpected(), is(expected));
+		assertThat("incorrect actual", e.getActual(), is(actual));
+		final Matcher m = Pattern.compile("The md5 of the file uploaded to shock node (\\S+), " +
+				"(\\w+), does not match the md5 recorded by shock, (\\w+)")
+				.matcher(e.getMessage());
+		assertThat("incorrect message " + e.getMessage(), m.matches(), is(true));
+		assertThat("incorrect md5", m.group(2), is(actual));
+		assertThat("incorrect md5", m.group(3), is(expected));
+		assertThat("incorrect node deletion", SERVER.hasNode(m.group(1)), is(!deleted));
+	}
+
+	@Test
+	public void uploadIndex() throws Exception {
+		final byte[] content = "some file content".getBytes();
+		final String md5 = DigestUtils.md5Hex(content);
+		final Path file = Files.createTempFile("ShockTransportTest_uploadIndex", ".tmp");
+		final Path indexFile = Files.createTempFile("ShockTransportTest_uploadIndex", ".idx");
+		Files.delete(indexFile);
+		final BasicShockClient bsc1 = BasicShockClient.getBuilder(SERVER.getURL())
+				.withToken(new AuthToken("user1", "user1"))
+				.withAllowSelfSignedCerts(true)
+				.build();
+		final BasicShockClient bsc2 = BasicShockClient.getBuilder(SERVER.getURL())
+				.withToken(new AuthToken("user2", "user2"))
+				.withAllowSelfSignedCerts(true)
+				.build();
+		try {
+			Files.write(file, content);
+			final ShockNodeId id;
+			final ShockNodeId copyid;
+			try (final UploadIndex index = UploadIndex.open(indexFile)) {
+				// first upload
+				final ShockNode sn = bsc1.addOrReuseNode(file, "f", "JSON", index);
+				id = sn.getId();
+				assertThat("incorrect index", index.get(md5, content.length), is(id));
+				assertThat("incorrect index size", index.size(), is(1));
+
+				// reused by the owner
+				int requests = SERVER.getRequestCount();
+				assertThat("incorrect node", bsc1.addOrReuseNode(file, "f", "JSON", index).getId(),
+						is(id));
+				// get node and ACLs
+				assertThat("incorrect request count", SERVER.getRequestCount() - requests,
+						is(2));
+
+				// copied for another user
+				final ShockNode copy = bsc2.addOrReuseNode(file, "f", "JSON", index);
+				copyid = copy.getId();
+				assertThat("copy is original", copyid.equals(id), is(false));
+				assertThat("incorrect file", IOUtils.toByteArray(bsc2.getFile(copy)),
+						is(content));
+				assertThat("incorrect index", index.get(md5, content.length), is(copyid));
+				assertThat("incorrect node", bsc2.addOrReuseNode(file, "f", "JSON", index).getId(),
+						is(copyid));
+
+				// different filename or format is uploaded
+				final ShockNode sn2 = bsc2.addOrReuseNode(file, "g", "JSON", index);
+				assertThat("node reused", sn2.getId().equals(copyid), is(false));
+				final ShockNode sn3 = bsc2.addOrReuseNode(file, "g", null, index);
+				assertThat("node reused", sn3.getId().equals(sn2.getId()), is(false));
+				assertThat("incorrect index", index.get(md5, content.length), is(sn3.getId()));
+
+				// missing node is removed from the index and uploaded
+				final ShockNodeId id3 = sn3.getId();
+				sn3.delete();
+				final ShockNode sn4 = bsc2.addOrReuseNode(file, "g", null, index);
+				assertThat("node reused", sn4.getId().equals(id3), is(false));
+				assertThat("incorrect index", index.get(md5, content.length), is(sn4.getId()));
+
+				index.remove(md5, content.length);
+				assertThat("incorrect index", index.get(md5, content.length),
+						is((ShockNodeId) null));
+				index.put(md5, content.length, copyid);
+			}
+			// a partial line is ignored
+			Files.write(indexFile, "d41d8cd98f00b204e9800998ecf8427e 0 ab".getBytes(),
+					StandardOpenOption.APPEND);
+			try (final UploadIndex index = UploadIndex.open(indexFile)) {
+				assertThat("incorrect index size", index.size(), is(1));
+				assertThat("incorrect index", index.get(md5, content.length), is(copyid));
+			}
+			assertThat("index not compacted", Files.readAllLines(indexFile), is(Arrays.asList(
+					"shock-upload-index 1", md5 + " " + content.length + " " + copyid.getId())));
+
+			Files.write(indexFile, "foo\n".getBytes());
+			try {
+				UploadIndex.open(indexFile);
+				fail("expected exception");
+			} catch (IOException e) {
+				assertThat("incorrect exception", e.getMessage(),
+						is(indexFile + " is not a shock upload index"));
+			}
+		} finally {
+			bsc1.close();
+			bsc2.close();
+			Files.delete(file);
+			Files.deleteIfExists(indexFile);
+		}
+	}
+
+	@Test
+	public void compression() throws Exception {
+		final StringBuilder sb = new StringBuilder();
+		final Random r = new Random(42);
+		for (int i = 0; i < 2000; i++) {
+			sb.append(">seq" + i + "\n");
+			for (int j = 0; j < 60; j++) {
+				sb.append("ACGT".charAt(r.nextInt(4)));
+			}
+			sb.append("\n");
+		}
+		final byte[] content = sb.toString().getBytes();
+		final Path file = Files.createTempFile("ShockTransportTest_compression", ".tmp");
+		final BasicShockClient plain = BasicShockClient.getBuilder(SERVER.getURL())
+				.withToken(new AuthToken("user1", "user1"))
+				.withAllowSelfSignedCerts(true)
+				.build();
+		try {
+			Files.write(file, content);
+			for (final ShockTransport t: ShockTransport.values()) {
+				final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+						.withToken(new AuthToken("user1", "user1"))
+						.withAllowSelfSignedCerts(true)
+						.withTransport(t)
+						.withChecksumVerification(true)
+						.withCompression(ShockCompression.GZIP, 6)
+						.build();
+				try {
+					final List<ShockNode> nodes = new LinkedList<>();
+					nodes.add(bsc.addNode(
+							new ByteArrayInputStream(content), content.length, "f", "FASTA"));
+					nodes.add(bsc.addNode(file, "f", "FASTA"));
+					nodes.add(bsc.addNodeAsync(new ByteArrayInputStream(content),
+							content.length, "f", "FASTA").get());
+					nodes.add(bsc.addNodeAsync(file, "f", "FASTA").get());
+					try (final ShockNodeWriter w = bsc.createNodeWriter(
+							"f", "FASTA", content.length)) {
+						w.write(content);
+						nodes.add(w.finish());
+					}
+					for (final ShockNode sn: nodes) {
+						assertThat("incorrect format", sn.getFormat(), is("FASTA;codec=gzip"));
+						assertThat("incorrect codec", sn.getCompression(),
+								is(ShockCompression.GZIP));
+						assertThat("file not compressed",
+								sn.getFileInformation().getSize() < content.length / 2,
+								is(true));
+						assertThat("incorrect md5", sn.getUploadMD5(),
+								is(sn.getFileInformation().getChecksum("md5")));
+
+						assertThat("incorrect file", IOUtils.toByteArray(bsc.getFile(sn)),
+								is(content));
+						assertThat("incorrect file", IOUtils.toByteArray(
+								bsc.getFile(sn.getId())), is(content));
+						ByteArrayOutputStream bos = new ByteArrayOutputStream();
+						bsc.getFile(sn.getId(), bos);
+						assertThat("incorrect file", bos.toByteArray(), is(content));
+						bos = new ByteArrayOutputStream();
+						bsc.getFileAsync(sn, bos).get();
+						assertThat("incorrect file", bos.toByteArray(), is(content));
+						bos = new ByteArrayOutputStream();
+						bsc.getFileAsync(sn.getId(), bos).get();
+						assertThat("incorrect file", bos.toByteArray(), is(content));
+
+						// clients without compression get the compressed file
+						assertThat("incorrect file", IOUtils.toByteArray(new GZIPInputStream(
+								plain.getFile(sn.getId()))), is(content));
+					}
+					// uncompressed nodes are unaffected
+					final ShockNode sn = plain.addNode(
+							new ByteArrayInputStream(content), content.length, "f", "FASTA");
+					assertThat("incorrect codec", sn.getCompression(),
+							is((ShockCompression) null));
+					assertThat("incorrect file", IOUtils.toByteArray(bsc.getFile(sn.getId())),
+							is(content));
+				} finally {
+					bsc.close();
+				}
+			}
+			try {
+				BasicShockClient.getBuilder(SERVER.getURL())
+						.withCompression(ShockCompression.GZIP, 10);
+				fail("expected exception");
+			} catch (IllegalArgumentException e) {
+				assertThat("incorrect exception", e.getMessage(),
+						is("level must be between 0 and 9 for gzip compression"));
+			}
+		} finally {
+			plain.close();
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void getNodes() throws Exception {
+		final List<ShockNodeId> ids = new LinkedList<>();
+		for (int i = 0; i < 20; i++) {
+			ids.add(new ShockNodeId(SERVER.addNode("user1", ("data" + i).getBytes(), "f" + i,
+					null)));
+		}
+		final ShockNodeId missing = new ShockNodeId(UUID.randomUUID().toString());
+		final List<ShockNodeId> request = new LinkedList<>(ids);
+		request.add(5, missing);
+		request.add(ids.get(3)); // duplicate
+		for (final ShockTransport t: ShockTransport.values()) {
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.build();
+			try {
+				SERVER.setLatencyMS(50);
+				final int requests = SERVER.getRequestCount();
+				final long start = System.nanoTime();
+				final BulkResult<ShockNode> res = bsc.getNodes(request, 5);
+				// 21 requests, at most 5 at a time
+				assertThat("requests not bounded for " + t,
+						System.nanoTime() - start >= 200_000_000L, is(true));
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(21));
+				assertThat("incorrect ids for " + t,
+						new LinkedList<>(res.getResults().keySet()), is(ids));
+				for (int i = 0; i < ids.size(); i++) {
+					assertThat("incorrect node for " + t, res.getResults().get(ids.get(i))
+							.getFileInformation().getName(), is("f" + i));
+				}
+				assertThat("incorrect failures for " + t,
+						new HashSet<>(res.getFailures().keySet()),
+						is(new HashSet<>(Arrays.asList(missing))));
+				final ShockNoNodeException e =
+						(ShockNoNodeException) res.getFailures().get(missing);
+				assertThat("incorrect message for " + t, e.getMessage(), is("Node not found"));
+				assertThat("incorrect complete for " + t, res.isComplete(), is(false));
+			} finally {
+				SERVER.setLatencyMS(0);
+				bsc.close();
+			}
+		}
+	}
+
+	@Test
+	public void deleteNodes() throws Exception {
+		for (final ShockTransport t: ShockTransport.values()) {
+			final List<ShockNodeId> owned = new LinkedList<>();
+			for (int i = 0; i < 10; i++) {
+				owned.add(new ShockNodeId(SERVER.addNode("user1", new byte[] {1}, "f", null)));
+			}
+			final ShockNodeId other = new ShockNodeId(
+					SERVER.addNode("user2", new byte[] {1}, "f", null));
+			final ShockNodeId missing = new ShockNodeId(UUID.randomUUID().toString());
+			final List<ShockNodeId> request = new LinkedList<>(owned);
+			request.add(3, other);
+			request.add(0, missing);
+			request.add(owned.get(0)); // duplicate
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.build();
+			try {
+				final long start = System.nanoTime();
+				final DeleteResult res = bsc.deleteNodes(request, BulkOptions.getBuilder()
+						.withConcurrency(4).withMaxRequestsPerSecond(50).build());
+				// 12 requests, at most one every 20ms
+				assertThat("requests not rate limited for " + t,
+						System.nanoTime() - start >= 220_000_000L, is(true));
+				assertThat("incorrect deleted for " + t, new LinkedList<>(res.getDeleted()),
+						is(owned));
+				for (final ShockNodeId id: owned) {
+					assertThat("node not deleted for " + t, SERVER.hasNode(id.getId()),
+							is(false));
+				}
+				assertThat("incorrect not found for " + t, new LinkedList<>(res.getNotFound()),
+						is(Arrays.asList(missing)));
+				assertThat("incorrect unauthorized for " + t,
+						new LinkedList<>(res.getUnauthorized().keySet()),
+						is(Arrays.asList(other)));
+				assertThat("incorrect code for " + t,
+						res.getUnauthorized().get(other).getHttpCode(), is(401));
+				assertThat("node deleted for " + t, SERVER.hasNode(other.getId()), is(true));
+				assertThat("incorrect failed for " + t, res.getFailed().isEmpty(), is(true));
+				assertThat("incorrect complete for " + t, res.isComplete(), is(false));
+			} finally {
+				bsc.close();
+			}
+		}
+	}
+
+	@Test
+	public void updateACLs() throws Exception {
+		for (final ShockTransport t: ShockTransport.values()) {
+			final ShockNodeId id1 = new ShockNodeId(
+					SERVER.addNode("user1", new byte[] {1}, "f", null));
+			final ShockNodeId id2 = new ShockNodeId(
+					SERVER.addNode("user1", new byte[] {1}, "f", null));
+			final ShockNodeId missing = new ShockNodeId(UUID.randomUUID().toString());
+			final ACLBatch batch = ACLBatch.getBuilder()
+					.addToNodeAcl(id1, Arrays.asList("a", "b"), ShockACLType.READ)
+					.addToNodeAcl(id2, Arrays.asList("a"), ShockACLType.READ)
+					.addToNodeAcl(id1, Arrays.asList("c"), ShockACLType.READ)
+					.removeFromNodeAcl(id1, Arrays.asList("b"), ShockACLType.READ)
+					.addToNodeAcl(id1, Arrays.asList("a"), ShockACLType.WRITE)
+					.removeFromNodeAcl(id1, Arrays.asList("a"), ShockACLType.WRITE)
+					.removeFromNodeAcl(id2, Arrays.asList("a"), ShockACLType.READ)
+					.addToNodeAcl(id2, Arrays.asList("a"), ShockACLType.READ)
+					.addToNodeAcl(missing, Arrays.asList("a"), ShockACLType.READ)
+					.build();
+			// id1: add read a, c, remove read b, remove write a. id2: add read a.
+			assertThat("incorrect request count", batch.getRequestCount(), is(5));
+			assertThat("incorrect nodes", batch.getNodes(), is(Arrays.asList(id1, id2, missing)));
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.build();
+			try {
+				final int requests = SERVER.getRequestCount();
+				final BulkResult<ShockACL> res = bsc.updateACLs(
+						batch, BulkOptions.getBuilder().withConcurrency(3).build());
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(5));
+				assertThat("incorrect ids for " + t,
+						new LinkedList<>(res.getResults().keySet()), is(Arrays.asList(id1, id2)));
+				assertThat("incorrect read acl for " + t,
+						getUserNames(res.getResults().get(id1).getRead()),
+						is(Arrays.asList("user1", "a", "c")));
+				assertThat("incorrect write acl for " + t,
+						getUserNames(res.getResults().get(id1).getWrite()),
+						is(Arrays.asList("user1")));
+				assertThat("incorrect read acl for " + t,
+						getUserNames(bsc.getACLs(id2).getRead()),
+						is(Arrays.asList("user1", "a")));
+				assertThat("incorrect failures for " + t,
+						new LinkedList<>(res.getFailures().keySet()),
+						is(Arrays.asList(missing)));
+				assertThat("incorrect exception for " + t,
+						res.getFailures().get(missing) instanceof ShockNoNodeException,
+						is(true));
+			} finally {
+				bsc.close();
+			}
+		}
+	}
+
+	private List<String> getUserNames(final List<ShockUserId> users) {
+		final List<String> ret = new LinkedList<>();
+		for (final ShockUserId u: users) {
+			ret.add(u.getUsername());
+		}
+		return ret;
+	}
+
+	@Test
+	public void getACLsBulk() throws Exception {
+		final List<ShockNodeId> ids = new LinkedList<>();
+		for (int i = 0; i < 20; i++) {
+			ids.add(new ShockNodeId(SERVER.addNode("user1", new byte[] {1}, "f", null)));
+		}
+		final ShockNodeId missing = new ShockNodeId(UUID.randomUUID().toString());
+		ids.add(5, missing);
+		final Path output = Files.createTempFile("acls", ".tsv");
+		for (final ShockTransport t: ShockTransport.values()) {
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.build();
+			try {
+				bsc.addToNodeAcl(ids.get(0), Arrays.asList("user2", "user3"), ShockACLType.READ);
+				bsc.setPubliclyReadable(ids.get(0), true);
+				final Map<ShockNodeId, ShockACL> acls = new ConcurrentHashMap<>();
+				final Map<ShockNodeId, Exception> failures = new ConcurrentHashMap<>();
+				bsc.getACLs(ids.iterator(), BulkOptions.getBuilder().withConcurrency(4).build(),
+						(id, acl, err) -> {
+							if (err == null) {
+								acls.put(id, acl);
+							} else {
+								failures.put(id, err);
+							}
+						});
+				assertThat("incorrect result count for " + t, acls.size(), is(20));
+				assertThat("incorrect read acl for " + t,
+						getUserNames(acls.get(ids.get(0)).getRead()),
+						is(Arrays.asList("user1", "user2", "user3")));
+				assertThat("incorrect failures for " + t, failures.keySet(),
+						is(new HashSet<>(Arrays.asList(missing))));
+				assertThat("incorrect exception for " + t,
+						failures.get(missing) instanceof ShockNoNodeException, is(true));
+
+				final long failed = bsc.getACLs(ids.iterator(), BulkOptions.getBuilder()
+						.withConcurrency(4).build(), output);
+				assertThat("incorrect failure count for " + t, failed, is(1L));
+				final List<String> lines = Files.readAllLines(output);
+				assertThat("incorrect line count for " + t, lines.size(), is(21));
+				assertThat("incorrect line for " + t, lines.contains(ids.get(0).getId() +
+						"\tuser1\tuser1,user2,user3\tuser1\tuser1\ttrue"), is(true));
+				assertThat("incorrect line for " + t, lines.contains(ids.get(1).getId() +
+						"\tuser1\tuser1\tuser1\tuser1\tfalse"), is(true));
+				assertThat("incorrect error line for " + t, lines.contains(missing.getId() +
+						"\tERROR\tShockNoNodeException: Node not found"), is(true));
+
+				// a failing callback stops the requests and its exception is thrown
+				final AtomicInteger calls = new AtomicInteger();
+				try {
+					bsc.getACLs(ids.iterator(), BulkOptions.getBuilder().withConcurrency(1)
+							.build(), (id, acl, err) -> {
+								calls.incrementAndGet();
+								throw new IllegalStateException("sink failed");
+							});
+					fail("expected exception");
+				} catch (IllegalStateException e) {
+					assertThat("incorrect message for " + t, e.getMessage(), is("sink failed"));
+				}
+				assertThat("incorrect call count for " + t, calls.get(), is(1));
+			} finally {
+				bsc.close();
+			}
+		}
+		Files.delete(output);
+	}
+
+	@Test
+	public void cache() throws Exception {
+		for (final ShockTransport t: ShockTransport.values()) {
+			final ShockNodeId id1 = new ShockNodeId(
+					SERVER.addNode("user1", new byte[] {1}, "f", null));
+			final ShockNodeId id2 = new ShockNodeId(
+					SERVER.addNode("user1", new byte[] {1}, "f", null));
+			final ShockNodeId id3 = new ShockNodeId(
+					SERVER.addNode("user1", new byte[] {1}, "f", null));
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.withCache(CacheOptions.getBuilder()
+							.withMaxNodes(2)
+							.withTimeToLiveMS(500)
+							.build())
+					.build();
+			try {
+				int requests = SERVER.getRequestCount();
+				final ShockNode sn = bsc.getNode(id1);
+				assertThat("incorrect node for " + t, bsc.getNode(id1).getId(), is(sn.getId()));
+				bsc.getACLs(id1);
+				bsc.getACLs(id1);
+				assertThat("incorrect node for " + t, bsc.getNodeAsync(id1).get().getId(),
+						is(sn.getId()));
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(2));
+
+				// changing the ACLs invalidates the node
+				bsc.addToNodeAcl(id1, Arrays.asList("user2"), ShockACLType.READ);
+				assertThat("incorrect read acl for " + t,
+						getUserNames(bsc.getACLsAsync(id1).get().getRead()),
+						is(Arrays.asList("user1", "user2")));
+
+				// the least recently used node is evicted
+				bsc.getNode(id2);
+				bsc.getNode(id3); // evicts id1
+				bsc.getNode(id2);
+				bsc.getNode(id1); // evicts id3
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(7));
+
+				Thread.sleep(600);
+				bsc.getNode(id2);
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(8));
+
+				bsc.deleteNode(id1);
+				try {
+					bsc.getNode(id1);
+					fail("expected exception");
+				} catch (ShockNoNodeException e) {
+					// expected
+				}
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(10));
+
+				final CacheStats stats = bsc.getCacheStats();
+				assertThat("incorrect hits for " + t, stats.getHitCount(), is(4L));
+				assertThat("incorrect misses for " + t, stats.getMissCount(), is(8L));
+				assertThat("incorrect evictions for " + t, stats.getEvictionCount(), is(2L));
+				assertThat("incorrect expirations for " + t, stats.getExpirationCount(), is(1L));
+				assertThat("incorrect invalidations for " + t,
+						stats.getInvalidationCount(), is(2L));
+				assertThat("incorrect size for " + t, stats.getSize(), is(1));
+
+				// each caller gets a copy of a cached node, so deleting one doesn't affect others
+				final ShockNode copy1 = bsc.getNode(id3);
+				final ShockNode copy2 = bsc.getNode(id3);
+				copy1.delete();
+				assertThat("incorrect node for " + t, copy2.getFileInformation().getSize(),
+						is(1L));
+			} finally {
+				bsc.close();
+			}
+		}
+	}
+
+	@Test
+	public void requestCoalescing() throws Exception {
+		final byte[] content = new byte[100_000];
+		new Random(7).nextBytes(content);
+		final ShockNodeId id = new ShockNodeId(SERVER.addNode("user1", content, "f", null));
+		final ShockNodeId missing = new ShockNodeId(UUID.randomUUID().toString());
+		final Path tempDir = Files.createTempDirectory("coalesce");
+		final ExecutorService exe = Executors.newFixedThreadPool(20);
+		try {
+			for (final ShockTransport t: ShockTransport.values()) {
+				final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+						.withToken(new AuthToken("user1", "user1"))
+						.withAllowSelfSignedCerts(true)
+						.withTransport(t)
+						.withRequestCoalescing(true, tempDir)
+						.build();
+				try {
+					// keep the first request in flight while the others join it
+					SERVER.setLatencyMS(200);
+					int requests = SERVER.getRequestCount();
+					final List<Future<ShockNode>> nodes = new LinkedList<>();
+					for (int i = 0; i < 10; i++) {
+						nodes.add(exe.submit(() -> bsc.getNode(id)));
+						nodes.add(bsc.getNodeAsync(id));
+					}
+					for (final Future<ShockNode> f: nodes) {
+						assertThat("incorrect node for " + t, f.get().getId(), is(id));
+					}
+					assertThat("incorrect node request count for " + t,
+							SERVER.getRequestCount() - requests, is(1));
+
+					requests = SERVER.getRequestCount();
+					final List<Future<ShockACL>> acls = new LinkedList<>();
+					for (int i = 0; i < 10; i++) {
+						acls.add(exe.submit(() -> bsc.getACLs(id)));
+						acls.add(bsc.getACLsAsync(id));
+					}
+					for (final Future<ShockACL> f: acls) {
+						assertThat("incorrect owner for " + t,
+								f.get().getOwner().getUsername(), is("user1"));
+					}
+					assertThat("incorrect acl request count for " + t,
+							SERVER.getRequestCount() - requests, is(1));
+
+					requests = SERVER.getRequestCount();
+					final List<Future<byte[]>> files = new LinkedList<>();
+					for (int i = 0; i < 10; i++) {
+						files.add(exe.submit(() -> {
+							final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+							bsc.getFile(id, baos);
+							return baos.toByteArray();
+						}));
+						files.add(exe.submit(() -> {
+							try (final InputStream is = bsc.getFile(id)) {
+								return IOUtils.toByteArray(is);
+							}
+						}));
+					}
+					for (final Future<byte[]> f: files) {
+						assertThat("incorrect file for " + t, f.get(), is(content));
+					}
+					assertThat("incorrect file request count for " + t,
+							SERVER.getRequestCount() - requests, is(1));
+					assertThat("temp files not deleted for " + t,
+							Files.list(tempDir).count(), is(0L));
+
+					// a caller that isn't joined by others reads the response directly
+					try (final InputStream is = bsc.getFile(id)) {
+						assertThat("unexpected temp file for " + t,
+								Files.list(tempDir).count(), is(0L));
+						assertThat("incorrect file for " + t, IOUtils.toByteArray(is),
+								is(content));
+					}
+
+					requests = SERVER.getRequestCount();
+					final List<Future<ShockNode>> missingNodes = new LinkedList<>();
+					for (int i = 0; i < 10; i++) {
+						missingNodes.add(exe.submit(() -> bsc.getNode(missing)));
+					}
+					for (final Future<ShockNode> f: missingNodes) {
+						try {
+							f.get();
+							fail("expected exception");
+						} catch (ExecutionException e) {
+							assertThat("incorrect exception for " + t,
+									e.getCause() instanceof ShockNoNodeException, is(true));
+						}
+					}
+					assertThat("incorrect missing node request count for " + t,
+							SERVER.getRequestCount() - requests, is(1));
+				} finally {
+					SERVER.setLatencyMS(0);
+					bsc.close();
+				}
+			}
+		} finally {
+			exe.shutdown();
+			Files.delete(tempDir);
+		}
+	}
+
+	@Test
+	public void missingNodeCache() throws Exception {
+		final ShockNodeId missing = new ShockNodeId(UUID.randomUUID().toString());
+		for (final ShockTransport t: ShockTransport.values()) {
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.withCache(CacheOptions.getBuilder()
+							.withMissingNodeTimeToLiveMS(500)
+							.build())
+					.build();
+			try {
+				final int requests = SERVER.getRequestCount();
+				for (int i = 0; i < 3; i++) {
+					failGetNode(bsc, missing);
+				}
+				try {
+					bsc.getFile(missing, new ByteArrayOutputStream());
+					fail("expected exception");
+				} catch (ShockNoNodeException e) {
+					assertThat("incorrect message", e.getMessage(), is("Node not found"));
+				}
+				try {
+					bsc.getFile(missing);
+					fail("expected exception");
+				} catch (ShockNoNodeException e) {
+					assertThat("incorrect message", e.getMessage(), is("Node not found"));
+				}
+				try {
+					bsc.getNodeAsync(missing).get();
+					fail("expected exception");
+				} catch (ExecutionException e) {
+					assertThat("incorrect exception for " + t,
+							e.getCause() instanceof ShockNoNodeException, is(true));
+				}
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(1));
+
+				Thread.sleep(600);
+				failGetNode(bsc, missing);
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(2));
+
+				final CacheStats stats = bsc.getCacheStats();
+				assertThat("incorrect missing hits for " + t,
+						stats.getMissingNodeHitCount(), is(5L));
+				assertThat("incorrect misses for " + t, stats.getMissCount(), is(2L));
+				assertThat("incorrect expirations for " + t, stats.getExpirationCount(), is(1L));
+			} finally {
+				bsc.close();
+			}
+		}
+	}
+
+	private void failGetNode(final BasicShockClient bsc, final ShockNodeId id)
+			throws Exception {
+		try {
+			bsc.getNode(id);
+			fail("expected exception");
+		} catch (ShockNoNodeException e) {
+			assertThat("incorrect message", e.getMessage(), is("Node not found"));
+		}
+	}
+
+	@Test
+	public void fileCache() throws Exception {
+		final List<byte[]> contents = new LinkedList<>();
+		final List<ShockNodeId> ids = new LinkedList<>();
+		final Random r = new Random(11);
+		for (int i = 0; i < 3; i++) {
+			final byte[] content = new byte[1000];
+			r.nextBytes(content);
+			contents.add(content);
+			ids.add(new ShockNodeId(SERVER.addNode("user1", content, "f", null)));
+		}
+		for (final ShockTransport t: ShockTransport.values()) {
+			final Path dir = Files.createTempDirectory("filecache");
+			final FileCache cache = FileCache.open(dir, 2500);
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.withFileCache(cache)
+					.build();
+			try {
+				final List<ShockNode> nodes = new LinkedList<>();
+				for (final ShockNodeId id: ids) {
+					nodes.add(bsc.getNode(id));
+				}
+				// the first read downloads the file into the cache
+				int requests = SERVER.getRequestCount();
+				for (int i = 0; i < 3; i++) {
+					try (final InputStream is = bsc.getFile(nodes.get(0))) {
+						assertThat("incorrect file for " + t, Arrays.equals(
+								IOUtils.toByteArray(is), contents.get(0)), is(true));
+					}
+				}
+				final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				bsc.getFileAsync(nodes.get(0), baos).get();
+				assertThat("incorrect file for " + t,
+						Arrays.equals(baos.toByteArray(), contents.get(0)), is(true));
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(1));
+
+				// the least recently read file is evicted to stay in budget
+				for (int i = 1; i < 3; i++) {
+					Thread.sleep(20);
+					try (final InputStream is = bsc.getFile(nodes.get(i))) {
+						IOUtils.toByteArray(is);
+					}
+				}
+				assertThat("incorrect cache size for " + t, cache.getSize(), is(2000L));
+				assertThat("incorrect eviction for " + t,
+						Files.exists(dir.resolve(getMD5(nodes.get(0)))), is(false));
+
+				// a corrupt file is removed and downloaded again
+				final byte[] corrupt = new byte[1000];
+				r.nextBytes(corrupt);
+				Files.write(dir.resolve(getMD5(nodes.get(2))), corrupt);
+				try (final InputStream is = bsc.getFile(nodes.get(2))) {
+					IOUtils.toByteArray(is);
+					fail("expected exception");
+				} catch (ShockChecksumException e) {
+					assertThat("incorrect expected md5 for " + t, e.getExpected(),
+							is(getMD5(nodes.get(2))));
+				}
+				assertThat("corrupt file not removed for " + t,
+						Files.exists(dir.resolve(getMD5(nodes.get(2)))), is(false));
+				requests = SERVER.getRequestCount();
+				try (final InputStream is = bsc.getFile(nodes.get(2))) {
+					assertThat("incorrect file for " + t, Arrays.equals(
+							IOUtils.toByteArray(is), contents.get(2)), is(true));
+				}
+				assertThat("incorrect request count for " + t,
+						SERVER.getRequestCount() - requests, is(1));
+			} finally {
+				bsc.close();
+			}
+		}
+	}
+
+	private static String getMD5(final ShockNode node) {
+		return node.getFileInformation().getChecksum("md5");
+	}
+
+	@Test
+	public void channelCache() throws Exception {
+		final int block = 256 * 1024;
+		final byte[] content = new byte[40 * block + 10];
+		new Random(42).nextBytes(content);
+		final ShockNodeId id = new ShockNodeId(SERVER.addNode("user1", content, "f", null));
+		final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+				.withToken(new AuthToken("user1", "user1"))
+				.withAllowSelfSignedCerts(true)
+				.build();
+		try (final SeekableByteChannel sbc = bsc.openChannel(id)) {
+			// a footer is one request, and then cached
+			int requests = SERVER.getRequestCount();
+			for (int i = 0; i < 3; i++) {
+				final ByteBuffer bb = ByteBuffer.allocate(10);
+				sbc.position(content.length - 10);
+				sbc.read(bb);
+				assertThat("incorrect footer", Arrays.equals(bb.array(),
+						Arrays.copyOfRange(content, content.length - 10, content.length)),
+						is(true));
+			}
+			assertThat("incorrect request count", SERVER.getRequestCount() - requests, is(1));
+
+			// sequential reads fetch 1, 2, 4, 8, 16, 16 blocks, leaving the final block
+			// cached from the footer read, which breaks the sequence
+			requests = SERVER.getRequestCount();
+			sbc.position(0);
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			IOUtils.copy(Channels.newInputStream(sbc), bos);
+			assertThat("incorrect file", Arrays.equals(bos.toByteArray(), content), is(true));
+			assertThat("incorrect request count", SERVER.getRequestCount() - requests, is(6));
+		} finally {
+			bsc.close();
+		}
+	}
+
+	@Test
+	public void expectContinue() throws Exception {
+		final byte[] content = new byte[2000000];
+		new Random(42).nextBytes(content);
+		for (final ShockTransport t: ShockTransport.values()) {
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.withExpectContinueThreshold(1000000)
+					.build();
+			try {
+				// accepted uploads are unaffected
+				final ShockNode sn = bsc.addNode(
+						new ByteArrayInputStream(content), content.length, "f", null);
+				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				bsc.getFile(sn, bos);
+				assertThat("incorrect file", Arrays.equals(bos.toByteArray(), content),
+						is(true));
+				assertThat("incorrect file", bsc.addNodeAsync(new ByteArrayInputStream(
+						content), content.length, "f", null).get().getFileInformation()
+						.getSize(), is((long) content.length));
+
+				SERVER.setRejectUploads(true);
+				long bytes = SERVER.getRejectedUploadBytes();
+				try {
+					bsc.addNode(new ByteArrayInputStream(content), content.length, "f", null);
+					fail("expected exception");
+				} catch (ShockAuthorizationException e) {
+					checkRejected(e, t);
+				}
+				try {
+					bsc.addNodeAsync(new ByteArrayInputStream(content), content.length,
+							"f", null).get();
+					fail("expected exception");
+				} catch (ExecutionException e) {
+					checkRejected((ShockAuthorizationException) e.getCause(), t);
+				}
+				try (final ShockNodeWriter w = bsc.createNodeWriter("f", null, -1)) {
+					w.write(content);
+					fail("expected exception");
+				} catch (IOException e) {
+					checkRejected((ShockAuthorizationException) e.getCause(), t);
+				}
+				// over HTTP/2 the client sends the body regardless, but flow control limits it
+				// to the stream window
+				final long sent = SERVER.getRejectedUploadBytes() - bytes;
+				if (t == ShockTransport.HTTP2) {
+					assertThat("body sent to server for " + t, sent <= 65535, is(true));
+				} else {
+					assertThat("body sent to server for " + t, sent, is(0L));
+				}
+				
+				// below the threshold, the body is sent before the upload is rejected
+				bytes = SERVER.getRejectedUploadBytes();
+				try {
+					bsc.addNode(new ByteArrayInputStream(content), 999999, "f", null);
+					fail("expected exception");
+				} catch (ShockAuthorizationException e) {
+					checkRejected(e, t);
+				}
+				assertThat("body not sent to server for " + t,
+						SERVER.getRejectedUploadBytes() - bytes > 999999, is(true));
+			} finally {
+				SERVER.setRejectUploads(false);
+				bsc.close();
+			}
+		}
+	}
+	
+	@Test
+	public void parallelUploadWithoutParts() throws Exception {
+		// the stand in server can't assemble parts, so the file is sent in a single request
+		final byte[] content = new byte[250001];
+		new Random(12).nextBytes(content);
+		final Path file = Files.createTempFile("ShockTransportTest_parallelUpload", ".tmp");
+		Files.write(file, content);
+		final ParallelUploadOptions opts = ParallelUploadOptions.getBuilder()
+				.withPartSize(100000).withConcurrency(2).build();
+		for (final ShockTransport t: ShockTransport.values()) {
+			final BasicShockClient bsc = BasicShockClient.getBuilder(SERVER.getURL())
+					.withToken(new AuthToken("user1", "user1"))
+					.withAllowSelfSignedCerts(true)
+					.withTransport(t)
+					.build();
+			try {
+				final ShockNode sn = bsc.addNode(file, "f", "UTF-8", opts);
+				assertThat("incorrect filename for " + t, sn.getFileInformation().getName(),
+						is("f"));
+				assertThat("incorrect format for " + t, sn.getFormat(), is("UTF-8"));
+				assertThat("incorrect size for " + t, sn.getFileInformation().getSize(),
+						is((long) content.length));
+				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				bsc.getFile(sn, bos);
+				assertThat("incorrect file for " + t, Arrays.equals(bos.toByteArray(), content),
+						is(true));
+				bsc.deleteNode(sn.getId());
+			} finally {
+				bsc.close();
+			}
+		}
+		Files.delete(file);
+	}
+	
+	private void checkRejected(final ShockAuthorizationException e, final ShockTransport t) {
+		assertThat("incorrect code for " + t, e.getHttpCode(), is(401));
+		assertThat("incorrect message for " + t, e.getMessage(),
+				is("Invalid authorization header or content"));
+	}
+}
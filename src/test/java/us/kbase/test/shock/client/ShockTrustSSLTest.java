@@ -27,13 +27,10 @@ import us.kbase.testutils.controllers.mongo.MongoController;
 
 public class ShockTrustSSLTest {
 	
-	//TODO remove this test when trusted vs. no trust SLL handling is fixed
-	/* Currently the HttpClient in the BasicShockClient is static and has
-	 * two flavors - one is std and one trusts self signed certificates.
-	 * However, the client is stored statically and is memoized, so the first
-	 * type that gets built is used for all further BSC instances. This
-	 * test makes sure the basic client operations work for clients that trust
-	 * all SSCs. 
+	/* The HttpClients shared by BasicShockClients created via the constructors
+	 * are static and have two flavors - one is std and one trusts self signed
+	 * certificates. This test makes sure the basic client operations work for
+	 * clients that trust all SSCs. 
 	 */
 	
 	private static MongoController MONGO;
@@ -124,6 +121,20 @@ public class ShockTrustSSLTest {
 		addGetDeleteNodeBasic(bsc);
 	}
 
+	@Test
+	public void addGetDeleteNodeBasicTrustSSLBuilder() throws Exception {
+		final BasicShockClient bsc = BasicShockClient.getBuilder(
+				new URL("http://localhost:" + BLOB.getPort()))
+				.withToken(TOKEN)
+				.withAllowSelfSignedCerts(true)
+				.build();
+		try {
+			addGetDeleteNodeBasic(bsc);
+		} finally {
+			bsc.close();
+		}
+	}
+
 	private void addGetDeleteNodeBasic(BasicShockClient bsc)
 			throws IOException, ShockHttpException,
 			Exception {
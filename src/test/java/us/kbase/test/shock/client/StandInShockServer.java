@@ -0,0 +1,721 @@
+package us.kbase.test.shock.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpVersion;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.message.BasicHttpResponse;
+import org.apache.hc.core5.http.nio.AsyncDataConsumer;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.AsyncFilterChain;
+import org.apache.hc.core5.http.nio.AsyncFilterHandler;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityProducer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.http2.ssl.H2ServerTlsStrategy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.apache.hc.core5.ssl.SSLContexts;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/** A minimal, in memory stand in for a Shock server, for tests and benchmarks that need
+ * control over server behavior that a real Shock server doesn't provide.
+ *
+ * The server speaks HTTP/1.1 over http, or HTTP/1.1 and HTTP/2, negotiated via ALPN, over
+ * https with a self signed certificate for localhost. It supports getting the server root,
+ * creating nodes from multipart forms (including copies), getting, downloading (including the
+ * seek and length parameters) and deleting nodes, and getting and altering ACLs. Permissions
+ * are not enforced, other than that only the owner may delete a node; the user name is the
+ * token.
+ *
+ * A latency can be added to every response to simulate a high latency network, and an
+ * additional latency to the first response on each new connection to simulate TCP and TLS
+ * setup. Downloads can be made to stall part way through to simulate stuck connections, or be
+ * corrupted to simulate data damaged in transit. Uploads can be rejected as soon as the
+ * request headers arrive, as shock does for an invalid token. Downloading a node without a file
+ * returns a 400 error, as shock does, or optionally an empty response.
+ */
+public class StandInShockServer implements AutoCloseable {
+
+	private static final String OAUTH = "OAuth ";
+	private static final List<String> ACL_TYPES = Arrays.asList("read", "write", "delete");
+
+	private final HttpAsyncServer server;
+	private final int port;
+	private final boolean tls;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+			r -> {
+				final Thread t = new Thread(r, "StandInShockServer-scheduler");
+				t.setDaemon(true);
+				return t;
+			});
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+	private final Set<SocketAddress> clients = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger requests = new AtomicInteger();
+	private volatile long latencyMS = 0;
+	private volatile long connectionSetupMS = 0;
+	private final AtomicInteger stallingDownloads = new AtomicInteger();
+	private volatile long stallAfterBytes = 0;
+	private final AtomicInteger corruptDownloads = new AtomicInteger();
+	private final AtomicInteger corruptUploads = new AtomicInteger();
+	private volatile boolean rejectUploads = false;
+	private volatile boolean emptyNoFileDownloads = false;
+	private final AtomicLong rejectedUploadBytes = new AtomicLong();
+
+	private static class Node {
+
+		private final String id;
+		private final String owner;
+		private final byte[] data;
+		private final String filename;
+		private final String format;
+		private final Map<String, List<String>> acls = new HashMap<>();
+		private boolean publicRead = false;
+
+		private Node(
+				final String owner,
+				final byte[] data,
+				final String filename,
+				final String format) {
+			this.id = UUID.randomUUID().toString();
+			this.owner = owner;
+			this.data = data;
+			this.filename = filename;
+			this.format = format;
+			for (final String type: ACL_TYPES) {
+				acls.put(type, new LinkedList<>(Arrays.asList(owner)));
+			}
+		}
+	}
+
+	/** Start an http server on a random free port.
+	 * @throws Exception if the server could not be started.
+	 */
+	public StandInShockServer() throws Exception {
+		this(false);
+	}
+
+	/** Start a server on a random free port.
+	 * @param tls true to start an https server that supports HTTP/2. Clients must trust self
+	 * signed certificates.
+	 * @throws Exception if the server could not be started.
+	 */
+	public StandInShockServer(final boolean tls) throws Exception {
+		this.tls = tls;
+		final H2ServerBootstrap b = H2ServerBootstrap.bootstrap()
+				.setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+				.setIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(2).build())
+				.register("*", new Handler())
+				.addFilterFirst("reject-uploads", new RejectUploadsFilter());
+		if (tls) {
+			final char[] pwd = "standin".toCharArray();
+			final KeyStore ks = KeyStore.getInstance("PKCS12");
+			try (final InputStream is = getClass().getResourceAsStream("standin.p12")) {
+				ks.load(is, pwd);
+			}
+			b.setTlsStrategy(new H2ServerTlsStrategy(
+					SSLContexts.custom().loadKeyMaterial(ks, pwd).build()));
+		}
+		server = b.create();
+		server.start();
+		final ListenerEndpoint ep = server.listen(new InetSocketAddress("localhost", 0),
+				tls ? URIScheme.HTTPS : URIScheme.HTTP).get();
+		port = ((InetSocketAddress) ep.getAddress()).getPort();
+	}
+
+	/** Get the URL of the server.
+	 * @return the URL.
+	 * @throws Exception if the URL could not be created.
+	 */
+	public URL getURL() throws Exception {
+		return new URL((tls ? "https" : "http") + "://localhost:" + port);
+	}
+
+	/** Set a latency added to every response.
+	 * @param latencyMS the latency in milliseconds.
+	 */
+	public void setLatencyMS(final long latencyMS) {
+		this.latencyMS = latencyMS;
+	}
+
+	/** Set a latency added to the first response on every new connection.
+	 * @param connectionSetupMS the latency in milliseconds.
+	 */
+	public void setConnectionSetupMS(final long connectionSetupMS) {
+		this.connectionSetupMS = connectionSetupMS;
+	}
+
+	/** Cause downloads to stall. Each of the next downloads sends the response headers and
+	 * the given number of bytes, and then sends nothing more until the client gives up.
+	 * @param stallAfterBytes the number of bytes to send before stalling.
+	 * @param count the number of downloads that stall.
+	 */
+	public void setDownloadStalls(final long stallAfterBytes, final int count) {
+		this.stallAfterBytes = stallAfterBytes;
+		stallingDownloads.set(count);
+	}
+
+	/** Cause downloads to be corrupted. The first byte of each of the next downloads is
+	 * altered.
+	 * @param count the number of downloads to corrupt.
+	 */
+	public void setCorruptDownloads(final int count) {
+		corruptDownloads.set(count);
+	}
+
+	/** Cause uploads to be corrupted. The first byte of the file of each of the next created
+	 * nodes is altered before the node is stored.
+	 * @param count the number of uploads to corrupt.
+	 */
+	public void setCorruptUploads(final int count) {
+		corruptUploads.set(count);
+	}
+
+	/** Cause uploads to be rejected with a 401 error. Requests with the Expect: 100-continue
+	 * header are rejected as soon as the request headers are received, and the client should
+	 * not then send the body. Other requests with a body are rejected once the body has been
+	 * received.
+	 * @param rejectUploads true to reject uploads.
+	 */
+	public void setRejectUploads(final boolean rejectUploads) {
+		this.rejectUploads = rejectUploads;
+	}
+
+	/** Cause downloads of nodes without a file to return an empty response rather than a 400
+	 * error.
+	 * @param emptyNoFileDownloads true to return an empty response.
+	 */
+	public void setEmptyNoFileDownloads(final boolean emptyNoFileDownloads) {
+		this.emptyNoFileDownloads = emptyNoFileDownloads;
+	}
+
+	/** Get the number of bytes of request body the server has received for rejected uploads.
+	 * @return the number of bytes.
+	 */
+	public long getRejectedUploadBytes() {
+		return rejectedUploadBytes.get();
+	}
+
+	/** Check whether a node exists.
+	 * @param id the ID of the node.
+	 * @return true if the node exists.
+	 */
+	public boolean hasNode(final String id) {
+		return nodes.containsKey(id);
+	}
+
+	/** Get the number of requests the server has received.
+	 * @return the request count.
+	 */
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	/** Get the number of distinct client connections the server has seen.
+	 * @return the connection count.
+	 */
+	public int getConnectionCount() {
+		return clients.size();
+	}
+
+	/** Create a node directly in the server's store.
+	 * @param owner the owner of the node.
+	 * @param data the node's file.
+	 * @param filename the node's file name.
+	 * @param format the node's format, or null.
+	 * @return the node id.
+	 */
+	public String addNode(
+			final String owner,
+			final byte[] data,
+			final String filename,
+			final String format) {
+		final Node n = new Node(owner, data, filename, format);
+		nodes.put(n.id, n);
+		return n.id;
+	}
+
+	@Override
+	public void close() {
+		server.close(CloseMode.IMMEDIATE);
+		scheduler.shutdownNow();
+	}
+
+	private static class Response {
+
+		private final int code;
+		private final byte[] body;
+		private final ContentType type;
+		private final long stallAfter;
+
+		private Response(final int code, final byte[] body, final ContentType type) {
+			this(code, body, type, -1);
+		}
+
+		private Response(
+				final int code,
+				final byte[] body,
+				final ContentType type,
+				final long stallAfter) {
+			this.code = code;
+			this.body = body;
+			this.type = type;
+			this.stallAfter = stallAfter;
+		}
+	}
+
+	/* Produces the start of an entity and then stalls forever. */
+	private static class StallingEntityProducer implements AsyncEntityProducer {
+
+		private final ByteBuffer data;
+		private final ContentType type;
+		private final long length;
+
+		private StallingEntityProducer(
+				final byte[] body,
+				final ContentType type,
+				final long stallAfter) {
+			this.data = ByteBuffer.wrap(body, 0, (int) Math.min(body.length, stallAfter));
+			this.type = type;
+			this.length = body.length;
+		}
+
+		@Override
+		public int available() {
+			return data.remaining();
+		}
+
+		@Override
+		public void produce(final DataStreamChannel channel) throws IOException {
+			if (data.hasRemaining()) {
+				channel.write(data);
+			}
+		}
+
+		@Override
+		public long getContentLength() {
+			return length;
+		}
+
+		@Override
+		public String getContentType() {
+			return type.toString();
+		}
+
+		@Override
+		public String getContentEncoding() {
+			return null;
+		}
+
+		@Override
+		public boolean isChunked() {
+			return false;
+		}
+
+		@Override
+		public Set<String> getTrailerNames() {
+			return null;
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		@Override
+		public void failed(final Exception cause) {
+			// nothing to do
+		}
+
+		@Override
+		public void releaseResources() {
+			// nothing to do
+		}
+	}
+
+	/* Rejects uploads. Requests expecting 100 Continue are rejected before the body is
+	 * received, and so before the server sends 100 Continue. Any body the client sends is
+	 * counted and discarded.
+	 */
+	private class RejectUploadsFilter implements AsyncFilterHandler {
+
+		@Override
+		public AsyncDataConsumer handle(
+				final HttpRequest request,
+				final EntityDetails entityDetails,
+				final HttpContext context,
+				final AsyncFilterChain.ResponseTrigger responseTrigger,
+				final AsyncFilterChain chain)
+				throws HttpException, IOException {
+			if (!rejectUploads || entityDetails == null) {
+				return chain.proceed(request, entityDetails, context, responseTrigger);
+			}
+			requests.incrementAndGet();
+			final Header expect = request.getFirstHeader("Expect");
+			if (expect != null && expect.getValue().equalsIgnoreCase("100-continue")) {
+				reject(responseTrigger, HttpCoreContext.adapt(context).getProtocolVersion()
+						.lessEquals(HttpVersion.HTTP_1_1));
+			}
+			return new AsyncDataConsumer() {
+
+				@Override
+				public void updateCapacity(final CapacityChannel capacityChannel)
+						throws IOException {
+					capacityChannel.update(Integer.MAX_VALUE);
+				}
+
+				@Override
+				public void consume(final ByteBuffer src) {
+					rejectedUploadBytes.addAndGet(src.remaining());
+					src.position(src.limit());
+				}
+
+				@Override
+				public void streamEnd(final List<? extends Header> trailers)
+						throws HttpException, IOException {
+					if (expect == null) {
+						reject(responseTrigger, false);
+					}
+				}
+
+				@Override
+				public void releaseResources() {
+					// nothing to do
+				}
+			};
+		}
+
+		private void reject(
+				final AsyncFilterChain.ResponseTrigger responseTrigger,
+				final boolean closeConnection)
+				throws HttpException, IOException {
+			final Response r = error(401, "Invalid authorization header or content");
+			final BasicHttpResponse resp = new BasicHttpResponse(r.code);
+			if (closeConnection) {
+				// as a Go server does for an HTTP/1.1 request rejected before the body is
+				// sent, since the body the connection expects won't arrive
+				resp.addHeader("Connection", "close");
+			}
+			responseTrigger.submitResponse(resp, new BasicAsyncEntityProducer(r.body, r.type));
+		}
+	}
+
+	private class Handler implements AsyncServerRequestHandler<Message<HttpRequest, byte[]>> {
+
+		@Override
+		public AsyncRequestConsumer<Message<HttpRequest, byte[]>> prepare(
+				final HttpRequest request,
+				final EntityDetails entityDetails,
+				final HttpContext context) {
+			return new BasicRequestConsumer<>(new BasicAsyncEntityConsumer());
+		}
+
+		@Override
+		public void handle(
+				final Message<HttpRequest, byte[]> message,
+				final ResponseTrigger responseTrigger,
+				final HttpContext context)
+				throws HttpException, IOException {
+			requests.incrementAndGet();
+			Response r;
+			try {
+				r = process(message.getHead(), message.getBody());
+			} catch (Exception e) {
+				r = error(500, e.toString());
+			}
+			long delay = latencyMS;
+			final SocketAddress client = HttpCoreContext.adapt(context)
+					.getEndpointDetails().getRemoteAddress();
+			if (clients.add(client)) {
+				delay += connectionSetupMS;
+			}
+			final BasicResponseProducer resp = new BasicResponseProducer(r.code,
+					r.stallAfter < 0 ? new BasicAsyncEntityProducer(r.body, r.type) :
+						new StallingEntityProducer(r.body, r.type, r.stallAfter));
+			if (delay > 0) {
+				scheduler.schedule(() -> {
+					try {
+						responseTrigger.submitResponse(resp, context);
+					} catch (Exception e) {
+						// client went away, nothing to do
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			} else {
+				responseTrigger.submitResponse(resp, context);
+			}
+		}
+	}
+
+	private Response process(final HttpRequest req, final byte[] body) throws Exception {
+		final URI uri = req.getUri();
+		final String path = uri.getPath();
+		final String method = req.getMethod();
+		if (path.equals("/")) {
+			final Map<String, Object> root = new HashMap<>();
+			root.put("id", "Shock");
+			root.put("version", "0.9.6");
+			return json(200, root);
+		}
+		if (!path.startsWith("/node")) {
+			return error(404, "Not Found");
+		}
+		final String[] parts = path.substring("/node".length()).replaceAll("^/+", "")
+				.split("/");
+		final String user = getUser(req);
+		if (parts[0].isEmpty()) {
+			if (!method.equals("POST")) {
+				return error(400, "Unsupported method");
+			}
+			return createNode(req, body, user);
+		}
+		final Node n = nodes.get(parts[0]);
+		if (n == null) {
+			return error(404, "Node not found");
+		}
+		if (parts.length == 1) {
+			if (method.equals("DELETE")) {
+				if (!Objects.equals(n.owner, user)) {
+					return error(401, "User Unauthorized");
+				}
+				nodes.remove(n.id);
+				return data(null);
+			}
+			if (uri.getRawQuery() != null && uri.getRawQuery().startsWith("download")) {
+				return download(n, getQuery(uri));
+			}
+			return data(toMap(n));
+		}
+		if (!parts[1].equals("acl")) {
+			return error(400, "Unsupported path");
+		}
+		synchronized (n) {
+			if (parts.length == 3) {
+				final Map<String, String> query = getQuery(uri);
+				if (parts[2].equals("public_read")) {
+					n.publicRead = method.equals("PUT");
+				} else if (n.acls.containsKey(parts[2])) {
+					final List<String> acl = n.acls.get(parts[2]);
+					for (final String u: query.get("users").split(",")) {
+						if (method.equals("PUT") && !acl.contains(u)) {
+							acl.add(u);
+						} else if (method.equals("DELETE")) {
+							acl.remove(u);
+						}
+					}
+				} else {
+					return error(400, "Unsupported ACL type");
+				}
+			}
+			return data(toACLMap(n));
+		}
+	}
+
+	private Response download(final Node n, final Map<String, String> query) {
+		if (n.data.length == 0 && !emptyNoFileDownloads) {
+			return error(400, "Node has no file");
+		}
+		byte[] data = n.data;
+		if (query.containsKey("seek") || query.containsKey("length")) {
+			final int seek = Integer.parseInt(query.getOrDefault("seek", "0"));
+			final int length = query.containsKey("length") ?
+					Integer.parseInt(query.get("length")) : data.length - seek;
+			data = Arrays.copyOfRange(data, seek, Math.min(data.length, seek + length));
+		}
+		if (data.length > 0 && corruptDownloads.getAndUpdate(i -> Math.max(0, i - 1)) > 0) {
+			data = Arrays.copyOf(data, data.length);
+			data[0]++;
+		}
+		final long stallAfter = stallingDownloads.getAndUpdate(i -> Math.max(0, i - 1)) > 0 ?
+				stallAfterBytes : -1;
+		return new Response(200, data, ContentType.APPLICATION_OCTET_STREAM, stallAfter);
+	}
+
+	private Response createNode(final HttpRequest req, final byte[] body, final String user)
+			throws Exception {
+		final String ct = req.getFirstHeader("Content-Type").getValue();
+		final String boundary = ct.substring(ct.indexOf("boundary=") + "boundary=".length());
+		final byte[] delim = ("--" + boundary).getBytes(StandardCharsets.US_ASCII);
+		final byte[] end = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+		final byte[] headerEnd = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		byte[] file = null;
+		String filename = null;
+		String format = null;
+		int pos = indexOf(body, delim, 0);
+		while (pos >= 0 && body[pos + delim.length] != '-') {
+			final int hstart = pos + delim.length + 2;
+			final int hend = indexOf(body, headerEnd, hstart);
+			final String headers = new String(
+					body, hstart, hend - hstart, StandardCharsets.UTF_8);
+			final int dstart = hend + headerEnd.length;
+			final int dend = indexOf(body, end, dstart);
+			final byte[] data = Arrays.copyOfRange(body, dstart, dend);
+			if (headers.contains("name=\"upload\"")) {
+				file = data;
+				if (file.length > 0 &&
+						corruptUploads.getAndUpdate(i -> Math.max(0, i - 1)) > 0) {
+					file[0]++;
+				}
+				final int fn = headers.indexOf("filename=\"") + "filename=\"".length();
+				filename = headers.substring(fn, headers.indexOf('"', fn));
+			} else if (headers.contains("name=\"format\"")) {
+				format = new String(data, StandardCharsets.UTF_8);
+			} else if (headers.contains("name=\"copy_data\"")) {
+				final Node src = nodes.get(new String(data, StandardCharsets.UTF_8));
+				if (src == null) {
+					return error(404, "Node not found");
+				}
+				file = src.data;
+				filename = src.filename;
+				format = src.format;
+			}
+			pos = dend + 2;
+		}
+		if (file == null) {
+			return error(400, "No file provided");
+		}
+		final Node n = new Node(user, file, filename, format);
+		nodes.put(n.id, n);
+		return data(toMap(n));
+	}
+
+	private static String getUser(final HttpRequest req) {
+		final Header auth = req.getFirstHeader("Authorization");
+		if (auth == null || !auth.getValue().startsWith(OAUTH)) {
+			return null;
+		}
+		return auth.getValue().substring(OAUTH.length());
+	}
+
+	private static Map<String, String> getQuery(final URI uri) {
+		final Map<String, String> ret = new HashMap<>();
+		if (uri.getQuery() != null) {
+			for (final String kv: uri.getQuery().split("[&;]")) {
+				final String[] p = kv.split("=", 2);
+				ret.put(p[0], p.length > 1 ? p[1] : "");
+			}
+		}
+		return ret;
+	}
+
+	private static int indexOf(final byte[] array, final byte[] target, final int from) {
+		outer:
+		for (int i = from; i <= array.length - target.length; i++) {
+			for (int j = 0; j < target.length; j++) {
+				if (array[i + j] != target[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static Map<String, Object> toMap(final Node n) throws NoSuchAlgorithmException {
+		final Map<String, Object> file = new HashMap<>();
+		file.put("name", n.filename);
+		file.put("size", n.data.length);
+		final Map<String, String> checksum = new HashMap<>();
+		checksum.put("md5", new String(Hex.encodeHex(
+				MessageDigest.getInstance("MD5").digest(n.data))));
+		file.put("checksum", checksum);
+		final Map<String, Object> node = new HashMap<>();
+		node.put("id", n.id);
+		node.put("format", n.format == null ? "" : n.format);
+		node.put("file", file);
+		return node;
+	}
+
+	private static Map<String, Object> toACLMap(final Node n) {
+		final Map<String, Object> acl = new LinkedHashMap<>();
+		acl.put("owner", toUser(n.owner));
+		for (final String type: ACL_TYPES) {
+			final List<Map<String, String>> users = new LinkedList<>();
+			for (final String u: n.acls.get(type)) {
+				users.add(toUser(u));
+			}
+			acl.put(type, users);
+		}
+		final Map<String, Boolean> pub = new HashMap<>();
+		pub.put("read", n.publicRead);
+		pub.put("write", false);
+		pub.put("delete", false);
+		acl.put("public", pub);
+		return acl;
+	}
+
+	private static Map<String, String> toUser(final String user) {
+		final Map<String, String> ret = new HashMap<>();
+		ret.put("uuid", "uuid-" + user);
+		ret.put("username", user);
+		return ret;
+	}
+
+	private Response data(final Object data) throws Exception {
+		final Map<String, Object> resp = new HashMap<>();
+		resp.put("data", data);
+		resp.put("error", null);
+		resp.put("status", 200);
+		return json(200, resp);
+	}
+
+	private Response error(final int code, final String error) {
+		final Map<String, Object> resp = new HashMap<>();
+		resp.put("data", null);
+		resp.put("error", Arrays.asList(error));
+		resp.put("status", code);
+		try {
+			return json(code, resp);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Response json(final int code, final Object body) throws Exception {
+		return new Response(code, mapper.writeValueAsBytes(body), ContentType.APPLICATION_JSON);
+	}
+}